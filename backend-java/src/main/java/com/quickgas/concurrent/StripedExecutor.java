@@ -0,0 +1,83 @@
+package com.quickgas.concurrent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor that runs tasks with the same key one at a time, in submission order,
+ * while tasks with different keys run in parallel. Each key is hashed onto one of
+ * a fixed number of single-threaded stripes with a bounded queue.
+ */
+@Slf4j
+public class StripedExecutor implements DisposableBean {
+    
+    private final String name;
+    private final ThreadPoolExecutor[] stripes;
+    private final long shutdownTimeoutSeconds;
+    
+    public StripedExecutor(String name, int stripeCount, int queueCapacityPerStripe, long shutdownTimeoutSeconds) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount must be positive");
+        }
+        this.name = name;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+        this.stripes = new ThreadPoolExecutor[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            String threadName = name + "-" + i;
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacityPerStripe),
+                runnable -> new Thread(runnable, threadName),
+                new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+    
+    /**
+     * Run the task after every task previously submitted with the same key
+     * @throws RejectedExecutionException if that key's stripe queue is full or the executor is shut down
+     */
+    public void execute(String key, Runnable task) {
+        stripes[stripeFor(key)].execute(task);
+    }
+    
+    public int getStripeCount() {
+        return stripes.length;
+    }
+    
+    /**
+     * Tasks waiting across all stripes
+     */
+    public int getQueuedTaskCount() {
+        int queued = 0;
+        for (ThreadPoolExecutor stripe : stripes) {
+            queued += stripe.getQueue().size();
+        }
+        return queued;
+    }
+    
+    private int stripeFor(String key) {
+        // Spread the hash so keys with similar prefixes do not cluster
+        int hash = key != null ? key.hashCode() : 0;
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, stripes.length);
+    }
+    
+    @Override
+    public void destroy() throws InterruptedException {
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        for (ThreadPoolExecutor stripe : stripes) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !stripe.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                log.warn("Striped executor {} did not finish queued tasks before shutdown", name);
+                stripe.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.quickgas.config;
+
+import com.quickgas.concurrent.StripedExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+    
+    /**
+     * CPU-bound pool for hashing and recompressing uploaded images.
+     * When the queue is full the submitting request thread does the work itself.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor imageProcessingExecutor(
+            @Value("${images.processing.threads:0}") int threads) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("image-processing-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        log.info("Image processing executor initialized: threads={}", poolSize);
+        return executor;
+    }
+    
+    /**
+     * Workers for the webhook inbox, striped by payment intent so events for one intent are
+     * applied in order while different intents run in parallel. A full stripe rejects the task
+     * instead of blocking the webhook request; the event is already stored and the inbox
+     * poller picks it up later.
+     */
+    @Bean
+    public StripedExecutor webhookExecutor(
+            @Value("${webhooks.inbox.threads:0}") int threads,
+            @Value("${webhooks.inbox.queue-capacity:1000}") int queueCapacity) {
+        int stripes = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2;
+        int queuePerStripe = Math.max(1, queueCapacity / stripes);
+        log.info("Webhook executor initialized: stripes={}, queueCapacityPerStripe={}", stripes, queuePerStripe);
+        return new StripedExecutor("webhook", stripes, queuePerStripe, 30);
+    }
+    
+    /**
+     * Workers for background driver payouts, striped by driver so one driver's payouts are
+     * sent one at a time while different drivers are paid in parallel
+     */
+    @Bean
+    public StripedExecutor payoutExecutor(
+            @Value("${payments.payouts.worker.threads:4}") int threads,
+            @Value("${payments.payouts.worker.queue-capacity:200}") int queueCapacity) {
+        int stripes = Math.max(1, threads);
+        int queuePerStripe = Math.max(1, queueCapacity / stripes);
+        log.info("Payout executor initialized: stripes={}, queueCapacityPerStripe={}", stripes, queuePerStripe);
+        return new StripedExecutor("payout", stripes, queuePerStripe, 30);
+    }
+}
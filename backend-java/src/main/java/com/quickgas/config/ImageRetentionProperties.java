@@ -0,0 +1,37 @@
+package com.quickgas.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Image retention settings (images.retention), with one policy per image type.
+ * Disabled unless turned on: both actions take the image out of the images table, so it
+ * can no longer be served and orders.delivery_photo_id is set to null.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "images.retention")
+public class ImageRetentionProperties {
+    
+    private boolean enabled = false;
+    private int batchSize = 500;
+    private Duration pauseBetweenBatches = Duration.ofMillis(200);
+    private int maxBatchesPerRun = 200;
+    private Map<String, Policy> policies = new LinkedHashMap<>();
+    
+    @Data
+    public static class Policy {
+        private Duration maxAge;
+        private Action action = Action.DELETE;
+    }
+    
+    public enum Action {
+        DELETE,
+        ARCHIVE
+    }
+}
@@ -0,0 +1,51 @@
+package com.quickgas.config;
+
+import com.quickgas.resilience.DependencyGuard;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-dependency bulkhead, timeout and circuit breaker limits (resilience.dependencies.*)
+ * and request deadline defaults (resilience.deadline.*)
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "resilience")
+public class ResilienceProperties {
+    
+    private Map<String, Dependency> dependencies = new LinkedHashMap<>();
+    private Deadline deadline = new Deadline();
+    
+    public Dependency forDependency(String name) {
+        return dependencies.getOrDefault(name, new Dependency());
+    }
+    
+    @Data
+    public static class Dependency {
+        private int maxConcurrentCalls = 20;
+        private Duration maxWait = Duration.ofMillis(100);
+        private Duration timeout = Duration.ofSeconds(10);
+        private int failureRateThreshold = 50; // percent
+        private int slidingWindowSize = 20;
+        private int minimumCalls = 10;
+        private Duration openDuration = Duration.ofSeconds(30);
+        
+        public DependencyGuard.Settings toSettings() {
+            return new DependencyGuard.Settings(maxConcurrentCalls, maxWait, timeout,
+                failureRateThreshold, slidingWindowSize, minimumCalls, openDuration);
+        }
+    }
+    
+    @Data
+    public static class Deadline {
+        private String header = "X-Request-Timeout-Ms";
+        private Duration defaultTimeout = Duration.ofSeconds(30);
+        private Duration maxTimeout = Duration.ofSeconds(120);
+        private Map<String, Duration> endpoints = new LinkedHashMap<>(); // path prefix -> budget
+    }
+}
@@ -0,0 +1,28 @@
+package com.quickgas.config;
+
+import com.quickgas.resilience.DeadlineAwareTransactionManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionManager;
+
+@Configuration
+public class TransactionConfig {
+    
+    /**
+     * Replaces the auto-configured JpaTransactionManager so transactions opened on a
+     * request thread are bounded by the request deadline
+     */
+    @Bean
+    public PlatformTransactionManager transactionManager(
+            EntityManagerFactory entityManagerFactory,
+            ObjectProvider<TransactionManagerCustomizers> customizers) {
+        DeadlineAwareTransactionManager transactionManager = new DeadlineAwareTransactionManager(entityManagerFactory);
+        // Typed as TransactionManager: the PlatformTransactionManager overload is deprecated for removal
+        customizers.ifAvailable(c -> c.customize((TransactionManager) transactionManager));
+        return transactionManager;
+    }
+}
@@ -1,17 +1,32 @@
 package com.quickgas.controller;
 
+import com.quickgas.dto.DriverEarnings;
 import com.quickgas.entity.DriverPayment;
+import com.quickgas.entity.DriverPayoutBatch;
+import com.quickgas.exception.GlobalExceptionHandler;
+import com.quickgas.exception.ValidationException;
+import com.quickgas.money.Money;
+import com.quickgas.resilience.DependencyUnavailableException;
+import com.quickgas.service.ConnectedAccountCache;
+import com.quickgas.service.DriverEarningsService;
+import com.quickgas.service.DriverPaymentHistoryService;
 import com.quickgas.service.DriverPaymentService;
+import com.quickgas.service.DriverPayoutBatchService;
 import com.quickgas.service.SecurityService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.stripe.exception.StripeException;
 import com.stripe.model.Account;
 import jakarta.servlet.http.HttpServletRequest;
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +37,9 @@ import java.util.Map;
 public class DriverPaymentController {
     
     private final DriverPaymentService driverPaymentService;
+    private final DriverPayoutBatchService driverPayoutBatchService;
+    private final DriverEarningsService driverEarningsService;
+    private final DriverPaymentHistoryService driverPaymentHistoryService;
     private final SecurityService securityService;
     
     @PostMapping
@@ -31,22 +49,25 @@ public class DriverPaymentController {
         try {
             String driverId = (String) request.get("driverId");
             String orderId = (String) request.get("orderId");
-            BigDecimal orderTotal = new BigDecimal(request.get("orderTotal").toString());
+            Object orderTotalValue = request.get("orderTotal");
             String currency = (String) request.getOrDefault("currency", "usd");
             String routeId = (String) request.get("routeId");
             String clientIp = httpRequest.getRemoteAddr();
             
-            if (driverId == null || orderId == null || orderTotal == null) {
+            if (driverId == null || orderId == null || orderTotalValue == null) {
                 return ResponseEntity.badRequest()
                     .body(Map.of("error", "driverId, orderId, and orderTotal are required"));
             }
             
+            // The one conversion from the decimal request value to minor units
+            Money orderTotal = Money.ofMajor(new BigDecimal(orderTotalValue.toString()), currency);
+            
             // Log security event
             securityService.logSecurityEvent("DRIVER_PAYMENT_CREATE_REQUEST", driverId, 
                     "orderId=" + orderId + ", amount=" + orderTotal + ", ip=" + clientIp);
             
             DriverPayment payment = driverPaymentService.createDriverPayment(
-                    driverId, orderId, orderTotal, currency, routeId);
+                    driverId, orderId, orderTotal, routeId);
             
             return ResponseEntity.ok(Map.of(
                 "success", true,
@@ -82,6 +103,9 @@ public class DriverPaymentController {
                 "transferId", payment.getStripeTransferId(),
                 "status", payment.getStatus()
             ));
+        } catch (DependencyUnavailableException e) {
+            log.warn("{}", e.getMessage());
+            return GlobalExceptionHandler.dependencyUnavailable(e);
         } catch (StripeException e) {
             log.error("Stripe payout error: {}", e.getMessage());
             return ResponseEntity.status(500)
@@ -121,6 +145,9 @@ public class DriverPaymentController {
             log.error("Payment processing error: {}", e.getMessage());
             return ResponseEntity.status(400)
                 .body(Map.of("error", e.getMessage()));
+        } catch (DependencyUnavailableException e) {
+            log.warn("{}", e.getMessage());
+            return GlobalExceptionHandler.dependencyUnavailable(e);
         } catch (StripeException e) {
             log.error("Stripe payout error: {}", e.getMessage());
             return ResponseEntity.status(500)
@@ -132,8 +159,18 @@ public class DriverPaymentController {
         }
     }
     
+    /**
+     * All payments for a driver, or one keyset page of them (newest first) when cursor or
+     * limit is given; pass the returned nextCursor to get the following page
+     */
     @GetMapping("/driver/{driverId}")
-    public ResponseEntity<?> getDriverPayments(@PathVariable String driverId) {
+    public ResponseEntity<?> getDriverPayments(
+            @PathVariable String driverId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        if (cursor != null || limit != null) {
+            return getPaymentPage(driverId, null, cursor, limit);
+        }
         try {
             List<DriverPayment> payments = driverPaymentService.getDriverPayments(driverId);
             return ResponseEntity.ok(Map.of(
@@ -147,10 +184,89 @@ public class DriverPaymentController {
         }
     }
     
+    /**
+     * Earnings per day and per currency from the pre-aggregated daily table.
+     * from/to are optional ISO dates (inclusive).
+     */
+    @GetMapping("/driver/{driverId}/earnings")
+    public ResponseEntity<?> getDriverEarnings(
+            @PathVariable String driverId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        try {
+            List<DriverEarnings> days = driverEarningsService.getDailyEarnings(driverId, from, to);
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "driverId", driverId,
+                "totals", driverEarningsService.totalsByCurrency(days),
+                "days", days
+            ));
+        } catch (Exception e) {
+            log.error("Get driver earnings error: {}", e.getMessage());
+            return ResponseEntity.status(500)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * Batched transfers for a driver; the payments in each carry its id as payoutBatchId
+     */
+    @GetMapping("/driver/{driverId}/batches")
+    public ResponseEntity<?> getDriverPayoutBatches(@PathVariable String driverId) {
+        try {
+            List<DriverPayoutBatch> batches = driverPayoutBatchService.getDriverBatches(driverId);
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "batches", batches
+            ));
+        } catch (Exception e) {
+            log.error("Get driver payout batches error: {}", e.getMessage());
+            return ResponseEntity.status(500)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * Every payment for a driver as newline-delimited JSON, written while rows are read.
+     * Runs as an async request bounded by spring.mvc.async.request-timeout.
+     */
+    @GetMapping(value = "/driver/{driverId}/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamDriverPayments(
+            @PathVariable String driverId,
+            @RequestParam(required = false) String status) {
+        StreamingResponseBody body = out -> driverPaymentHistoryService.streamAll(driverId, status, out);
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType("application/x-ndjson"))
+            .body(body);
+    }
+    
+    private ResponseEntity<?> getPaymentPage(String driverId, String status, String cursor, Integer limit) {
+        try {
+            DriverPaymentHistoryService.Page page = driverPaymentHistoryService.getPage(driverId, status, cursor, limit);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("payments", page.payments());
+            response.put("nextCursor", page.nextCursor());
+            return ResponseEntity.ok(response);
+        } catch (ValidationException e) {
+            return ResponseEntity.badRequest()
+                .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Get driver payment page error: {}", e.getMessage());
+            return ResponseEntity.status(500)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
     @GetMapping("/driver/{driverId}/status/{status}")
     public ResponseEntity<?> getDriverPaymentsByStatus(
             @PathVariable String driverId,
-            @PathVariable String status) {
+            @PathVariable String status,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        if (cursor != null || limit != null) {
+            return getPaymentPage(driverId, status, cursor, limit);
+        }
         try {
             List<DriverPayment> payments = driverPaymentService.getDriverPaymentsByStatus(
                     driverId, status);
@@ -186,6 +302,9 @@ public class DriverPaymentController {
                 "chargesEnabled", account.getChargesEnabled(),
                 "payoutsEnabled", account.getPayoutsEnabled()
             ));
+        } catch (DependencyUnavailableException e) {
+            log.warn("{}", e.getMessage());
+            return GlobalExceptionHandler.dependencyUnavailable(e);
         } catch (StripeException e) {
             log.error("Stripe Connect account creation error: {}", e.getMessage());
             return ResponseEntity.status(500)
@@ -215,6 +334,9 @@ public class DriverPaymentController {
                 "success", true,
                 "url", linkUrl
             ));
+        } catch (DependencyUnavailableException e) {
+            log.warn("{}", e.getMessage());
+            return GlobalExceptionHandler.dependencyUnavailable(e);
         } catch (StripeException e) {
             log.error("Stripe account link creation error: {}", e.getMessage());
             return ResponseEntity.status(500)
@@ -262,16 +384,19 @@ public class DriverPaymentController {
     @GetMapping("/connect/account/{accountId}")
     public ResponseEntity<?> getAccount(@PathVariable String accountId) {
         try {
-            Account account = driverPaymentService.getAccount(accountId);
+            ConnectedAccountCache.AccountStatus account = driverPaymentService.getAccountStatus(accountId);
             
             return ResponseEntity.ok(Map.of(
                 "success", true,
-                "accountId", account.getId(),
-                "detailsSubmitted", account.getDetailsSubmitted(),
-                "chargesEnabled", account.getChargesEnabled(),
-                "payoutsEnabled", account.getPayoutsEnabled(),
-                "email", account.getEmail() != null ? account.getEmail() : ""
+                "accountId", account.accountId(),
+                "detailsSubmitted", account.detailsSubmitted(),
+                "chargesEnabled", account.chargesEnabled(),
+                "payoutsEnabled", account.payoutsEnabled(),
+                "email", account.email() != null ? account.email() : ""
             ));
+        } catch (DependencyUnavailableException e) {
+            log.warn("{}", e.getMessage());
+            return GlobalExceptionHandler.dependencyUnavailable(e);
         } catch (StripeException e) {
             log.error("Get Stripe account error: {}", e.getMessage());
             return ResponseEntity.status(500)
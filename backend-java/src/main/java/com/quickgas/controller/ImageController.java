@@ -1,6 +1,7 @@
 package com.quickgas.controller;
 
 import com.quickgas.dto.ImageResponse;
+import com.quickgas.exception.ValidationException;
 import com.quickgas.service.ImageService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +12,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.List;
 import java.util.Map;
 
 @Slf4j
@@ -54,10 +56,49 @@ public class ImageController {
         }
     }
     
+    @PostMapping("/upload-batch")
+    public ResponseEntity<?> uploadImages(
+            @RequestParam("orderId") String orderId,
+            @RequestParam("imageType") String imageType,
+            @RequestParam("files") List<MultipartFile> files) {
+        try {
+            if (files.isEmpty()) {
+                return ResponseEntity.badRequest()
+                    .body(Map.of("error", "No files provided"));
+            }
+            
+            List<ImageResponse> responses = imageService.uploadImages(orderId, imageType, files);
+            return ResponseEntity.ok(Map.of("success", true, "images", responses));
+        } catch (ValidationException e) {
+            return ResponseEntity.badRequest()
+                .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Batch image upload error: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
     @GetMapping("/{imageId}")
     public ResponseEntity<byte[]> getImage(@PathVariable String imageId) {
         try {
-            var image = imageService.getImage(imageId);
+            if (imageService.isAccelRedirectEnabled()) {
+                // nginx streams the file; this thread is released as soon as the headers are written
+                var image = imageService.getImage(imageId);
+                
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.parseMediaType(image.getContentType()));
+                headers.set("Content-Disposition", 
+                    "inline; filename=\"" + image.getFileName() + "\"");
+                headers.set("X-Accel-Redirect", imageService.getAccelRedirectPath(image));
+                
+                return ResponseEntity.ok()
+                    .headers(headers)
+                    .build();
+            }
+            
+            var cached = imageService.loadImage(imageId);
+            var image = cached.getImage();
             
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.parseMediaType(image.getContentType()));
@@ -67,7 +108,7 @@ public class ImageController {
             
             return ResponseEntity.ok()
                 .headers(headers)
-                .body(image.getImageData());
+                .body(cached.getData());
         } catch (Exception e) {
             log.error("Image retrieval error: {}", e.getMessage());
             return ResponseEntity.notFound().build();
@@ -0,0 +1,126 @@
+package com.quickgas.controller;
+
+import com.quickgas.dto.ImageResponse;
+import com.quickgas.dto.ImageUploadInitiateRequest;
+import com.quickgas.entity.ImageUploadSession;
+import com.quickgas.exception.ValidationException;
+import com.quickgas.service.ImageUploadSessionService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resumable upload protocol for large photos on unreliable connections:
+ * POST /api/images/uploads to start, PUT /{uploadId}?offset=N with raw chunk bytes,
+ * GET /{uploadId} to find where to resume, POST /{uploadId}/complete to finish.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/images/uploads")
+@RequiredArgsConstructor
+public class ImageUploadSessionController {
+    
+    private final ImageUploadSessionService uploadSessionService;
+    
+    @PostMapping
+    public ResponseEntity<?> initiateUpload(@Valid @RequestBody ImageUploadInitiateRequest request) {
+        try {
+            ImageUploadSession session = uploadSessionService.initiate(request.getOrderId(),
+                request.getImageType(), request.getFileName(), request.getContentType(),
+                request.getTotalSize(), request.getSha256());
+            
+            Map<String, Object> response = sessionStatus(session);
+            response.put("maxChunkBytes", uploadSessionService.getMaxChunkBytes());
+            response.put("expiresAt", session.getExpiresAt().toString());
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (ValidationException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Upload session creation error: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getUpload(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(sessionStatus(uploadSessionService.getSession(uploadId)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    @PutMapping("/{uploadId}")
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String uploadId,
+            @RequestParam("offset") long offset,
+            HttpServletRequest request) {
+        try {
+            long received = uploadSessionService.appendChunk(uploadId, offset, request.getInputStream());
+            return ResponseEntity.ok(Map.of("uploadId", uploadId, "offset", received));
+        } catch (ImageUploadSessionService.OffsetMismatchException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(Map.of("error", e.getMessage(), "offset", e.getExpectedOffset()));
+        } catch (ValidationException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Chunk upload error: uploadId={}, error={}", uploadId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String uploadId) {
+        try {
+            ImageResponse response = uploadSessionService.complete(uploadId);
+            return ResponseEntity.ok(response);
+        } catch (ValidationException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Upload completion error: uploadId={}, error={}", uploadId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> abortUpload(@PathVariable String uploadId) {
+        try {
+            uploadSessionService.abort(uploadId);
+            return ResponseEntity.ok(Map.of("success", true, "message", "Upload aborted"));
+        } catch (Exception e) {
+            log.error("Upload abort error: uploadId={}, error={}", uploadId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    private Map<String, Object> sessionStatus(ImageUploadSession session) {
+        Map<String, Object> status = new HashMap<>();
+        status.put("uploadId", session.getId());
+        status.put("status", session.getStatus());
+        status.put("offset", session.getReceivedBytes());
+        status.put("totalSize", session.getTotalSize());
+        if (session.getImageId() != null) {
+            status.put("imageId", session.getImageId());
+        }
+        return status;
+    }
+}
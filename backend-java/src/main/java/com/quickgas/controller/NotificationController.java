@@ -3,6 +3,8 @@ package com.quickgas.controller;
 import com.quickgas.dto.NotificationRequest;
 import com.quickgas.dto.BatchNotificationRequest;
 import com.quickgas.service.NotificationService;
+import com.quickgas.exception.GlobalExceptionHandler;
+import com.quickgas.resilience.DependencyUnavailableException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -32,6 +34,9 @@ public class NotificationController {
                 "success", true,
                 "messageId", messageId
             ));
+        } catch (DependencyUnavailableException e) {
+            log.warn("{}", e.getMessage());
+            return GlobalExceptionHandler.dependencyUnavailable(e);
         } catch (Exception e) {
             log.error("Notification sending error: {}", e.getMessage());
             return ResponseEntity.status(500)
@@ -53,6 +58,9 @@ public class NotificationController {
                 "successCount", result.get("successCount"),
                 "failureCount", result.get("failureCount")
             ));
+        } catch (DependencyUnavailableException e) {
+            log.warn("{}", e.getMessage());
+            return GlobalExceptionHandler.dependencyUnavailable(e);
         } catch (Exception e) {
             log.error("Batch notification error: {}", e.getMessage());
             return ResponseEntity.status(500)
@@ -5,15 +5,20 @@ import com.quickgas.dto.PaymentIntentResponse;
 import com.quickgas.dto.PaymentConfirmRequest;
 import com.quickgas.dto.PaymentCancelRequest;
 import com.quickgas.service.PaymentService;
+import com.quickgas.service.PaymentStatusService;
 import com.quickgas.service.SecurityService;
+import com.stripe.exception.InvalidRequestException;
 import com.stripe.exception.StripeException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import java.time.Duration;
+import java.util.Map;
 
 @Slf4j
 @RestController
@@ -23,6 +28,7 @@ public class PaymentController {
     
     private final PaymentService paymentService;
     private final SecurityService securityService;
+    private final PaymentStatusService paymentStatusService;
     
     @PostMapping("/create-intent")
     public ResponseEntity<PaymentIntentResponse> createPaymentIntent(
@@ -65,6 +71,34 @@ public class PaymentController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Latest known status of a payment intent. With waitMs and knownStatus the request is held
+     * (long-poll) until the status differs from knownStatus or waitMs elapses.
+     */
+    @GetMapping("/{paymentIntentId}/status")
+    public DeferredResult<Map<String, Object>> getPaymentStatus(
+            @PathVariable String paymentIntentId,
+            @RequestParam(required = false) String knownStatus,
+            @RequestParam(defaultValue = "0") long waitMs) throws StripeException {
+        try {
+            return paymentStatusService.awaitChange(paymentIntentId, knownStatus, Duration.ofMillis(waitMs));
+        } catch (InvalidRequestException e) {
+            if (!"resource_missing".equals(e.getCode())) {
+                throw e;
+            }
+            DeferredResult<Map<String, Object>> notFound = new DeferredResult<>();
+            notFound.setErrorResult(ResponseEntity.status(404).body(Map.of("error", "Payment intent not found")));
+            return notFound;
+        }
+    }
+    
+    @GetMapping("/status")
+    public ResponseEntity<?> getOrderPaymentStatus(@RequestParam String orderId) throws StripeException {
+        return paymentStatusService.getStatusForOrder(orderId)
+            .<ResponseEntity<?>>map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.status(404).body(Map.of("error", "No payment found for order")));
+    }
+    
     @PostMapping("/cancel")
     public ResponseEntity<?> cancelPayment(@Valid @RequestBody PaymentCancelRequest request) throws StripeException {
         log.info("Cancelling payment: paymentIntentId={}", request.getPaymentIntentId());
@@ -1,9 +1,11 @@
 package com.quickgas.controller;
 
 import com.quickgas.service.PaymentWebhookService;
+import com.quickgas.service.WebhookEnvelope;
+import com.quickgas.service.WebhookInboxService;
 import com.stripe.exception.SignatureVerificationException;
-import com.stripe.model.Event;
 import com.stripe.net.Webhook;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -17,10 +19,15 @@ import org.springframework.web.bind.annotation.*;
 @RequiredArgsConstructor
 public class PaymentWebhookController {
     
+    // Same replay window Stripe's own Webhook.constructEvent applies
+    private static final long SIGNATURE_TOLERANCE_SECONDS = 300;
+    
     @Value("${stripe.webhook-secret:}")
     private String webhookSecret;
     
-    private final PaymentWebhookService webhookService;
+    private final WebhookInboxService webhookInboxService;
+    private final PaymentWebhookService paymentWebhookService;
+    private final MeterRegistry meterRegistry;
     
     @PostMapping("/webhook")
     public ResponseEntity<String> handleWebhook(
@@ -33,11 +40,12 @@ public class PaymentWebhookController {
                 .body("Webhook secret not configured");
         }
         
-        Event event;
+        WebhookEnvelope event;
         
         try {
-            // Verify webhook signature
-            event = Webhook.constructEvent(payload, sigHeader, webhookSecret);
+            // Verify webhook signature, then read only the routing fields (no full Event deserialisation)
+            Webhook.Signature.verifyHeader(payload, sigHeader, webhookSecret, SIGNATURE_TOLERANCE_SECONDS);
+            event = WebhookEnvelope.parse(payload);
             log.info("Webhook event received: type={}, id={}", event.getType(), event.getId());
         } catch (SignatureVerificationException e) {
             log.error("Webhook signature verification failed: {}", e.getMessage());
@@ -49,14 +57,23 @@ public class PaymentWebhookController {
                 .body("Error processing webhook");
         }
         
-        // Handle the event
+        if (!paymentWebhookService.handles(event.getType())) {
+            // Nothing would be done with it, so don't store or process it
+            meterRegistry.counter("webhooks.ignored", "type", event.getType()).increment();
+            return ResponseEntity.ok("Webhook event type ignored");
+        }
+        
+        // Store the event and acknowledge; processing happens asynchronously
         try {
-            webhookService.handleEvent(event);
-            return ResponseEntity.ok("Webhook processed successfully");
+            if (!webhookInboxService.enqueue(event)) {
+                return ResponseEntity.ok("Duplicate webhook ignored");
+            }
+            return ResponseEntity.ok("Webhook received");
         } catch (Exception e) {
-            log.error("Error handling webhook event: type={}, id={}", event.getType(), event.getId(), e);
+            // Not stored, so let Stripe retry the delivery
+            log.error("Error storing webhook event: type={}, id={}", event.getType(), event.getId(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("Error handling webhook event");
+                .body("Error storing webhook event");
         }
     }
 }
@@ -3,6 +3,8 @@ package com.quickgas.controller;
 import com.quickgas.dto.RouteOptimizeRequest;
 import com.quickgas.dto.RouteStartRequest;
 import com.quickgas.service.RouteService;
+import com.quickgas.exception.GlobalExceptionHandler;
+import com.quickgas.resilience.DependencyUnavailableException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -24,6 +26,9 @@ public class RouteController {
         try {
             var response = routeService.optimizeRoute(request);
             return ResponseEntity.ok(response);
+        } catch (DependencyUnavailableException e) {
+            log.warn("{}", e.getMessage());
+            return GlobalExceptionHandler.dependencyUnavailable(e);
         } catch (Exception e) {
             log.error("Route optimization error: {}", e.getMessage());
             return ResponseEntity.status(500)
@@ -0,0 +1,23 @@
+package com.quickgas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Earnings for one driver in one currency, either for a single day or (day = null) a whole range
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DriverEarnings {
+    private LocalDate day;
+    private String currency;
+    private int paymentCount;
+    private BigDecimal grossAmount;
+    private BigDecimal paidAmount;
+    private BigDecimal pendingAmount;
+}
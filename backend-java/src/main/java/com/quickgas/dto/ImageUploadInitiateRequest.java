@@ -0,0 +1,27 @@
+package com.quickgas.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import lombok.Data;
+
+@Data
+public class ImageUploadInitiateRequest {
+    private String orderId;
+    
+    @NotBlank(message = "Image type is required")
+    private String imageType; // 'delivery_photo', 'profile_picture', etc.
+    
+    private String fileName;
+    
+    @NotBlank(message = "Content type is required")
+    private String contentType;
+    
+    @NotNull(message = "Total size is required")
+    @Positive(message = "Total size must be greater than 0")
+    private Long totalSize;
+    
+    @Pattern(regexp = "^[0-9a-fA-F]{64}$", message = "SHA-256 must be 64 hex characters")
+    private String sha256; // Optional, checked on completion
+}
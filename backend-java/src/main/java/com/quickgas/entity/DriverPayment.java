@@ -36,7 +36,17 @@ public class DriverPayment {
     private String currency;
     
     @Column(name = "status", nullable = false, length = 50)
-    private String status; // 'pending', 'paid', 'failed'
+    private String status; // 'pending', 'transfer_pending', 'paid', 'failed'
+    
+    @Builder.Default
+    @Column(name = "payout_attempts", nullable = false)
+    private Integer payoutAttempts = 0; // Stripe transfer attempts, part of the idempotency key
+    
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt; // Earliest retry by the payout worker after a failed attempt
+    
+    @Column(name = "payout_batch_id")
+    private Long payoutBatchId; // Set when paid as part of a batched transfer
     
     @Column(name = "stripe_payout_id")
     private String stripePayoutId;
@@ -0,0 +1,68 @@
+package com.quickgas.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * One Stripe transfer covering all of a driver's pending payments in a currency at settlement time
+ */
+@Entity
+@Table(name = "driver_payout_batches")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DriverPayoutBatch {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "driver_id", nullable = false)
+    private String driverId;
+    
+    @Column(name = "stripe_account_id", nullable = false)
+    private String stripeAccountId;
+    
+    @Column(name = "currency", nullable = false, length = 10)
+    private String currency;
+    
+    @Builder.Default
+    @Column(name = "amount", nullable = false, precision = 12, scale = 2)
+    private BigDecimal amount = BigDecimal.ZERO;
+    
+    @Builder.Default
+    @Column(name = "payment_count", nullable = false)
+    private Integer paymentCount = 0;
+    
+    @Column(name = "status", nullable = false, length = 50)
+    private String status; // 'transfer_pending', 'paid', 'failed', 'released'
+    
+    @Column(name = "stripe_transfer_id")
+    private String stripeTransferId;
+    
+    @Column(name = "paid_at")
+    private LocalDateTime paidAt;
+    
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+    }
+    
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
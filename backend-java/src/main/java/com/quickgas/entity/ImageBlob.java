@@ -0,0 +1,34 @@
+package com.quickgas.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "image_blobs")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageBlob {
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String contentHash; // hex SHA-256 of the uploaded bytes
+    
+    @Lob
+    @Column(name = "data", nullable = false, columnDefinition = "BYTEA")
+    private byte[] data;
+    
+    @Column(name = "size", nullable = false)
+    private Long size;
+    
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount;
+    
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -4,7 +4,10 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.springframework.data.domain.Persistable;
 
 import java.time.LocalDateTime;
 
@@ -14,7 +17,7 @@ import java.time.LocalDateTime;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class ImageEntity {
+public class ImageEntity implements Persistable<String> {
     @Id
     private String id;
     
@@ -33,9 +36,8 @@ public class ImageEntity {
     @Column(name = "file_size", nullable = false)
     private Long fileSize;
     
-    @Lob
-    @Column(name = "image_data", nullable = false, columnDefinition = "BYTEA")
-    private byte[] imageData;
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash; // references image_blobs.content_hash
     
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -43,6 +45,24 @@ public class ImageEntity {
     @Column(name = "updated_at", nullable = false)
     private LocalDateTime updatedAt;
     
+    // IDs are assigned by the application, so tell Spring Data when to persist instead of merge
+    @Transient
+    @Builder.Default
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private boolean newEntity = true;
+    
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+    
+    @PostLoad
+    @PostPersist
+    protected void markNotNew() {
+        newEntity = false;
+    }
+    
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -0,0 +1,32 @@
+package com.quickgas.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Entity
+@Table(name = "image_upload_chunks")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageUploadChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "upload_id", nullable = false)
+    private String uploadId;
+    
+    @Column(name = "chunk_offset", nullable = false)
+    private Long chunkOffset; // Byte offset of this chunk within the file
+    
+    @Column(name = "size", nullable = false)
+    private Integer size;
+    
+    @Lob
+    @Column(name = "data", nullable = false, columnDefinition = "BYTEA")
+    private byte[] data;
+}
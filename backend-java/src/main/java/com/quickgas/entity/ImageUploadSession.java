@@ -0,0 +1,67 @@
+package com.quickgas.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "image_upload_sessions")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageUploadSession {
+    @Id
+    private String id;
+    
+    @Column(name = "order_id")
+    private String orderId;
+    
+    @Column(name = "image_type", nullable = false)
+    private String imageType;
+    
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+    
+    @Column(name = "content_type", nullable = false)
+    private String contentType;
+    
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+    
+    @Column(name = "received_bytes", nullable = false)
+    private Long receivedBytes;
+    
+    @Column(name = "expected_hash", length = 64)
+    private String expectedHash; // Optional SHA-256 supplied by the client
+    
+    @Column(name = "status", nullable = false, length = 50)
+    private String status; // 'uploading', 'completed'
+    
+    @Column(name = "image_id")
+    private String imageId;
+    
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+    
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+    }
+    
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
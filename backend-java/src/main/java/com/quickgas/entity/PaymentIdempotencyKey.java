@@ -0,0 +1,42 @@
+package com.quickgas.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "payment_idempotency_keys")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentIdempotencyKey {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "user_id", nullable = false)
+    private String userId;
+    
+    @Column(name = "idempotency_key", nullable = false)
+    private String idempotencyKey;
+    
+    @Column(name = "request_fingerprint", nullable = false, length = 64)
+    private String requestFingerprint; // SHA-256 of amount, currency and metadata
+    
+    @Column(name = "payment_intent_id", nullable = false)
+    private String paymentIntentId;
+    
+    @Column(name = "client_secret", nullable = false)
+    private String clientSecret;
+    
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -23,8 +23,11 @@ public class PaymentTransaction {
     @Column(name = "order_id", nullable = false)
     private String orderId;
     
-    @Column(name = "stripe_payment_intent_id", nullable = false, unique = true)
-    private String stripePaymentIntentId;
+    @Column(name = "stripe_payment_intent_id", unique = true)
+    private String stripePaymentIntentId; // Null while status is 'creating'
+    
+    @Column(name = "reference", unique = true, length = 64)
+    private String reference; // Local id sent as Stripe metadata, used to recover unlinked intents
     
     @Column(name = "amount", nullable = false, precision = 10, scale = 2)
     private BigDecimal amount;
@@ -35,6 +38,9 @@ public class PaymentTransaction {
     @Column(name = "status", nullable = false, length = 50)
     private String status;
     
+    @Column(name = "last_event_created")
+    private Long lastEventCreated; // Stripe event.created (epoch seconds) of the last applied webhook
+    
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
     
@@ -0,0 +1,47 @@
+package com.quickgas.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "webhook_dead_letters")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WebhookDeadLetter {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "webhook_event_id", nullable = false)
+    private Long webhookEventId;
+    
+    @Column(name = "stripe_event_id", nullable = false)
+    private String stripeEventId;
+    
+    @Column(name = "event_type", nullable = false, length = 100)
+    private String eventType;
+    
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload;
+    
+    @Column(name = "error", columnDefinition = "TEXT")
+    private String error;
+    
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+    
+    @Column(name = "failed_at", nullable = false, updatable = false)
+    private LocalDateTime failedAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        failedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,62 @@
+package com.quickgas.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "webhook_events")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WebhookEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "stripe_event_id", nullable = false)
+    private String stripeEventId;
+    
+    @Column(name = "event_type", nullable = false, length = 100)
+    private String eventType;
+    
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload; // Raw verified request body
+    
+    @Column(name = "ordering_key")
+    private String orderingKey; // Events with the same key (e.g. payment intent id) are processed in order
+    
+    @Column(name = "status", nullable = false, length = 50)
+    private String status; // pending, processing, processed, dead_letter
+    
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+    
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+    
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+    
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+    
+    @Column(name = "received_at", nullable = false, updatable = false)
+    private LocalDateTime receivedAt;
+    
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        receivedAt = LocalDateTime.now();
+        if (nextAttemptAt == null) {
+            nextAttemptAt = receivedAt;
+        }
+    }
+}
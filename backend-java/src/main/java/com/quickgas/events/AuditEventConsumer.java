@@ -0,0 +1,41 @@
+package com.quickgas.events;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Writes one structured audit line per domain event and counts events by type
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AuditEventConsumer implements DomainEventConsumer {
+    
+    private final MeterRegistry meterRegistry;
+    
+    @Override
+    public String getName() {
+        return "audit";
+    }
+    
+    @Override
+    public void onEvents(List<DomainEvent> events) {
+        for (DomainEvent event : events) {
+            if (event instanceof DomainEvent.PaymentSucceeded e) {
+                log.info("AUDIT payment_succeeded: paymentIntentId={}, eventCreated={}, at={}",
+                    e.paymentIntentId(), e.eventCreated(), e.occurredAt());
+            } else if (event instanceof DomainEvent.RouteStarted e) {
+                log.info("AUDIT route_started: routeId={}, orderIds={}, at={}",
+                    e.routeId(), e.orderIds(), e.occurredAt());
+            } else if (event instanceof DomainEvent.PayoutPaid e) {
+                log.info("AUDIT payout_paid: driverPaymentId={}, driverId={}, orderId={}, amount={}, transferId={}, at={}",
+                    e.driverPaymentId(), e.driverId(), e.orderId(), e.amount(), e.transferId(), e.occurredAt());
+            }
+            meterRegistry.counter("events.domain", "type", event.getClass().getSimpleName()).increment();
+        }
+    }
+}
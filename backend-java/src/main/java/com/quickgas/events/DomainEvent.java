@@ -0,0 +1,33 @@
+package com.quickgas.events;
+
+import com.quickgas.money.Money;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Facts published on the {@link DomainEventBus}. Events are immutable so the same
+ * instance can be read by every consumer without copying.
+ */
+public sealed interface DomainEvent
+        permits DomainEvent.PaymentSucceeded, DomainEvent.RouteStarted, DomainEvent.PayoutPaid {
+    
+    Instant occurredAt();
+    
+    /**
+     * A customer payment intent reached succeeded (from a Stripe webhook)
+     * @param eventCreated Stripe event.created, epoch seconds
+     */
+    record PaymentSucceeded(String paymentIntentId, long eventCreated, Instant occurredAt) implements DomainEvent {
+    }
+    
+    record RouteStarted(String routeId, List<String> orderIds, Instant occurredAt) implements DomainEvent {
+    }
+    
+    /**
+     * A driver payment was transferred to the driver's connected account
+     */
+    record PayoutPaid(Long driverPaymentId, String driverId, String orderId, Money amount, String transferId,
+                      Instant occurredAt) implements DomainEvent {
+    }
+}
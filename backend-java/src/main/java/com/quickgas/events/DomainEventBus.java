@@ -0,0 +1,240 @@
+package com.quickgas.events;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process bus on a pre-allocated ring buffer. Publishers claim the next sequence with a
+ * CAS and write one slot, so publishing is O(1) and never runs consumer code. Each
+ * {@link DomainEventConsumer} has its own thread and sequence and reads every event in order,
+ * in batches of whatever has been published since its last pass. A consumer that has caught
+ * up parks until a publisher unparks it, so an idle bus uses no CPU.
+ *
+ * A publisher only waits when the slowest consumer is a full buffer behind; after the
+ * publish timeout the event is dropped and counted rather than stalling the caller.
+ * Events are held in memory only and are lost on shutdown or crash.
+ */
+@Slf4j
+@Component
+public class DomainEventBus {
+    
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<DomainEvent> entries;
+    // Sequence last written to each slot; a slot is readable once it holds the sequence being read
+    private final AtomicLongArray published;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final List<ConsumerWorker> workers = new ArrayList<>();
+    
+    private final int maxBatch;
+    private final long publishTimeoutNanos;
+    private final long fullWaitNanos;
+    private final Counter publishedCounter;
+    private final Counter droppedCounter;
+    
+    private volatile boolean running = true;
+    
+    public DomainEventBus(
+            List<DomainEventConsumer> consumers,
+            MeterRegistry meterRegistry,
+            @Value("${events.bus.buffer-size:4096}") int bufferSize,
+            @Value("${events.bus.max-batch:100}") int maxBatch,
+            @Value("${events.bus.publish-timeout:PT0.05S}") Duration publishTimeout,
+            @Value("${events.bus.full-wait:PT0.001S}") Duration fullWait) {
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalStateException("events.bus.buffer-size must be a power of two: " + bufferSize);
+        }
+        this.capacity = bufferSize;
+        this.mask = bufferSize - 1;
+        this.entries = new AtomicReferenceArray<>(bufferSize);
+        this.published = new AtomicLongArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++) {
+            published.set(i, -1);
+        }
+        this.maxBatch = Math.max(1, maxBatch);
+        this.publishTimeoutNanos = publishTimeout.toNanos();
+        this.fullWaitNanos = Math.max(1, fullWait.toNanos());
+        
+        this.publishedCounter = meterRegistry.counter("events.bus.published");
+        this.droppedCounter = meterRegistry.counter("events.bus.dropped");
+        for (DomainEventConsumer consumer : consumers) {
+            ConsumerWorker worker = new ConsumerWorker(consumer, meterRegistry);
+            workers.add(worker);
+            Gauge.builder("events.bus.lag", worker, w -> cursor.get() - w.sequence.get())
+                .description("Events published but not yet handled by the consumer")
+                .tag("consumer", consumer.getName())
+                .register(meterRegistry);
+        }
+    }
+    
+    @PostConstruct
+    public void start() {
+        for (ConsumerWorker worker : workers) {
+            worker.thread.start();
+        }
+        log.info("Domain event bus started: bufferSize={}, consumers={}", capacity,
+            workers.stream().map(w -> w.consumer.getName()).toList());
+    }
+    
+    /**
+     * Publish an event to every consumer
+     * @return false if the buffer stayed full for the publish timeout and the event was dropped
+     */
+    public boolean publish(DomainEvent event) {
+        long sequence = claim();
+        if (sequence < 0) {
+            droppedCounter.increment();
+            log.warn("Domain event dropped, bus is full or stopped: event={}", event);
+            return false;
+        }
+        int index = (int) (sequence & mask);
+        entries.set(index, event);
+        published.set(index, sequence);
+        publishedCounter.increment();
+        for (ConsumerWorker worker : workers) {
+            if (worker.waiting) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Publish once the current transaction has committed, so consumers never see an event for
+     * writes that were rolled back and a retried transaction does not publish it twice.
+     * Publishes immediately when no transaction is active.
+     */
+    public void publishAfterCommit(DomainEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(event);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish(event);
+            }
+        });
+    }
+    
+    private long claim() {
+        long waitUntil = 0;
+        while (running) {
+            long current = cursor.get();
+            long next = current + 1;
+            if (next - capacity > minimumConsumerSequence()) {
+                // The slot still holds an event the slowest consumer has not read
+                long now = System.nanoTime();
+                if (waitUntil == 0) {
+                    waitUntil = now + publishTimeoutNanos;
+                } else if (now - waitUntil > 0) {
+                    return -1;
+                }
+                LockSupport.parkNanos(fullWaitNanos);
+                continue;
+            }
+            if (cursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+        return -1;
+    }
+    
+    private long minimumConsumerSequence() {
+        long minimum = Long.MAX_VALUE;
+        for (ConsumerWorker worker : workers) {
+            minimum = Math.min(minimum, worker.sequence.get());
+        }
+        return minimum;
+    }
+    
+    /**
+     * Stop accepting events and let consumers finish what was already published
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (ConsumerWorker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        for (ConsumerWorker worker : workers) {
+            worker.thread.join(Duration.ofSeconds(10).toMillis());
+            if (worker.thread.isAlive()) {
+                log.warn("Domain event consumer did not drain before shutdown: consumer={}",
+                    worker.consumer.getName());
+                worker.thread.interrupt();
+            }
+        }
+    }
+    
+    private final class ConsumerWorker implements Runnable {
+        private final DomainEventConsumer consumer;
+        private final AtomicLong sequence = new AtomicLong(-1);
+        private final Counter errors;
+        private final Thread thread;
+        // Set while parked for lack of events, so publishers know to unpark the thread
+        private volatile boolean waiting;
+        
+        ConsumerWorker(DomainEventConsumer consumer, MeterRegistry meterRegistry) {
+            this.consumer = consumer;
+            this.errors = meterRegistry.counter("events.bus.consumer.errors", "consumer", consumer.getName());
+            this.thread = new Thread(this, "events-" + consumer.getName());
+            this.thread.setDaemon(true);
+        }
+        
+        @Override
+        public void run() {
+            List<DomainEvent> batch = new ArrayList<>(maxBatch);
+            long next = sequence.get() + 1;
+            while (!Thread.currentThread().isInterrupted()) {
+                long available = next - 1;
+                while (available + 1 - next < maxBatch && published.get((int) ((available + 1) & mask)) == available + 1) {
+                    available++;
+                }
+                if (available < next) {
+                    if (!running && cursor.get() < next) {
+                        return;
+                    }
+                    waiting = true;
+                    // Re-check after announcing: a publish in between either shows up here or unparks us
+                    if (running && published.get((int) (next & mask)) != next) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                
+                for (long s = next; s <= available; s++) {
+                    batch.add(entries.get((int) (s & mask)));
+                }
+                try {
+                    consumer.onEvents(batch);
+                } catch (Exception e) {
+                    errors.increment();
+                    log.error("Domain event consumer failed, skipping batch: consumer={}, events={}",
+                        consumer.getName(), batch.size(), e);
+                }
+                batch.clear();
+                // Releases the slots to publishers
+                sequence.set(available);
+                next = available + 1;
+            }
+        }
+    }
+}
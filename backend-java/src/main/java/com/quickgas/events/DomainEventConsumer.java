@@ -0,0 +1,21 @@
+package com.quickgas.events;
+
+import java.util.List;
+
+/**
+ * A subscriber of the {@link DomainEventBus}. Every consumer bean gets its own thread and
+ * read position, so a slow consumer only delays itself (and, once the buffer is full, publishers).
+ */
+public interface DomainEventConsumer {
+    
+    /**
+     * Used for the worker thread name and metric tags
+     */
+    String getName();
+    
+    /**
+     * Called with consecutive events in publish order. An exception is logged and the
+     * batch is skipped; events are not redelivered.
+     */
+    void onEvents(List<DomainEvent> events);
+}
@@ -0,0 +1,67 @@
+package com.quickgas.events;
+
+import com.quickgas.dto.NotificationRequest;
+import com.quickgas.entity.User;
+import com.quickgas.repository.UserRepository;
+import com.quickgas.service.NotificationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tells drivers when a payout has been sent. Runs on the bus thread, so the FCM call
+ * is off the payout request path.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PayoutNotificationConsumer implements DomainEventConsumer {
+    
+    private final NotificationService notificationService;
+    private final UserRepository userRepository;
+    
+    @Override
+    public String getName() {
+        return "payout-notifications";
+    }
+    
+    @Override
+    public void onEvents(List<DomainEvent> events) {
+        if (!notificationService.isFirebaseEnabled()) {
+            return;
+        }
+        // A batched transfer publishes one event per payment; the driver gets one notification per transfer
+        Map<String, DomainEvent.PayoutPaid> byTransfer = new LinkedHashMap<>();
+        for (DomainEvent event : events) {
+            if (event instanceof DomainEvent.PayoutPaid payout) {
+                byTransfer.merge(payout.transferId(), payout, (first, next) -> new DomainEvent.PayoutPaid(
+                    first.driverPaymentId(), first.driverId(), first.orderId(), first.amount().plus(next.amount()),
+                    first.transferId(), first.occurredAt()));
+            }
+        }
+        byTransfer.values().forEach(this::notifyDriver);
+    }
+    
+    private void notifyDriver(DomainEvent.PayoutPaid payout) {
+        String fcmToken = userRepository.findById(payout.driverId()).map(User::getFcmToken).orElse(null);
+        if (fcmToken == null || fcmToken.isEmpty()) {
+            return;
+        }
+        try {
+            NotificationRequest request = new NotificationRequest();
+            request.setFcmToken(fcmToken);
+            request.setTitle("Payout Sent");
+            request.setBody("Your earnings of " + payout.amount() + " are on the way.");
+            request.setData(Map.of("orderId", payout.orderId(), "driverPaymentId", payout.driverPaymentId().toString(),
+                "type", "payout_paid"));
+            notificationService.sendNotification(request);
+        } catch (Exception e) {
+            log.error("Failed to send payout notification: driverId={}, driverPaymentId={}, error={}",
+                payout.driverId(), payout.driverPaymentId(), e.getMessage());
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.quickgas.exception;
 
+import com.quickgas.resilience.DependencyUnavailableException;
 import com.quickgas.service.SecurityService;
 import com.stripe.exception.StripeException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -59,6 +61,31 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(status).body(response);
     }
     
+    @ExceptionHandler(DependencyUnavailableException.class)
+    public ResponseEntity<Map<String, Object>> handleDependencyUnavailable(DependencyUnavailableException e) {
+        log.warn("Dependency unavailable: {}", e.getMessage());
+        return dependencyUnavailable(e);
+    }
+    
+    /**
+     * 503 with Retry-After when the circuit is open, 504 when the dependency or the request
+     * deadline timed out; also used by controllers that catch errors themselves
+     */
+    public static ResponseEntity<Map<String, Object>> dependencyUnavailable(DependencyUnavailableException e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", e.getMessage());
+        response.put("type", "dependency_unavailable");
+        response.put("dependency", e.getDependency());
+        response.put("reason", e.getReason());
+        
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(
+            e.isTimeout() ? HttpStatus.GATEWAY_TIMEOUT : HttpStatus.SERVICE_UNAVAILABLE);
+        if (e.getRetryAfter() != null) {
+            builder.header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()));
+        }
+        return builder.body(response);
+    }
+    
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<Map<String, Object>> handleValidationErrors(MethodArgumentNotValidException e) {
         log.warn("Validation errors: {}", e.getMessage());
@@ -0,0 +1,102 @@
+package com.quickgas.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Amount of money as a count of minor units (cents, or whole yen for zero-decimal
+ * currencies) plus a lowercase ISO 4217 code, which is also what Stripe expects.
+ * Decimal amounts are converted once where they enter the system (API requests,
+ * numeric database columns); everything in between is long arithmetic.
+ */
+public record Money(long minorUnits, String currency) implements Comparable<Money> {
+    
+    // Currencies Stripe charges without a decimal part
+    private static final Set<String> ZERO_DECIMAL_CURRENCIES = Set.of(
+        "bif", "clp", "djf", "gnf", "jpy", "kmf", "krw", "mga", "pyg", "rwf", "ugx", "vnd", "vuv", "xaf", "xof", "xpf"
+    );
+    
+    private static final Set<String> THREE_DECIMAL_CURRENCIES = Set.of("bhd", "jod", "kwd", "omr", "tnd");
+    
+    public Money {
+        if (currency == null || currency.length() != 3) {
+            throw new IllegalArgumentException("Invalid currency: " + currency);
+        }
+        currency = currency.toLowerCase(Locale.ROOT);
+    }
+    
+    public static Money ofMinor(long minorUnits, String currency) {
+        return new Money(minorUnits, currency);
+    }
+    
+    /**
+     * Convert a decimal amount in major units (e.g. 12.34 usd, 1000 jpy); extra decimals are rounded half up
+     */
+    public static Money ofMajor(BigDecimal amount, String currency) {
+        if (amount == null) {
+            throw new IllegalArgumentException("Amount is required");
+        }
+        int digits = fractionDigits(currency);
+        return new Money(amount.setScale(digits, RoundingMode.HALF_UP).movePointRight(digits).longValueExact(), currency);
+    }
+    
+    public static int fractionDigits(String currency) {
+        String code = currency.toLowerCase(Locale.ROOT);
+        if (ZERO_DECIMAL_CURRENCIES.contains(code)) {
+            return 0;
+        }
+        return THREE_DECIMAL_CURRENCIES.contains(code) ? 3 : 2;
+    }
+    
+    /**
+     * Amount in major units, for numeric(…, 2) columns and JSON responses
+     */
+    public BigDecimal toMajor() {
+        return BigDecimal.valueOf(minorUnits, fractionDigits(currency));
+    }
+    
+    public Money plus(Money other) {
+        requireSameCurrency(other);
+        return new Money(Math.addExact(minorUnits, other.minorUnits), currency);
+    }
+    
+    /**
+     * Share of this amount in basis points (8000 = 80%), rounded half up to a whole minor unit
+     */
+    public Money percentage(long basisPoints) {
+        long scaled = Math.multiplyExact(minorUnits, basisPoints);
+        long rounded = Math.floorDiv(Math.addExact(scaled, 5_000L), 10_000L);
+        return new Money(rounded, currency);
+    }
+    
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+    
+    public boolean isGreaterThan(Money other) {
+        return compareTo(other) > 0;
+    }
+    
+    public boolean isLessThan(Money other) {
+        return compareTo(other) < 0;
+    }
+    
+    @Override
+    public int compareTo(Money other) {
+        requireSameCurrency(other);
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+    
+    private void requireSameCurrency(Money other) {
+        if (!currency.equals(other.currency)) {
+            throw new IllegalArgumentException("Currency mismatch: " + currency + " vs " + other.currency);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return toMajor().toPlainString() + " " + currency;
+    }
+}
@@ -2,8 +2,14 @@ package com.quickgas.repository;
 
 import com.quickgas.entity.DriverPayment;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,5 +22,109 @@ public interface DriverPaymentRepository extends JpaRepository<DriverPayment, Lo
     Optional<DriverPayment> findByOrderId(String orderId);
     
     List<DriverPayment> findByOrderIdAndStatus(String orderId, String status);
+    
+    List<DriverPayment> findTop100ByStatusAndPayoutBatchIdIsNullAndUpdatedAtBefore(String status, LocalDateTime cutoff);
+    
+    List<DriverPayment> findByPayoutBatchId(Long payoutBatchId);
+    
+    /**
+     * Driver and currency pairs with pending payments that are not part of a batch yet
+     */
+    @Query("SELECT DISTINCT p.driverId, p.currency FROM DriverPayment p " +
+           "WHERE p.status = 'pending' AND p.payoutBatchId IS NULL")
+    List<Object[]> findPendingDriverCurrencies();
+    
+    /**
+     * Claim a pending payment for a Stripe transfer attempt
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE DriverPayment p SET p.status = 'transfer_pending', p.payoutAttempts = p.payoutAttempts + 1, " +
+           "p.updatedAt = CURRENT_TIMESTAMP WHERE p.id = :id AND p.status = 'pending'")
+    int markTransferPending(@Param("id") Long id);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE DriverPayment p SET p.status = 'paid', p.stripeTransferId = :transferId, p.paidAt = :paidAt, " +
+           "p.updatedAt = CURRENT_TIMESTAMP WHERE p.id = :id AND p.status = 'transfer_pending'")
+    int markPaid(@Param("id") Long id, @Param("transferId") String transferId, @Param("paidAt") LocalDateTime paidAt);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE DriverPayment p SET p.status = 'failed', p.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE p.id = :id AND p.status = 'transfer_pending'")
+    int markTransferFailed(@Param("id") Long id);
+    
+    /**
+     * Return a payment whose transfer never reached Stripe to the pending state
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE DriverPayment p SET p.status = 'pending', p.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE p.id = :id AND p.status = 'transfer_pending'")
+    int releaseTransferPending(@Param("id") Long id);
+    
+    /**
+     * Due pending or failed payouts of drivers with a connected account, locked so concurrent workers skip them.
+     * Rows touched after {@code idleSince} are left alone: a request may still be paying them out.
+     */
+    @Query(value = "SELECT p.id FROM driver_payments p JOIN users u ON u.id = p.driver_id " +
+                   "WHERE p.status IN ('pending', 'failed') AND p.payout_batch_id IS NULL " +
+                   "AND u.stripe_account_id IS NOT NULL AND u.stripe_account_id <> '' " +
+                   "AND p.payout_attempts < :maxAttempts AND p.updated_at < :idleSince " +
+                   "AND (p.next_attempt_at IS NULL OR p.next_attempt_at <= CURRENT_TIMESTAMP) " +
+                   "ORDER BY p.next_attempt_at NULLS FIRST, p.id LIMIT :limit FOR UPDATE OF p SKIP LOCKED",
+           nativeQuery = true)
+    List<Long> lockPayable(@Param("maxAttempts") int maxAttempts, @Param("idleSince") LocalDateTime idleSince,
+                           @Param("limit") int limit);
+    
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE driver_payments SET status = 'transfer_pending', payout_attempts = payout_attempts + 1, " +
+                   "updated_at = CURRENT_TIMESTAMP WHERE id IN (:ids) AND status IN ('pending', 'failed')",
+           nativeQuery = true)
+    int claimAll(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * Hand a claimed payout back without counting the attempt (its driver's worker queue was full)
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE driver_payments SET status = 'pending', payout_attempts = payout_attempts - 1, " +
+                   "updated_at = CURRENT_TIMESTAMP WHERE id = :id AND status = 'transfer_pending'",
+           nativeQuery = true)
+    int releaseClaim(@Param("id") Long id);
+    
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE driver_payments SET next_attempt_at = :nextAttemptAt " +
+                   "WHERE id = :id AND status IN ('pending', 'failed')",
+           nativeQuery = true)
+    int scheduleRetry(@Param("id") Long id, @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+    
+    /**
+     * Claim every pending payment of a driver in one currency for a batch transfer
+     */
+    @Modifying
+    @Query("UPDATE DriverPayment p SET p.status = 'transfer_pending', p.payoutBatchId = :batchId, " +
+           "p.payoutAttempts = p.payoutAttempts + 1, p.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE p.driverId = :driverId AND p.currency = :currency AND p.status = 'pending' " +
+           "AND p.payoutBatchId IS NULL")
+    int claimForBatch(@Param("batchId") Long batchId, @Param("driverId") String driverId,
+                      @Param("currency") String currency);
+    
+    @Modifying
+    @Query("UPDATE DriverPayment p SET p.status = 'paid', p.stripeTransferId = :transferId, p.paidAt = :paidAt, " +
+           "p.updatedAt = CURRENT_TIMESTAMP WHERE p.payoutBatchId = :batchId AND p.status = 'transfer_pending'")
+    int markBatchPaid(@Param("batchId") Long batchId, @Param("transferId") String transferId,
+                      @Param("paidAt") LocalDateTime paidAt);
+    
+    /**
+     * Detach a batch's payments so they can be paid again, either 'pending' or 'failed'
+     */
+    @Modifying
+    @Query("UPDATE DriverPayment p SET p.status = :status, p.payoutBatchId = NULL, p.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE p.payoutBatchId = :batchId AND p.status = 'transfer_pending'")
+    int detachBatch(@Param("batchId") Long batchId, @Param("status") String status);
 }
 
@@ -0,0 +1,31 @@
+package com.quickgas.repository;
+
+import com.quickgas.entity.DriverPayoutBatch;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface DriverPayoutBatchRepository extends JpaRepository<DriverPayoutBatch, Long> {
+    List<DriverPayoutBatch> findByDriverIdOrderByCreatedAtDesc(String driverId);
+    
+    List<DriverPayoutBatch> findTop100ByStatusAndUpdatedAtBefore(String status, LocalDateTime cutoff);
+    
+    @Modifying
+    @Query("UPDATE DriverPayoutBatch b SET b.status = 'paid', b.stripeTransferId = :transferId, b.paidAt = :paidAt, " +
+           "b.updatedAt = CURRENT_TIMESTAMP WHERE b.id = :id AND b.status = 'transfer_pending'")
+    int markPaid(@Param("id") Long id, @Param("transferId") String transferId, @Param("paidAt") LocalDateTime paidAt);
+    
+    /**
+     * Close a batch without a transfer ('failed' or 'released')
+     */
+    @Modifying
+    @Query("UPDATE DriverPayoutBatch b SET b.status = :status, b.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE b.id = :id AND b.status = 'transfer_pending'")
+    int close(@Param("id") Long id, @Param("status") String status);
+}
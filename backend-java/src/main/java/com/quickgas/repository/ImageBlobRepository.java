@@ -0,0 +1,27 @@
+package com.quickgas.repository;
+
+import com.quickgas.entity.ImageBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+    
+    @Modifying
+    @Query(value = "UPDATE image_blobs SET ref_count = ref_count + 1 WHERE content_hash = :hash",
+           nativeQuery = true)
+    int incrementRefCount(@Param("hash") String contentHash);
+    
+    /**
+     * Hashes among {@code contentHashes} that still have a blob. References are released by
+     * triggers on images and images_archive (V21), which also delete blobs nothing references.
+     */
+    @Query("SELECT b.contentHash FROM ImageBlob b WHERE b.contentHash IN :hashes")
+    List<String> findExistingHashes(@Param("hashes") Collection<String> contentHashes);
+}
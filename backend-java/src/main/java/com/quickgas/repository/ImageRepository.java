@@ -2,8 +2,13 @@ package com.quickgas.repository;
 
 import com.quickgas.entity.ImageEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,5 +17,40 @@ public interface ImageRepository extends JpaRepository<ImageEntity, String> {
     Optional<ImageEntity> findByOrderIdAndImageType(String orderId, String imageType);
     List<ImageEntity> findByOrderId(String orderId);
     List<ImageEntity> findByImageType(String imageType);
+    Optional<ImageEntity> findByOrderIdAndImageTypeAndContentHash(String orderId, String imageType, String contentHash);
+    List<ImageEntity> findByOrderIdAndImageTypeAndContentHashIn(String orderId, String imageType, Collection<String> contentHashes);
+    
+    /**
+     * Next page of expired images of one type, in (created_at, id) keyset order
+     */
+    @Query(value = "SELECT * FROM images WHERE image_type = :imageType AND created_at < :cutoff " +
+                   "AND (created_at, id) > (:afterCreatedAt, :afterId) " +
+                   "ORDER BY created_at, id LIMIT :limit",
+           nativeQuery = true)
+    List<ImageEntity> findExpiredAfter(@Param("imageType") String imageType,
+                                       @Param("cutoff") LocalDateTime cutoff,
+                                       @Param("afterCreatedAt") LocalDateTime afterCreatedAt,
+                                       @Param("afterId") String afterId,
+                                       @Param("limit") int limit);
+    
+    @Modifying
+    @Query(value = "INSERT INTO images_archive " +
+                   "(id, order_id, image_type, file_name, content_type, file_size, content_hash, created_at) " +
+                   "SELECT id, order_id, image_type, file_name, content_type, file_size, content_hash, created_at " +
+                   "FROM images WHERE id IN (:ids) " +
+                   "ON CONFLICT (id) DO NOTHING",
+           nativeQuery = true)
+    int archiveByIds(@Param("ids") Collection<String> ids);
+    
+    @Modifying
+    @Query(value = "DELETE FROM images WHERE id IN (:ids)", nativeQuery = true)
+    int deleteByIds(@Param("ids") Collection<String> ids);
+    
+    /**
+     * Delete the images and return the content hash of each row actually removed, so blob
+     * references are released once even if another transaction deleted some of them first
+     */
+    @Query(value = "DELETE FROM images WHERE id IN (:ids) RETURNING content_hash", nativeQuery = true)
+    List<String> deleteByIdsReturningHashes(@Param("ids") Collection<String> ids);
 }
 
@@ -0,0 +1,19 @@
+package com.quickgas.repository;
+
+import com.quickgas.entity.ImageUploadChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ImageUploadChunkRepository extends JpaRepository<ImageUploadChunk, Long> {
+    Optional<ImageUploadChunk> findByUploadIdAndChunkOffset(String uploadId, Long chunkOffset);
+    
+    @Modifying
+    @Query("DELETE FROM ImageUploadChunk c WHERE c.uploadId = :uploadId")
+    int deleteByUploadId(@Param("uploadId") String uploadId);
+}
@@ -0,0 +1,26 @@
+package com.quickgas.repository;
+
+import com.quickgas.entity.ImageUploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ImageUploadSessionRepository extends JpaRepository<ImageUploadSession, String> {
+    
+    /**
+     * Advance the received offset only if the chunk starts exactly where the last one ended
+     */
+    @Modifying
+    @Query("UPDATE ImageUploadSession s SET s.receivedBytes = s.receivedBytes + :length, " +
+           "s.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE s.id = :id AND s.receivedBytes = :offset AND s.status = 'uploading'")
+    int advanceOffset(@Param("id") String id, @Param("offset") long offset, @Param("length") long length);
+    
+    List<ImageUploadSession> findTop100ByExpiresAtBefore(LocalDateTime cutoff);
+}
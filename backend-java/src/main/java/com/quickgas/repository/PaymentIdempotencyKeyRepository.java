@@ -0,0 +1,49 @@
+package com.quickgas.repository;
+
+import com.quickgas.entity.PaymentIdempotencyKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface PaymentIdempotencyKeyRepository extends JpaRepository<PaymentIdempotencyKey, Long> {
+    
+    Optional<PaymentIdempotencyKey> findByUserIdAndIdempotencyKeyAndExpiresAtAfter(
+        String userId, String idempotencyKey, LocalDateTime now);
+    
+    /**
+     * Store a response; if another instance stored one for the same key first, keep that one
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO payment_idempotency_keys (user_id, idempotency_key, request_fingerprint, " +
+                   "payment_intent_id, client_secret, created_at, expires_at) " +
+                   "VALUES (:userId, :idempotencyKey, :fingerprint, :paymentIntentId, :clientSecret, " +
+                   "CURRENT_TIMESTAMP, :expiresAt) " +
+                   "ON CONFLICT (user_id, idempotency_key) DO UPDATE SET " +
+                   "request_fingerprint = EXCLUDED.request_fingerprint, " +
+                   "payment_intent_id = EXCLUDED.payment_intent_id, " +
+                   "client_secret = EXCLUDED.client_secret, " +
+                   "created_at = EXCLUDED.created_at, expires_at = EXCLUDED.expires_at " +
+                   "WHERE payment_idempotency_keys.expires_at <= CURRENT_TIMESTAMP",
+           nativeQuery = true)
+    int insertIfAbsent(@Param("userId") String userId,
+                       @Param("idempotencyKey") String idempotencyKey,
+                       @Param("fingerprint") String fingerprint,
+                       @Param("paymentIntentId") String paymentIntentId,
+                       @Param("clientSecret") String clientSecret,
+                       @Param("expiresAt") LocalDateTime expiresAt);
+    
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM payment_idempotency_keys WHERE id IN (" +
+                   "SELECT id FROM payment_idempotency_keys WHERE expires_at < :now LIMIT :limit)",
+           nativeQuery = true)
+    int deleteExpired(@Param("now") LocalDateTime now, @Param("limit") int limit);
+}
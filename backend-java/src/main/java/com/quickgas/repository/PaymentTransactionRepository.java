@@ -2,8 +2,13 @@ package com.quickgas.repository;
 
 import com.quickgas.entity.PaymentTransaction;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,5 +17,22 @@ public interface PaymentTransactionRepository extends JpaRepository<PaymentTrans
     Optional<PaymentTransaction> findByStripePaymentIntentId(String stripePaymentIntentId);
     List<PaymentTransaction> findByOrderId(String orderId);
     List<PaymentTransaction> findByOrderIdAndStatus(String orderId, String status);
+    Optional<PaymentTransaction> findByReference(String reference);
+    
+    List<PaymentTransaction> findTop100ByStatusAndCreatedAtBefore(String status, LocalDateTime cutoff);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE PaymentTransaction t SET t.stripePaymentIntentId = :paymentIntentId, t.status = :status, " +
+           "t.updatedAt = CURRENT_TIMESTAMP WHERE t.reference = :reference AND t.status IN ('creating', 'create_failed')")
+    int attachPaymentIntent(@Param("reference") String reference,
+                            @Param("paymentIntentId") String paymentIntentId,
+                            @Param("status") String status);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE PaymentTransaction t SET t.status = 'create_failed', t.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE t.reference = :reference AND t.status = 'creating'")
+    int markCreateFailed(@Param("reference") String reference);
 }
 
@@ -0,0 +1,12 @@
+package com.quickgas.repository;
+
+import com.quickgas.entity.WebhookDeadLetter;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface WebhookDeadLetterRepository extends JpaRepository<WebhookDeadLetter, Long> {
+    List<WebhookDeadLetter> findByStripeEventId(String stripeEventId);
+}
@@ -0,0 +1,99 @@
+package com.quickgas.repository;
+
+import com.quickgas.entity.WebhookEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface WebhookEventRepository extends JpaRepository<WebhookEvent, Long> {
+    
+    /**
+     * Store a newly delivered event; redeliveries of a known Stripe event id insert nothing.
+     * @return the new row id, or empty for a duplicate
+     */
+    @Transactional
+    @Query(value = "INSERT INTO webhook_events (stripe_event_id, event_type, ordering_key, payload, status, " +
+                   "attempts, next_attempt_at, received_at) " +
+                   "VALUES (:stripeEventId, :eventType, :orderingKey, :payload, 'pending', 0, " +
+                   "CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) " +
+                   "ON CONFLICT (stripe_event_id) DO NOTHING RETURNING id",
+           nativeQuery = true)
+    List<Long> insertIfAbsent(@Param("stripeEventId") String stripeEventId,
+                              @Param("eventType") String eventType,
+                              @Param("orderingKey") String orderingKey,
+                              @Param("payload") String payload);
+    
+    /**
+     * Take a pending event for processing. Returns 0 if another worker already has it.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE webhook_events SET status = 'processing', attempts = attempts + 1, " +
+                   "claimed_at = CURRENT_TIMESTAMP WHERE id = :id AND status = 'pending'",
+           nativeQuery = true)
+    int claim(@Param("id") Long id);
+    
+    /**
+     * Due retries plus events whose worker died mid-processing, locked so concurrent pollers skip them
+     */
+    @Query(value = "SELECT id FROM webhook_events " +
+                   "WHERE (status = 'pending' AND next_attempt_at <= CURRENT_TIMESTAMP) " +
+                   "OR (status = 'processing' AND claimed_at < :staleBefore) " +
+                   "ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<Long> lockClaimable(@Param("staleBefore") LocalDateTime staleBefore, @Param("limit") int limit);
+    
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE webhook_events SET status = 'processing', attempts = attempts + 1, " +
+                   "claimed_at = CURRENT_TIMESTAMP WHERE id IN (:ids)",
+           nativeQuery = true)
+    int claimAll(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * Hand a claimed event back without counting the attempt (worker pool was full)
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE webhook_events SET status = 'pending', attempts = attempts - 1, claimed_at = NULL " +
+                   "WHERE id = :id AND status = 'processing'",
+           nativeQuery = true)
+    int release(@Param("id") Long id);
+    
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE webhook_events SET status = 'processed', processed_at = CURRENT_TIMESTAMP, " +
+                   "last_error = NULL WHERE id = :id",
+           nativeQuery = true)
+    int markProcessed(@Param("id") Long id);
+    
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE webhook_events SET status = 'pending', claimed_at = NULL, last_error = :error, " +
+                   "next_attempt_at = :nextAttemptAt WHERE id = :id",
+           nativeQuery = true)
+    int scheduleRetry(@Param("id") Long id, @Param("error") String error,
+                      @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+    
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE webhook_events SET status = 'dead_letter', last_error = :error WHERE id = :id",
+           nativeQuery = true)
+    int markDeadLetter(@Param("id") Long id, @Param("error") String error);
+    
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM webhook_events WHERE id IN (" +
+                   "SELECT id FROM webhook_events WHERE status = 'processed' AND processed_at < :cutoff " +
+                   "LIMIT :limit)",
+           nativeQuery = true)
+    int deleteProcessedBefore(@Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+}
@@ -0,0 +1,33 @@
+package com.quickgas.resilience;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * JPA transaction manager whose transaction timeout never exceeds the request deadline.
+ * Spring applies the timeout as a statement timeout to JPA queries and JdbcTemplate calls
+ * in the transaction, so a slow query is cancelled once the caller has given up.
+ */
+public class DeadlineAwareTransactionManager extends JpaTransactionManager {
+    
+    public DeadlineAwareTransactionManager(EntityManagerFactory entityManagerFactory) {
+        super(entityManagerFactory);
+    }
+    
+    @Override
+    protected int determineTimeout(TransactionDefinition definition) {
+        int timeout = super.determineTimeout(definition);
+        Optional<Duration> remaining = RequestDeadline.remaining();
+        if (remaining.isEmpty()) {
+            return timeout;
+        }
+        // Timeouts are in whole seconds; round up and keep at least one second
+        long millis = remaining.get().toMillis();
+        int budget = (int) Math.max(1, (millis + 999) / 1000);
+        return timeout == TransactionDefinition.TIMEOUT_DEFAULT ? budget : Math.min(timeout, budget);
+    }
+}
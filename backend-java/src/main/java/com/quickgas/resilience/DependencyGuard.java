@@ -0,0 +1,257 @@
+package com.quickgas.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Bulkhead plus circuit breaker for one external dependency.
+ *
+ * The bulkhead caps concurrent calls so a slow dependency can only tie up its own share of
+ * request threads; a caller that cannot get a permit within max-wait is rejected. The breaker
+ * tracks the outcome of the last sliding-window-size calls and opens when the failure rate
+ * reaches the threshold; while open, calls fail fast until open-duration has passed, then a
+ * single probe call decides whether it closes again.
+ *
+ * Only errors matching the failure predicate (connection errors, 5xx, timeouts) count against
+ * the dependency; a declined card is a successful call as far as the breaker is concerned.
+ * The guard does not interrupt calls itself: callers apply {@link #effectiveTimeout()} to their
+ * client. Within a request that is the configured timeout capped by the request deadline; a
+ * call whose deadline has already passed is not made, and a timeout caused by a short caller
+ * budget rather than a slow dependency does not count against the breaker.
+ */
+@Slf4j
+public class DependencyGuard {
+    
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+    
+    @FunctionalInterface
+    public interface GuardedCall<T, E extends Exception> {
+        T call() throws E;
+    }
+    
+    private final String name;
+    private final Semaphore bulkhead;
+    private final Duration maxWait;
+    private final Duration timeout;
+    private final Duration openDuration;
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final Predicate<Throwable> failurePredicate;
+    
+    // Breaker state, guarded by this
+    private State state = State.CLOSED;
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCount;
+    private int windowFailures;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+    
+    private final Counter successes;
+    private final Counter failures;
+    private final Counter shortCircuited;
+    private final Counter bulkheadRejected;
+    private final Counter deadlineExceeded;
+    private final Timer callTimer;
+    
+    public DependencyGuard(String name, Settings settings, Predicate<Throwable> failurePredicate,
+                           MeterRegistry meterRegistry) {
+        this.name = name;
+        this.bulkhead = new Semaphore(settings.maxConcurrentCalls());
+        this.maxWait = settings.maxWait();
+        this.timeout = settings.timeout();
+        this.openDuration = settings.openDuration();
+        this.failureRateThreshold = settings.failureRateThreshold();
+        this.minimumCalls = Math.min(settings.minimumCalls(), settings.slidingWindowSize());
+        this.window = new boolean[settings.slidingWindowSize()];
+        this.failurePredicate = failurePredicate;
+        
+        this.successes = meterRegistry.counter("resilience.calls", "dependency", name, "outcome", "success");
+        this.failures = meterRegistry.counter("resilience.calls", "dependency", name, "outcome", "failure");
+        this.shortCircuited = meterRegistry.counter("resilience.calls", "dependency", name, "outcome", "short_circuited");
+        this.bulkheadRejected = meterRegistry.counter("resilience.calls", "dependency", name, "outcome", "bulkhead_full");
+        this.deadlineExceeded = meterRegistry.counter("resilience.calls", "dependency", name, "outcome", "deadline_exceeded");
+        this.callTimer = meterRegistry.timer("resilience.call.duration", "dependency", name);
+        Gauge.builder("resilience.breaker.state", this, guard -> guard.getState().ordinal())
+            .description("Circuit breaker state: 0 closed, 1 open, 2 half-open")
+            .tag("dependency", name)
+            .register(meterRegistry);
+        Gauge.builder("resilience.bulkhead.available", bulkhead, Semaphore::availablePermits)
+            .description("Free concurrent call permits")
+            .tag("dependency", name)
+            .register(meterRegistry);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public Duration getTimeout() {
+        return timeout;
+    }
+    
+    /**
+     * Timeout for a call made now: the configured timeout, capped by the request deadline
+     */
+    public Duration effectiveTimeout() {
+        return RequestDeadline.bound(timeout);
+    }
+    
+    public synchronized State getState() {
+        return state;
+    }
+    
+    /**
+     * Run the call if the breaker and bulkhead allow it
+     * @throws DependencyUnavailableException if the circuit is open or no permit became free in time
+     */
+    public <T, E extends Exception> T call(GuardedCall<T, E> call) throws E {
+        if (RequestDeadline.isExpired()) {
+            // The caller has given up; don't spend a dependency call on it
+            deadlineExceeded.increment();
+            throw new DependencyUnavailableException(name, DependencyUnavailableException.REASON_DEADLINE_EXCEEDED, null);
+        }
+        boolean budgetLimited = effectiveTimeout().compareTo(timeout) < 0;
+        boolean probe = acquirePermission();
+        
+        boolean permitted;
+        try {
+            permitted = bulkhead.tryAcquire(RequestDeadline.bound(maxWait).toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permitted = false;
+        }
+        if (!permitted) {
+            releaseProbe(probe);
+            bulkheadRejected.increment();
+            throw new DependencyUnavailableException(name, DependencyUnavailableException.REASON_BULKHEAD_FULL, null);
+        }
+        
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            onOutcome(probe, false);
+            return result;
+        } catch (Exception e) {
+            if (budgetLimited && isTimeout(e)) {
+                // Ran out of the caller's budget, which says nothing about the dependency
+                releaseProbe(probe);
+                deadlineExceeded.increment();
+            } else {
+                onOutcome(probe, e instanceof DependencyUnavailableException || failurePredicate.test(e));
+            }
+            throw e;
+        } finally {
+            bulkhead.release();
+            callTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException
+                    || cause instanceof DependencyUnavailableException unavailable && unavailable.isTimeout()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return true if this call is the half-open probe
+     */
+    private synchronized boolean acquirePermission() {
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openDuration.toNanos()) {
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.CLOSED) {
+            return false;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        shortCircuited.increment();
+        throw new DependencyUnavailableException(name, DependencyUnavailableException.REASON_CIRCUIT_OPEN,
+            remainingOpenTime());
+    }
+    
+    private synchronized void releaseProbe(boolean probe) {
+        if (probe) {
+            probeInFlight = false;
+        }
+    }
+    
+    private synchronized void onOutcome(boolean probe, boolean failed) {
+        (failed ? failures : successes).increment();
+        
+        if (probe) {
+            probeInFlight = false;
+            transitionTo(failed ? State.OPEN : State.CLOSED);
+            return;
+        }
+        if (state != State.CLOSED) {
+            // A call admitted before the breaker opened; its outcome is stale
+            return;
+        }
+        
+        if (windowCount == window.length) {
+            if (window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowPosition] = failed;
+        if (failed) {
+            windowFailures++;
+        }
+        windowPosition = (windowPosition + 1) % window.length;
+        
+        if (windowCount >= minimumCalls && windowFailures * 100 >= failureRateThreshold * windowCount) {
+            log.warn("Circuit opened for {}: failures={} of last {} calls", name, windowFailures, windowCount);
+            transitionTo(State.OPEN);
+        }
+    }
+    
+    private void transitionTo(State next) {
+        if (next == State.OPEN) {
+            openedAtNanos = System.nanoTime();
+        }
+        if (next == State.CLOSED) {
+            windowPosition = 0;
+            windowCount = 0;
+            windowFailures = 0;
+            if (state != State.CLOSED) {
+                log.info("Circuit closed for {}", name);
+            }
+        }
+        state = next;
+    }
+    
+    private Duration remainingOpenTime() {
+        long remaining = openDuration.toNanos() - (System.nanoTime() - openedAtNanos);
+        return Duration.ofSeconds(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining) + 1));
+    }
+    
+    /**
+     * Limits for one dependency
+     */
+    public record Settings(int maxConcurrentCalls, Duration maxWait, Duration timeout,
+                           int failureRateThreshold, int slidingWindowSize, int minimumCalls,
+                           Duration openDuration) {
+    }
+}
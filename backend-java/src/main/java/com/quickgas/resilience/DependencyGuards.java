@@ -0,0 +1,103 @@
+package com.quickgas.resilience;
+
+import com.google.firebase.ErrorCode;
+import com.google.firebase.FirebaseException;
+import com.quickgas.config.ResilienceProperties;
+import com.stripe.Stripe;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.RequestOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.Set;
+
+/**
+ * One {@link DependencyGuard} per external service, so an outage in one (e.g. ORS)
+ * cannot exhaust the threads that payments need.
+ */
+@Slf4j
+@Component
+public class DependencyGuards {
+    
+    public static final String STRIPE = "stripe";
+    public static final String FCM = "fcm";
+    public static final String ORS = "ors";
+    
+    private static final Set<ErrorCode> FCM_FAILURE_CODES = Set.of(
+        ErrorCode.UNAVAILABLE, ErrorCode.INTERNAL, ErrorCode.DEADLINE_EXCEEDED, ErrorCode.UNKNOWN);
+    
+    private final DependencyGuard stripe;
+    private final DependencyGuard fcm;
+    private final DependencyGuard ors;
+    
+    public DependencyGuards(ResilienceProperties properties, MeterRegistry meterRegistry) {
+        this.stripe = new DependencyGuard(STRIPE, properties.forDependency(STRIPE).toSettings(),
+            DependencyGuards::isStripeFailure, meterRegistry);
+        this.fcm = new DependencyGuard(FCM, properties.forDependency(FCM).toSettings(),
+            DependencyGuards::isFcmFailure, meterRegistry);
+        this.ors = new DependencyGuard(ORS, properties.forDependency(ORS).toSettings(),
+            DependencyGuards::isOrsFailure, meterRegistry);
+        
+        // The Stripe client is configured statically; its timeouts apply to every call
+        int stripeTimeoutMs = (int) stripe.getTimeout().toMillis();
+        Stripe.setConnectTimeout(Math.min(stripeTimeoutMs, Stripe.DEFAULT_CONNECT_TIMEOUT));
+        Stripe.setReadTimeout(stripeTimeoutMs);
+        
+        log.info("Dependency guards initialized: stripeTimeout={}, fcmTimeout={}, orsTimeout={}",
+            stripe.getTimeout(), fcm.getTimeout(), ors.getTimeout());
+    }
+    
+    public DependencyGuard stripe() {
+        return stripe;
+    }
+    
+    public DependencyGuard fcm() {
+        return fcm;
+    }
+    
+    public DependencyGuard ors() {
+        return ors;
+    }
+    
+    /**
+     * Request options for a Stripe call made now, with the read timeout capped by the request deadline
+     */
+    public RequestOptions.RequestOptionsBuilder stripeRequestOptions() {
+        int timeoutMs = (int) Math.max(1, stripe.effectiveTimeout().toMillis());
+        return RequestOptions.builder()
+            .setConnectTimeout(Math.min(timeoutMs, Stripe.DEFAULT_CONNECT_TIMEOUT))
+            .setReadTimeout(timeoutMs);
+    }
+    
+    private static boolean isStripeFailure(Throwable e) {
+        if (!(e instanceof StripeException stripeException)) {
+            return false;
+        }
+        if (e instanceof ApiConnectionException || e instanceof ApiException || e instanceof RateLimitException) {
+            return true;
+        }
+        Integer status = stripeException.getStatusCode();
+        return status != null && status >= 500;
+    }
+    
+    private static boolean isFcmFailure(Throwable e) {
+        return e instanceof FirebaseException firebaseException
+            && FCM_FAILURE_CODES.contains(firebaseException.getErrorCode());
+    }
+    
+    private static boolean isOrsFailure(Throwable e) {
+        if (e instanceof WebClientRequestException) {
+            return true;
+        }
+        if (e instanceof WebClientResponseException response) {
+            return response.getStatusCode().is5xxServerError() || response.getStatusCode().value() == 429;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,50 @@
+package com.quickgas.resilience;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of calling an external dependency when its circuit is open, its
+ * concurrency limit is reached or the request deadline has passed, and when a call
+ * to it times out. Mapped to 503, or 504 for timeouts.
+ */
+@Getter
+public class DependencyUnavailableException extends RuntimeException {
+    
+    public static final String REASON_CIRCUIT_OPEN = "circuit_open";
+    public static final String REASON_BULKHEAD_FULL = "bulkhead_full";
+    public static final String REASON_TIMEOUT = "timeout";
+    public static final String REASON_DEADLINE_EXCEEDED = "deadline_exceeded";
+    
+    private final String dependency;
+    private final String reason;
+    private final Duration retryAfter;
+    
+    public DependencyUnavailableException(String dependency, String reason, Duration retryAfter) {
+        this(dependency, reason, retryAfter, dependency + " is temporarily unavailable (" + reason + ")");
+    }
+    
+    private DependencyUnavailableException(String dependency, String reason, Duration retryAfter, String message) {
+        super(message);
+        this.dependency = dependency;
+        this.reason = reason;
+        this.retryAfter = retryAfter;
+    }
+    
+    public static DependencyUnavailableException timeout(String dependency, Duration timeout) {
+        return new DependencyUnavailableException(dependency, REASON_TIMEOUT, null,
+            dependency + " did not respond within " + timeout.toMillis() + "ms");
+    }
+    
+    /**
+     * True when the call was never attempted, so nothing reached the dependency
+     */
+    public boolean isRejected() {
+        return !REASON_TIMEOUT.equals(reason);
+    }
+    
+    public boolean isTimeout() {
+        return REASON_TIMEOUT.equals(reason) || REASON_DEADLINE_EXCEEDED.equals(reason);
+    }
+}
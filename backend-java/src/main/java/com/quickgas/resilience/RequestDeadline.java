@@ -0,0 +1,48 @@
+package com.quickgas.resilience;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Deadline of the request being handled on the current thread, set by
+ * {@link RequestDeadlineFilter}. Outbound calls use {@link #bound(Duration)} so they never
+ * wait longer than the caller is still willing to. Threads without a request (scheduled
+ * jobs, executors) have no deadline and keep their configured timeouts.
+ */
+public final class RequestDeadline {
+    
+    private static final ThreadLocal<Long> DEADLINE_NANOS = new ThreadLocal<>();
+    
+    private RequestDeadline() {
+    }
+    
+    static void start(Duration budget) {
+        DEADLINE_NANOS.set(System.nanoTime() + budget.toNanos());
+    }
+    
+    static void clear() {
+        DEADLINE_NANOS.remove();
+    }
+    
+    /**
+     * Time left before the deadline (zero or negative once passed), or empty when there is none
+     */
+    public static Optional<Duration> remaining() {
+        Long deadline = DEADLINE_NANOS.get();
+        return deadline == null ? Optional.empty() : Optional.of(Duration.ofNanos(deadline - System.nanoTime()));
+    }
+    
+    public static boolean isExpired() {
+        return remaining().map(left -> left.isNegative() || left.isZero()).orElse(false);
+    }
+    
+    /**
+     * The smaller of the given timeout and the time left, never negative
+     */
+    public static Duration bound(Duration timeout) {
+        return remaining()
+            .map(left -> left.isNegative() ? Duration.ZERO : left)
+            .filter(left -> left.compareTo(timeout) < 0)
+            .orElse(timeout);
+    }
+}
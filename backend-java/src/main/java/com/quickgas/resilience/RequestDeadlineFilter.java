@@ -0,0 +1,69 @@
+package com.quickgas.resilience;
+
+import com.quickgas.config.ResilienceProperties;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Starts the request deadline: the client's X-Request-Timeout-Ms header if present
+ * (capped at max-timeout), otherwise the longest matching per-endpoint default.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@RequiredArgsConstructor
+public class RequestDeadlineFilter extends OncePerRequestFilter {
+    
+    private final ResilienceProperties properties;
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestDeadline.start(budgetFor(request));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestDeadline.clear();
+        }
+    }
+    
+    private Duration budgetFor(HttpServletRequest request) {
+        ResilienceProperties.Deadline settings = properties.getDeadline();
+        
+        String header = request.getHeader(settings.getHeader());
+        if (header != null && !header.isBlank()) {
+            try {
+                long millis = Long.parseLong(header.trim());
+                if (millis > 0) {
+                    Duration requested = Duration.ofMillis(millis);
+                    return requested.compareTo(settings.getMaxTimeout()) < 0 ? requested : settings.getMaxTimeout();
+                }
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring invalid {} header: {}", settings.getHeader(), header);
+            }
+        }
+        
+        String path = request.getRequestURI();
+        Duration budget = settings.getDefaultTimeout();
+        int matchedLength = -1;
+        for (Map.Entry<String, Duration> endpoint : settings.getEndpoints().entrySet()) {
+            if (path.startsWith(endpoint.getKey()) && endpoint.getKey().length() > matchedLength) {
+                budget = endpoint.getValue();
+                matchedLength = endpoint.getKey().length();
+            }
+        }
+        return budget;
+    }
+}
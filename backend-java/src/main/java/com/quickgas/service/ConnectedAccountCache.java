@@ -0,0 +1,111 @@
+package com.quickgas.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.quickgas.entity.User;
+import com.quickgas.repository.UserRepository;
+import com.quickgas.resilience.DependencyGuards;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Account;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Bounded TTL caches in front of the two lookups on the payout and onboarding paths:
+ * driver id to Stripe Connect account id (from users), and account id to capability status
+ * (from Stripe). Entries are invalidated when a payout retry rewrites the driver's account id
+ * and refreshed from account.updated webhooks, so the TTL only bounds missed updates.
+ */
+@Slf4j
+@Component
+public class ConnectedAccountCache {
+    
+    private final UserRepository userRepository;
+    private final DependencyGuards dependencyGuards;
+    private final Cache<String, Optional<String>> accountIdByDriver;
+    private final Cache<String, AccountStatus> statusByAccount;
+    
+    public ConnectedAccountCache(
+            UserRepository userRepository,
+            DependencyGuards dependencyGuards,
+            MeterRegistry meterRegistry,
+            @Value("${payments.connect-cache.max-size:10000}") long maxSize,
+            @Value("${payments.connect-cache.account-id-ttl:PT10M}") Duration accountIdTtl,
+            @Value("${payments.connect-cache.status-ttl:PT5M}") Duration statusTtl) {
+        this.userRepository = userRepository;
+        this.dependencyGuards = dependencyGuards;
+        this.accountIdByDriver = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(accountIdTtl)
+            .build();
+        this.statusByAccount = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(statusTtl)
+            .build();
+        Gauge.builder("payments.connect.cache.size", accountIdByDriver, Cache::estimatedSize)
+            .tag("cache", "account_id")
+            .register(meterRegistry);
+        Gauge.builder("payments.connect.cache.size", statusByAccount, Cache::estimatedSize)
+            .tag("cache", "status")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * The driver's connected account id, or null if the driver is unknown or has not onboarded
+     */
+    public String getStripeAccountId(String driverId) {
+        return accountIdByDriver.get(driverId, id -> userRepository.findById(id)
+                .map(User::getStripeAccountId)
+                .filter(accountId -> !accountId.isEmpty()))
+            .orElse(null);
+    }
+    
+    public void invalidateDriver(String driverId) {
+        accountIdByDriver.invalidate(driverId);
+    }
+    
+    /**
+     * Capability status of a connected account, read from Stripe on a miss
+     */
+    public AccountStatus getAccountStatus(String accountId) throws StripeException {
+        AccountStatus cached = statusByAccount.getIfPresent(accountId);
+        if (cached != null) {
+            return cached;
+        }
+        Account account = dependencyGuards.stripe().call(
+            () -> Account.retrieve(accountId, dependencyGuards.stripeRequestOptions().build()));
+        return refresh(account);
+    }
+    
+    /**
+     * Store the status carried by an account object (e.g. from an account.updated webhook)
+     */
+    public AccountStatus refresh(Account account) {
+        AccountStatus status = AccountStatus.of(account);
+        statusByAccount.put(account.getId(), status);
+        String driverId = account.getMetadata() != null ? account.getMetadata().get("driverId") : null;
+        if (driverId != null) {
+            // Re-read from users next time; the account id there may be changing
+            accountIdByDriver.invalidate(driverId);
+        }
+        return status;
+    }
+    
+    public record AccountStatus(String accountId, boolean detailsSubmitted, boolean chargesEnabled,
+                                boolean payoutsEnabled, String email) {
+        
+        static AccountStatus of(Account account) {
+            return new AccountStatus(account.getId(),
+                Boolean.TRUE.equals(account.getDetailsSubmitted()),
+                Boolean.TRUE.equals(account.getChargesEnabled()),
+                Boolean.TRUE.equals(account.getPayoutsEnabled()),
+                account.getEmail());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.quickgas.service;
+
+import com.quickgas.dto.DriverEarnings;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Earnings summaries read from driver_earnings_daily, which a database trigger keeps in step
+ * with driver_payments (see V18). Cost grows with the number of days asked for, not payments.
+ */
+@Service
+@RequiredArgsConstructor
+public class DriverEarningsService {
+    
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    
+    /**
+     * Daily rows for a driver, newest first; {@code from} and {@code to} are inclusive and optional
+     */
+    public List<DriverEarnings> getDailyEarnings(String driverId, LocalDate from, LocalDate to) {
+        StringBuilder sql = new StringBuilder(
+            "SELECT day, currency, payment_count, gross_amount, paid_amount, pending_amount " +
+            "FROM driver_earnings_daily WHERE driver_id = :driverId AND payment_count > 0");
+        MapSqlParameterSource params = new MapSqlParameterSource("driverId", driverId);
+        if (from != null) {
+            sql.append(" AND day >= :from");
+            params.addValue("from", from);
+        }
+        if (to != null) {
+            sql.append(" AND day <= :to");
+            params.addValue("to", to);
+        }
+        sql.append(" ORDER BY day DESC, currency");
+        
+        return jdbcTemplate.query(sql.toString(), params, (rs, rowNum) -> new DriverEarnings(
+            rs.getObject("day", LocalDate.class),
+            rs.getString("currency"),
+            rs.getInt("payment_count"),
+            rs.getBigDecimal("gross_amount"),
+            rs.getBigDecimal("paid_amount"),
+            rs.getBigDecimal("pending_amount")));
+    }
+    
+    /**
+     * Sum daily rows into one total per currency
+     */
+    public List<DriverEarnings> totalsByCurrency(List<DriverEarnings> days) {
+        Map<String, DriverEarnings> totals = new LinkedHashMap<>();
+        for (DriverEarnings day : days) {
+            DriverEarnings total = totals.computeIfAbsent(day.getCurrency(), currency ->
+                new DriverEarnings(null, currency, 0, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO));
+            total.setPaymentCount(total.getPaymentCount() + day.getPaymentCount());
+            total.setGrossAmount(total.getGrossAmount().add(day.getGrossAmount()));
+            total.setPaidAmount(total.getPaidAmount().add(day.getPaidAmount()));
+            total.setPendingAmount(total.getPendingAmount().add(day.getPendingAmount()));
+        }
+        return new ArrayList<>(totals.values());
+    }
+}
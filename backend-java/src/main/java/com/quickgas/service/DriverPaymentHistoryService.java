@@ -0,0 +1,167 @@
+package com.quickgas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quickgas.entity.DriverPayment;
+import com.quickgas.exception.ValidationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A driver's payment history, newest first, without loading it all at once: keyset pages on
+ * (created_at, id) behind an opaque cursor, or every row streamed as NDJSON from a JDBC cursor.
+ */
+@Service
+public class DriverPaymentHistoryService {
+    
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+    
+    private static final String SELECT_COLUMNS =
+        "SELECT id, driver_id, order_id, route_id, amount, currency, status, payout_attempts, next_attempt_at, " +
+        "payout_batch_id, stripe_payout_id, stripe_transfer_id, paid_at, created_at, updated_at " +
+        "FROM driver_payments WHERE driver_id = :driverId";
+    
+    private static final RowMapper<DriverPayment> ROW_MAPPER = (rs, rowNum) -> DriverPayment.builder()
+        .id(rs.getLong("id"))
+        .driverId(rs.getString("driver_id"))
+        .orderId(rs.getString("order_id"))
+        .routeId(rs.getString("route_id"))
+        .amount(rs.getBigDecimal("amount"))
+        .currency(rs.getString("currency"))
+        .status(rs.getString("status"))
+        .payoutAttempts(rs.getInt("payout_attempts"))
+        .nextAttemptAt(toLocalDateTime(rs.getTimestamp("next_attempt_at")))
+        .payoutBatchId(rs.getObject("payout_batch_id", Long.class))
+        .stripePayoutId(rs.getString("stripe_payout_id"))
+        .stripeTransferId(rs.getString("stripe_transfer_id"))
+        .paidAt(toLocalDateTime(rs.getTimestamp("paid_at")))
+        .createdAt(toLocalDateTime(rs.getTimestamp("created_at")))
+        .updatedAt(toLocalDateTime(rs.getTimestamp("updated_at")))
+        .build();
+    
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectMapper objectMapper;
+    
+    public DriverPaymentHistoryService(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper,
+            @Value("${payments.history.stream-fetch-size:500}") int streamFetchSize) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        // With autocommit off (inside the transaction) pgjdbc reads this many rows per round trip
+        streaming.setFetchSize(streamFetchSize);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(streaming);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.objectMapper = objectMapper;
+    }
+    
+    /**
+     * One page of payments older than the cursor
+     * @param status optional status filter
+     * @param cursor null for the first page, otherwise the nextCursor of the previous page
+     */
+    public Page getPage(String driverId, String status, String cursor, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        MapSqlParameterSource params = new MapSqlParameterSource("driverId", driverId);
+        StringBuilder sql = new StringBuilder(SELECT_COLUMNS);
+        appendStatus(sql, params, status);
+        if (cursor != null && !cursor.isEmpty()) {
+            Cursor position = Cursor.decode(cursor);
+            sql.append(" AND (created_at, id) < (:cursorCreatedAt, :cursorId)");
+            params.addValue("cursorCreatedAt", Timestamp.valueOf(position.createdAt()));
+            params.addValue("cursorId", position.id());
+        }
+        // One extra row tells whether there is a next page
+        sql.append(" ORDER BY created_at DESC, id DESC LIMIT :limit");
+        params.addValue("limit", pageSize + 1);
+        
+        List<DriverPayment> rows = jdbcTemplate.query(sql.toString(), params, ROW_MAPPER);
+        if (rows.size() <= pageSize) {
+            return new Page(rows, null);
+        }
+        List<DriverPayment> page = new ArrayList<>(rows.subList(0, pageSize));
+        DriverPayment last = page.get(page.size() - 1);
+        return new Page(page, new Cursor(last.getCreatedAt(), last.getId()).encode());
+    }
+    
+    /**
+     * Write every matching payment to {@code out} as one JSON object per line, newest first.
+     * Rows are serialised as they are fetched, so memory use does not grow with the history.
+     */
+    public void streamAll(String driverId, String status, OutputStream out) {
+        MapSqlParameterSource params = new MapSqlParameterSource("driverId", driverId);
+        StringBuilder sql = new StringBuilder(SELECT_COLUMNS);
+        appendStatus(sql, params, status);
+        sql.append(" ORDER BY created_at DESC, id DESC");
+        
+        readOnlyTransaction.executeWithoutResult(tx ->
+            streamingJdbcTemplate.query(sql.toString(), params, (RowCallbackHandler) rs -> {
+                try {
+                    out.write(objectMapper.writeValueAsBytes(ROW_MAPPER.mapRow(rs, 0)));
+                    out.write('\n');
+                } catch (IOException e) {
+                    // Client went away; abandon the query
+                    throw new UncheckedIOException(e);
+                }
+            }));
+    }
+    
+    private static void appendStatus(StringBuilder sql, MapSqlParameterSource params, String status) {
+        if (status != null && !status.isEmpty()) {
+            sql.append(" AND status = :status");
+            params.addValue("status", status);
+        }
+    }
+    
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+    
+    public record Page(List<DriverPayment> payments, String nextCursor) {
+    }
+    
+    /**
+     * Position after the last row of a page; opaque to clients (base64url of "createdAt|id")
+     */
+    record Cursor(LocalDateTime createdAt, long id) {
+        
+        String encode() {
+            String raw = createdAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        static Cursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new Cursor(LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+            } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+                throw new ValidationException("Invalid cursor");
+            }
+        }
+    }
+}
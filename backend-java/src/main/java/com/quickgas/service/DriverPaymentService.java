@@ -2,13 +2,21 @@ package com.quickgas.service;
 
 import com.quickgas.entity.DriverPayment;
 import com.quickgas.entity.User;
+import com.quickgas.events.DomainEvent;
+import com.quickgas.events.DomainEventBus;
+import com.quickgas.money.Money;
 import com.quickgas.repository.DriverPaymentRepository;
 import com.quickgas.repository.UserRepository;
+import com.quickgas.resilience.DependencyGuards;
+import com.quickgas.resilience.DependencyUnavailableException;
 import com.stripe.Stripe;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Account;
 import com.stripe.model.AccountLink;
 import com.stripe.model.Transfer;
+import com.stripe.net.RequestOptions;
 import com.stripe.param.AccountCreateParams;
 import com.stripe.param.AccountLinkCreateParams;
 import com.stripe.param.TransferCreateParams;
@@ -16,11 +24,10 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import jakarta.annotation.PostConstruct;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
@@ -30,15 +37,25 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class DriverPaymentService {
     
+    public static final String PAYOUT_MODE_IMMEDIATE = "immediate";
+    public static final String PAYOUT_MODE_BATCHED = "batched";
+    
     @Value("${stripe.secret-key:}")
     private String stripeSecretKey;
     
+    @Value("${payments.payouts.mode:immediate}")
+    private String payoutMode;
+    
     private final DriverPaymentRepository driverPaymentRepository;
     private final UserRepository userRepository;
     private final SecurityService securityService;
+    private final TransactionTemplate transactionTemplate;
+    private final DependencyGuards dependencyGuards;
+    private final DomainEventBus eventBus;
+    private final ConnectedAccountCache connectedAccountCache;
     
     // Driver gets 80% of order total
-    private static final double DRIVER_PAYMENT_PERCENTAGE = 0.80;
+    private static final long DRIVER_PAYMENT_BASIS_POINTS = 8_000; // 80%
     
     @PostConstruct
     public void init() {
@@ -54,17 +71,14 @@ public class DriverPaymentService {
      * Create a driver payment record (80% of order total)
      * @param driverId Driver ID
      * @param orderId Order ID
-     * @param orderTotal Total order amount (including tip)
-     * @param currency Currency code
+     * @param orderTotal Total order amount (including tip), carrying the currency
      * @param routeId Optional route ID
      * @return Created DriverPayment entity
      */
-    @Transactional
     public DriverPayment createDriverPayment(
             String driverId,
             String orderId,
-            BigDecimal orderTotal,
-            String currency,
+            Money orderTotal,
             String routeId) {
         
         // Security validation
@@ -78,10 +92,8 @@ public class DriverPaymentService {
             throw e;
         }
         
-        // Calculate driver payment (80% of order total)
-        BigDecimal driverAmount = orderTotal
-                .multiply(BigDecimal.valueOf(DRIVER_PAYMENT_PERCENTAGE))
-                .setScale(2, RoundingMode.HALF_UP);
+        // Calculate driver payment (80% of order total, rounded to the currency's minor unit)
+        Money driverAmount = orderTotal.percentage(DRIVER_PAYMENT_BASIS_POINTS);
         
         // Log security event
         securityService.logSecurityEvent("DRIVER_PAYMENT_CREATED", driverId, 
@@ -91,8 +103,8 @@ public class DriverPaymentService {
                 .driverId(driverId)
                 .orderId(orderId)
                 .routeId(routeId)
-                .amount(driverAmount)
-                .currency(currency.toLowerCase())
+                .amount(driverAmount.toMajor())
+                .currency(driverAmount.currency())
                 .status("pending")
                 .createdAt(LocalDateTime.now())
                 .updatedAt(LocalDateTime.now())
@@ -102,10 +114,15 @@ public class DriverPaymentService {
         log.info("Created driver payment: paymentId={}, driverId={}, orderId={}, amount={}", 
                 payment.getId(), driverId, orderId, driverAmount);
         
-        // Attempt automatic payout if driver has Stripe Connect account
+        if (isBatchedPayouts()) {
+            // Settled with the driver's other pending payments by DriverPayoutBatchService
+            return payment;
+        }
+        
+        // Attempt automatic payout if driver has Stripe Connect account (outside any transaction)
         attemptAutomaticPayout(payment);
         
-        return payment;
+        return driverPaymentRepository.findById(payment.getId()).orElse(payment);
     }
     
     /**
@@ -114,15 +131,8 @@ public class DriverPaymentService {
      */
     private void attemptAutomaticPayout(DriverPayment payment) {
         try {
-            // Fetch driver's Stripe account ID from database
-            User driver = userRepository.findById(payment.getDriverId()).orElse(null);
-            
-            if (driver == null) {
-                log.warn("Driver not found for automatic payout: driverId={}", payment.getDriverId());
-                return;
-            }
-            
-            String stripeAccountId = driver.getStripeAccountId();
+            // Driver's Stripe account ID (cached; null if the driver is unknown or not onboarded)
+            String stripeAccountId = connectedAccountCache.getStripeAccountId(payment.getDriverId());
             
             if (stripeAccountId == null || stripeAccountId.isEmpty()) {
                 log.info("Driver does not have Stripe Connect account set up: driverId={}, paymentId={}", 
@@ -134,11 +144,11 @@ public class DriverPaymentService {
             log.info("Attempting automatic payout: paymentId={}, driverId={}, stripeAccountId={}", 
                     payment.getId(), payment.getDriverId(), stripeAccountId);
             
-            processDriverPayout(payment.getId(), stripeAccountId);
+            DriverPayment paid = processDriverPayout(payment.getId(), stripeAccountId);
             
             log.info("Automatic payout successful: paymentId={}, transferId={}", 
-                    payment.getId(), payment.getStripeTransferId());
-            
+                    paid.getId(), paid.getStripeTransferId());
+        
         } catch (StripeException e) {
             log.error("Automatic payout failed (Stripe error): paymentId={}, error={}", 
                     payment.getId(), e.getMessage());
@@ -153,80 +163,145 @@ public class DriverPaymentService {
     /**
      * Process driver payout via Stripe Transfer
      * Note: This requires Stripe Connect and driver's connected account ID
-     * For now, this is a placeholder - actual implementation depends on Stripe Connect setup
+     * The payment is moved to 'transfer_pending' in a short transaction before the Stripe call
+     * and settled in another one afterwards, so no connection is held while Stripe responds.
      */
-    @Transactional
     public DriverPayment processDriverPayout(Long paymentId, String driverStripeAccountId) 
             throws StripeException {
         
         DriverPayment payment = driverPaymentRepository.findById(paymentId)
                 .orElseThrow(() -> new IllegalArgumentException("Driver payment not found"));
         
-        if (!"pending".equals(payment.getStatus())) {
+        // Claiming the payment also stops two concurrent requests from both paying it out
+        if (driverPaymentRepository.markTransferPending(paymentId) == 0) {
             throw new IllegalStateException("Payment is not in pending status");
         }
+        return transfer(payment, payment.getPayoutAttempts() + 1, driverStripeAccountId);
+    }
+    
+    /**
+     * Pay out a payment already claimed ('transfer_pending', attempt counted) by {@link DriverPayoutWorker}
+     */
+    public DriverPayment payClaimedPayout(Long paymentId, String driverStripeAccountId) throws StripeException {
+        DriverPayment payment = getPayment(paymentId);
+        if (!"transfer_pending".equals(payment.getStatus())) {
+            throw new IllegalStateException("Payment is not claimed for payout. Current status: " + payment.getStatus());
+        }
+        return transfer(payment, payment.getPayoutAttempts(), driverStripeAccountId);
+    }
+    
+    private DriverPayment transfer(DriverPayment payment, int attempt, String driverStripeAccountId)
+            throws StripeException {
+        Long paymentId = payment.getId();
         
-        // Convert amount to cents for Stripe
-        long amountInCents = payment.getAmount()
-                .multiply(BigDecimal.valueOf(100))
-                .longValue();
+        // Stripe takes the smallest currency unit (cents, or yen for jpy)
+        Money amount = Money.ofMajor(payment.getAmount(), payment.getCurrency());
         
         try {
             // Create Stripe Transfer to driver's connected account
             TransferCreateParams params = TransferCreateParams.builder()
-                    .setAmount(amountInCents)
+                    .setAmount(amount.minorUnits())
                     .setCurrency(payment.getCurrency())
                     .setDestination(driverStripeAccountId)
+                    .setTransferGroup(transferGroup(paymentId))
                     .putMetadata("orderId", payment.getOrderId())
                     .putMetadata("driverId", payment.getDriverId())
+                    .putMetadata("driverPaymentId", paymentId.toString())
                     .build();
             
-            Transfer transfer = Transfer.create(params);
+            // One key per attempt: a retried request never creates a second transfer
+            RequestOptions requestOptions = dependencyGuards.stripeRequestOptions()
+                    .setIdempotencyKey("driver-payout-" + paymentId + "-" + attempt)
+                    .build();
+            
+            Transfer transfer = dependencyGuards.stripe().call(() -> Transfer.create(params, requestOptions));
             
             // Update payment record
-            payment.setStatus("paid");
-            payment.setStripeTransferId(transfer.getId());
-            payment.setPaidAt(LocalDateTime.now());
-            payment = driverPaymentRepository.save(payment);
+            driverPaymentRepository.markPaid(paymentId, transfer.getId(), LocalDateTime.now());
+            eventBus.publish(payoutPaid(payment, transfer.getId()));
             
             log.info("Driver payout processed: paymentId={}, transferId={}, amount={}", 
-                    payment.getId(), transfer.getId(), payment.getAmount());
+                    paymentId, transfer.getId(), amount);
             
-            return payment;
+            return getPayment(paymentId);
+        } catch (DependencyUnavailableException e) {
+            if (e.isRejected()) {
+                // Nothing was sent to Stripe; leave the payment ready for a later retry
+                driverPaymentRepository.releaseTransferPending(paymentId);
+            }
+            throw e;
         } catch (StripeException e) {
-            // In test mode, if the error is insufficient funds, treat it as success
-            // (since test accounts are typically empty and this is expected)
-            boolean isTestMode = stripeSecretKey != null && stripeSecretKey.startsWith("sk_test_");
-            boolean isInsufficientFunds = e.getCode() != null && 
-                    (e.getCode().equals("balance_insufficient") || 
-                     e.getMessage() != null && e.getMessage().contains("insufficient available funds"));
-            
-            if (isTestMode && isInsufficientFunds) {
+            if (isOutcomeUnknown(e)) {
+                // The transfer may exist; a retry under the next attempt's key could pay twice,
+                // so the row stays 'transfer_pending' and the recovery sweep decides
+                log.error("Driver payout outcome unknown, left for recovery: paymentId={}, error={}", 
+                        paymentId, e.getMessage());
+                throw e;
+            }
+            if (isTestModeInsufficientFunds(e)) {
                 log.warn("Test mode: Insufficient funds error treated as success. paymentId={}, error={}", 
                         paymentId, e.getMessage());
                 
                 // Mark as paid anyway (simulating successful transfer in test mode)
-                payment.setStatus("paid");
-                payment.setStripeTransferId("test_transfer_" + paymentId); // Placeholder transfer ID
-                payment.setPaidAt(LocalDateTime.now());
-                payment = driverPaymentRepository.save(payment);
+                driverPaymentRepository.markPaid(paymentId, "test_transfer_" + paymentId, // Placeholder transfer ID
+                        LocalDateTime.now());
+                eventBus.publish(payoutPaid(payment, "test_transfer_" + paymentId));
                 
                 log.info("Test mode payment marked as paid despite insufficient funds: paymentId={}", 
-                        payment.getId());
+                        paymentId);
                 
-                return payment;
+                return getPayment(paymentId);
             }
             
             log.error("Failed to process driver payout: paymentId={}, error={}", 
                     paymentId, e.getMessage());
             
-            payment.setStatus("failed");
-            payment = driverPaymentRepository.save(payment);
+            driverPaymentRepository.markTransferFailed(paymentId);
             
             throw e;
         }
     }
     
+    public boolean isBatchedPayouts() {
+        return PAYOUT_MODE_BATCHED.equalsIgnoreCase(payoutMode);
+    }
+    
+    /**
+     * In test mode, if the error is insufficient funds, treat it as success
+     * (since test accounts are typically empty and this is expected)
+     */
+    boolean isTestModeInsufficientFunds(StripeException e) {
+        boolean isTestMode = stripeSecretKey != null && stripeSecretKey.startsWith("sk_test_");
+        boolean isInsufficientFunds = e.getCode() != null && 
+                (e.getCode().equals("balance_insufficient") || 
+                 e.getMessage() != null && e.getMessage().contains("insufficient available funds"));
+        return isTestMode && isInsufficientFunds;
+    }
+    
+    /**
+     * True unless Stripe definitely rejected the request: no response (timeout, lost connection),
+     * a 5xx or a 429 says nothing about whether the transfer was created
+     */
+    static boolean isOutcomeUnknown(StripeException e) {
+        Integer status = e.getStatusCode();
+        return e instanceof ApiConnectionException || e instanceof ApiException
+                || status == null || status >= 500 || status == 429;
+    }
+    
+    static String transferGroup(Long paymentId) {
+        return "driver_payment_" + paymentId;
+    }
+    
+    static DomainEvent.PayoutPaid payoutPaid(DriverPayment payment, String transferId) {
+        return new DomainEvent.PayoutPaid(payment.getId(), payment.getDriverId(), payment.getOrderId(),
+                Money.ofMajor(payment.getAmount(), payment.getCurrency()), transferId, Instant.now());
+    }
+    
+    private DriverPayment getPayment(Long paymentId) {
+        return driverPaymentRepository.findById(paymentId)
+                .orElseThrow(() -> new IllegalArgumentException("Driver payment not found"));
+    }
+    
     /**
      * Get all payments for a driver
      */
@@ -256,8 +331,17 @@ public class DriverPaymentService {
      * @param userData Optional user data from Firestore to sync to PostgreSQL
      * @return Updated DriverPayment entity
      */
-    @Transactional
     public DriverPayment retryPendingPayment(Long paymentId, String stripeAccountId, Map<String, Object> userData) throws StripeException {
+        // Database preparation in one short transaction; the Stripe call happens after it commits
+        String driverId = transactionTemplate.execute(status -> prepareRetry(paymentId, stripeAccountId, userData));
+        // The driver's account id may just have been written
+        connectedAccountCache.invalidateDriver(driverId);
+        
+        // Process the payout using the driver's Stripe account ID
+        return processDriverPayout(paymentId, stripeAccountId);
+    }
+    
+    private String prepareRetry(Long paymentId, String stripeAccountId, Map<String, Object> userData) {
         DriverPayment payment = driverPaymentRepository.findById(paymentId)
                 .orElseThrow(() -> new IllegalArgumentException("Driver payment not found"));
         
@@ -314,9 +398,7 @@ public class DriverPaymentService {
             throw new IllegalArgumentException("Driver not found in database and no user data provided. " +
                     "Please ensure you have completed Stripe Connect onboarding and try again.");
         }
-        
-        // Process the payout using the driver's Stripe account ID
-        return processDriverPayout(paymentId, accountId);
+        return payment.getDriverId();
     }
     
     /**
@@ -341,9 +423,11 @@ public class DriverPaymentService {
                 )
                 .build();
         
-        Account account = Account.create(params);
+        Account account = dependencyGuards.stripe().call(
+                () -> Account.create(params, dependencyGuards.stripeRequestOptions().build()));
         log.info("Created Stripe Connect Express account: accountId={}, driverId={}", 
                 account.getId(), driverId);
+        connectedAccountCache.refresh(account);
         
         return account;
     }
@@ -361,17 +445,18 @@ public class DriverPaymentService {
                 .setType(AccountLinkCreateParams.Type.ACCOUNT_ONBOARDING)
                 .build();
         
-        AccountLink accountLink = AccountLink.create(params);
+        AccountLink accountLink = dependencyGuards.stripe().call(
+                () -> AccountLink.create(params, dependencyGuards.stripeRequestOptions().build()));
         log.info("Created account link: accountId={}, url={}", accountId, accountLink.getUrl());
         
         return accountLink.getUrl();
     }
     
     /**
-     * Get account details
+     * Get account capability status (cached, refreshed by account.updated webhooks)
      */
-    public Account getAccount(String accountId) throws StripeException {
-        return Account.retrieve(accountId);
+    public ConnectedAccountCache.AccountStatus getAccountStatus(String accountId) throws StripeException {
+        return connectedAccountCache.getAccountStatus(accountId);
     }
 }
 
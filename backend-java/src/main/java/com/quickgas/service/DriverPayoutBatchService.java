@@ -0,0 +1,202 @@
+package com.quickgas.service;
+
+import com.quickgas.entity.DriverPayment;
+import com.quickgas.entity.DriverPayoutBatch;
+import com.quickgas.events.DomainEventBus;
+import com.quickgas.money.Money;
+import com.quickgas.repository.DriverPaymentRepository;
+import com.quickgas.repository.DriverPayoutBatchRepository;
+import com.quickgas.resilience.DependencyGuards;
+import com.quickgas.resilience.DependencyUnavailableException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Transfer;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.TransferCreateParams;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Batched payout mode ({@code payments.payouts.mode=batched}). Once per window, each driver's
+ * pending payments in a currency are claimed into a driver_payout_batches row and paid with a
+ * single Stripe transfer, instead of one transfer per order on the order-completion path.
+ * As with single payouts, the claim and the settlement are short transactions on either side
+ * of the Stripe call; a batch left in 'transfer_pending' is settled by {@link PaymentRecoveryService}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DriverPayoutBatchService {
+    
+    public static final String BATCH_METADATA_KEY = "driverPayoutBatchId";
+    
+    private static final String STATUS_TRANSFER_PENDING = "transfer_pending";
+    
+    private final DriverPaymentRepository driverPaymentRepository;
+    private final DriverPayoutBatchRepository batchRepository;
+    private final ConnectedAccountCache connectedAccountCache;
+    private final DriverPaymentService driverPaymentService;
+    private final TransactionTemplate transactionTemplate;
+    private final DependencyGuards dependencyGuards;
+    private final DomainEventBus eventBus;
+    
+    @Scheduled(fixedDelayString = "${payments.payouts.batch.window:PT1H}",
+               initialDelayString = "${payments.payouts.batch.window:PT1H}")
+    public void settlePendingPayouts() {
+        if (!driverPaymentService.isBatchedPayouts()) {
+            return;
+        }
+        
+        int settled = 0;
+        for (Object[] pending : driverPaymentRepository.findPendingDriverCurrencies()) {
+            String driverId = (String) pending[0];
+            String currency = (String) pending[1];
+            try {
+                if (settle(driverId, currency) != null) {
+                    settled++;
+                }
+            } catch (DependencyUnavailableException e) {
+                // Stripe is unavailable; the rest wait for the next window
+                log.warn("Payout batch settlement deferred: driverId={}, error={}", driverId, e.getMessage());
+                break;
+            } catch (Exception e) {
+                log.error("Payout batch settlement failed: driverId={}, currency={}, error={}",
+                    driverId, currency, e.getMessage());
+            }
+        }
+        if (settled > 0) {
+            log.info("Payout batches settled: batches={}", settled);
+        }
+    }
+    
+    /**
+     * Pay all of a driver's pending payments in one currency with one transfer
+     * @return the batch, or null if the driver has no connected account or nothing was left to claim
+     */
+    public DriverPayoutBatch settle(String driverId, String currency) throws StripeException {
+        String stripeAccountId = connectedAccountCache.getStripeAccountId(driverId);
+        if (stripeAccountId == null) {
+            log.debug("Driver has no Stripe Connect account, payout batch skipped: driverId={}", driverId);
+            return null;
+        }
+        
+        DriverPayoutBatch batch = transactionTemplate.execute(tx -> {
+            DriverPayoutBatch created = batchRepository.save(DriverPayoutBatch.builder()
+                .driverId(driverId)
+                .stripeAccountId(stripeAccountId)
+                .currency(currency)
+                .status(STATUS_TRANSFER_PENDING)
+                .build());
+            if (driverPaymentRepository.claimForBatch(created.getId(), driverId, currency) == 0) {
+                // Another instance (or a manual payout) claimed them first
+                tx.setRollbackOnly();
+                return null;
+            }
+            Money total = Money.ofMinor(0, currency);
+            List<DriverPayment> payments = driverPaymentRepository.findByPayoutBatchId(created.getId());
+            for (DriverPayment payment : payments) {
+                total = total.plus(Money.ofMajor(payment.getAmount(), currency));
+            }
+            created.setAmount(total.toMajor());
+            created.setPaymentCount(payments.size());
+            return batchRepository.save(created);
+        });
+        if (batch == null) {
+            return null;
+        }
+        
+        Long batchId = batch.getId();
+        Money amount = Money.ofMajor(batch.getAmount(), currency);
+        try {
+            TransferCreateParams params = TransferCreateParams.builder()
+                .setAmount(amount.minorUnits())
+                .setCurrency(currency)
+                .setDestination(stripeAccountId)
+                .setTransferGroup(transferGroup(batchId))
+                .putMetadata("driverId", driverId)
+                .putMetadata(BATCH_METADATA_KEY, batchId.toString())
+                .putMetadata("paymentCount", batch.getPaymentCount().toString())
+                .build();
+            RequestOptions requestOptions = dependencyGuards.stripeRequestOptions()
+                .setIdempotencyKey("driver-payout-batch-" + batchId)
+                .build();
+            
+            Transfer transfer = dependencyGuards.stripe().call(() -> Transfer.create(params, requestOptions));
+            complete(batchId, transfer.getId(), LocalDateTime.now());
+            log.info("Payout batch paid: batchId={}, driverId={}, payments={}, amount={}, transferId={}",
+                batchId, driverId, batch.getPaymentCount(), amount, transfer.getId());
+        } catch (DependencyUnavailableException e) {
+            if (e.isRejected()) {
+                // Nothing was sent to Stripe; the payments go back into the next window
+                release(batchId);
+            }
+            throw e;
+        } catch (StripeException e) {
+            if (DriverPaymentService.isOutcomeUnknown(e)) {
+                // The transfer may exist; detaching the payments would let a new batch pay them again
+                log.error("Payout batch outcome unknown, left for recovery: batchId={}, error={}",
+                    batchId, e.getMessage());
+                throw e;
+            }
+            if (driverPaymentService.isTestModeInsufficientFunds(e)) {
+                log.warn("Test mode: Insufficient funds error treated as success. batchId={}", batchId);
+                complete(batchId, "test_transfer_batch_" + batchId, LocalDateTime.now());
+            } else {
+                log.error("Payout batch failed: batchId={}, error={}", batchId, e.getMessage());
+                fail(batchId);
+                throw e;
+            }
+        }
+        return batchRepository.findById(batchId).orElse(batch);
+    }
+    
+    /**
+     * Mark a batch and every payment in it paid by the given transfer
+     */
+    public void complete(Long batchId, String transferId, LocalDateTime paidAt) {
+        Boolean completed = transactionTemplate.execute(tx -> {
+            if (batchRepository.markPaid(batchId, transferId, paidAt) == 0) {
+                return false;
+            }
+            driverPaymentRepository.markBatchPaid(batchId, transferId, paidAt);
+            return true;
+        });
+        if (Boolean.TRUE.equals(completed)) {
+            for (DriverPayment payment : driverPaymentRepository.findByPayoutBatchId(batchId)) {
+                eventBus.publish(DriverPaymentService.payoutPaid(payment, transferId));
+            }
+        }
+    }
+    
+    /**
+     * Close a batch whose transfer was never created; its payments return to pending
+     */
+    public void release(Long batchId) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            if (batchRepository.close(batchId, "released") > 0) {
+                driverPaymentRepository.detachBatch(batchId, "pending");
+            }
+        });
+    }
+    
+    private void fail(Long batchId) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            if (batchRepository.close(batchId, "failed") > 0) {
+                driverPaymentRepository.detachBatch(batchId, "failed");
+            }
+        });
+    }
+    
+    public List<DriverPayoutBatch> getDriverBatches(String driverId) {
+        return batchRepository.findByDriverIdOrderByCreatedAtDesc(driverId);
+    }
+    
+    static String transferGroup(Long batchId) {
+        return "driver_payout_batch_" + batchId;
+    }
+}
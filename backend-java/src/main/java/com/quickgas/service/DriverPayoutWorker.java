@@ -0,0 +1,162 @@
+package com.quickgas.service;
+
+import com.quickgas.concurrent.StripedExecutor;
+import com.quickgas.entity.DriverPayment;
+import com.quickgas.repository.DriverPaymentRepository;
+import com.quickgas.resilience.DependencyUnavailableException;
+import com.stripe.exception.StripeException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Background payout engine for immediate mode. Each poll locks a batch of due 'pending' or
+ * 'failed' driver payments with FOR UPDATE SKIP LOCKED and claims them ('transfer_pending',
+ * attempt counted) in one short transaction, so any number of instances can poll without
+ * picking the same row. Payouts then run on the payout executor, one at a time per driver and
+ * in parallel across drivers; a failed attempt is rescheduled with jittered exponential backoff.
+ * A claimed row whose instance dies is returned by the recovery sweep.
+ */
+@Slf4j
+@Service
+public class DriverPayoutWorker {
+    
+    private final DriverPaymentRepository driverPaymentRepository;
+    private final ConnectedAccountCache connectedAccountCache;
+    private final DriverPaymentService driverPaymentService;
+    private final StripedExecutor payoutExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${payments.payouts.worker.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${payments.payouts.worker.batch-size:50}")
+    private int batchSize;
+    
+    @Value("${payments.payouts.worker.max-attempts:8}")
+    private int maxAttempts;
+    
+    @Value("${payments.payouts.worker.initial-backoff:PT1M}")
+    private Duration initialBackoff;
+    
+    @Value("${payments.payouts.worker.max-backoff:PT6H}")
+    private Duration maxBackoff;
+    
+    @Value("${payments.payouts.worker.idle-before:PT1M}")
+    private Duration idleBefore;
+    
+    public DriverPayoutWorker(
+            DriverPaymentRepository driverPaymentRepository,
+            ConnectedAccountCache connectedAccountCache,
+            DriverPaymentService driverPaymentService,
+            StripedExecutor payoutExecutor,
+            TransactionTemplate transactionTemplate,
+            MeterRegistry meterRegistry) {
+        this.driverPaymentRepository = driverPaymentRepository;
+        this.connectedAccountCache = connectedAccountCache;
+        this.driverPaymentService = driverPaymentService;
+        this.payoutExecutor = payoutExecutor;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+    
+    @Scheduled(fixedDelayString = "${payments.payouts.worker.poll-interval:PT30S}")
+    public void pollPayable() {
+        // In batched mode pending payments belong to the next batch window
+        if (!enabled || driverPaymentService.isBatchedPayouts()) {
+            return;
+        }
+        
+        List<Long> claimed;
+        try {
+            claimed = transactionTemplate.execute(status -> {
+                List<Long> ids = driverPaymentRepository.lockPayable(
+                    maxAttempts, LocalDateTime.now().minus(idleBefore), batchSize);
+                if (!ids.isEmpty()) {
+                    driverPaymentRepository.claimAll(ids);
+                }
+                return ids;
+            });
+        } catch (Exception e) {
+            log.error("Failed to poll payable driver payments: {}", e.getMessage());
+            return;
+        }
+        
+        if (claimed.isEmpty()) {
+            return;
+        }
+        
+        List<DriverPayment> payments = new ArrayList<>(driverPaymentRepository.findAllById(claimed));
+        payments.sort(Comparator.comparing(DriverPayment::getId));
+        for (DriverPayment payment : payments) {
+            try {
+                payoutExecutor.execute(payment.getDriverId(), () -> pay(payment));
+            } catch (RejectedExecutionException e) {
+                driverPaymentRepository.releaseClaim(payment.getId());
+            }
+        }
+        log.info("Driver payouts claimed: count={}", payments.size());
+    }
+    
+    private void pay(DriverPayment payment) {
+        Long paymentId = payment.getId();
+        try {
+            String stripeAccountId = connectedAccountCache.getStripeAccountId(payment.getDriverId());
+            if (stripeAccountId == null) {
+                driverPaymentRepository.releaseClaim(paymentId);
+                return;
+            }
+            driverPaymentService.payClaimedPayout(paymentId, stripeAccountId);
+            meterRegistry.counter("payments.payouts.worker", "outcome", "paid").increment();
+        } catch (DependencyUnavailableException e) {
+            // A rejected call was returned to pending; a timed-out one waits for the recovery sweep
+            retryLater(payment, "deferred", e.getMessage());
+        } catch (StripeException e) {
+            if (DriverPaymentService.isOutcomeUnknown(e)) {
+                // Left 'transfer_pending' for the recovery sweep, never retried under a new key
+                meterRegistry.counter("payments.payouts.worker", "outcome", "unknown").increment();
+                return;
+            }
+            retryLater(payment, "failed", e.getMessage());
+        } catch (Exception e) {
+            log.error("Driver payout worker error: paymentId={}", paymentId, e);
+            retryLater(payment, "failed", e.getMessage());
+        }
+    }
+    
+    private void retryLater(DriverPayment payment, String outcome, String error) {
+        // Loaded after the claim, so this already counts the current attempt
+        int attempts = payment.getPayoutAttempts();
+        meterRegistry.counter("payments.payouts.worker", "outcome", outcome).increment();
+        if (attempts >= maxAttempts) {
+            log.error("Driver payout gave up after {} attempts: paymentId={}, error={}",
+                attempts, payment.getId(), error);
+            return;
+        }
+        Duration backoff = backoff(attempts);
+        driverPaymentRepository.scheduleRetry(payment.getId(), LocalDateTime.now().plus(backoff));
+        log.warn("Driver payout failed, retrying in {}: paymentId={}, attempt={}, error={}",
+            backoff, payment.getId(), attempts, error);
+    }
+    
+    private Duration backoff(int attempts) {
+        // Exponential: initial, 2x, 4x, ... capped at maxBackoff, then a random point in its upper half
+        // so payouts that failed together (e.g. during a Stripe incident) do not retry together
+        long multiplier = 1L << Math.min(Math.max(attempts - 1, 0), 20);
+        Duration backoff = initialBackoff.multipliedBy(multiplier);
+        long millis = (backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff).toMillis();
+        return Duration.ofMillis(millis / 2 + ThreadLocalRandom.current().nextLong(millis / 2 + 1));
+    }
+}
@@ -0,0 +1,75 @@
+package com.quickgas.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.quickgas.entity.ImageEntity;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * In-process cache of recently uploaded/read images, bounded by total bytes.
+ * Caffeine's W-TinyLFU policy gives frequency-aware admission, so a burst of
+ * one-off reads cannot flush the photos that are actually being viewed.
+ */
+@Slf4j
+@Component
+public class ImageCache {
+    
+    // Approximate per-entry cost of the key, metadata and cache node
+    private static final int ENTRY_OVERHEAD_BYTES = 512;
+    
+    private final Cache<String, CachedImage> cache;
+    
+    public ImageCache(
+            MeterRegistry meterRegistry,
+            @Value("${images.cache.max-bytes:67108864}") long maxBytes,
+            @Value("${images.cache.expire-after-access:PT30M}") Duration expireAfterAccess) {
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String id, CachedImage image) -> image.getData().length + ENTRY_OVERHEAD_BYTES)
+            .expireAfterAccess(expireAfterAccess)
+            .recordStats()
+            .build();
+        
+        // Exposes cache.gets{result=hit|miss}, cache.evictions and cache.eviction.weight
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "images");
+        Gauge.builder("images.cache.bytes", cache,
+                c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+            .description("Bytes currently held in the image cache")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        
+        log.info("Image cache initialized: maxBytes={}, expireAfterAccess={}", maxBytes, expireAfterAccess);
+    }
+    
+    public CachedImage get(String imageId, Function<String, CachedImage> loader) {
+        return cache.get(imageId, loader);
+    }
+    
+    public void put(ImageEntity image, byte[] data) {
+        cache.put(image.getId(), new CachedImage(image, data));
+    }
+    
+    public void invalidate(String imageId) {
+        cache.invalidate(imageId);
+    }
+    
+    /**
+     * Image metadata together with its bytes
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class CachedImage {
+        private final ImageEntity image;
+        private final byte[] data;
+    }
+}
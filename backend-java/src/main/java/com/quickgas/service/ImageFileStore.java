@@ -0,0 +1,124 @@
+package com.quickgas.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed mirror of image blobs on a filesystem shared with nginx.
+ * In accel-redirect mode the controller only resolves the image and returns an
+ * X-Accel-Redirect header; nginx then streams the file with sendfile.
+ * Files are named by SHA-256, so they are immutable once written.
+ */
+@Slf4j
+@Component
+public class ImageFileStore {
+    
+    public static final String MODE_DIRECT = "direct";
+    public static final String MODE_ACCEL_REDIRECT = "accel-redirect";
+    
+    private final boolean enabled;
+    private final Path root;
+    private final String accelPrefix;
+    
+    public ImageFileStore(
+            @Value("${images.serving.mode:direct}") String mode,
+            @Value("${images.serving.file-store-dir:/var/lib/quickgas/images}") String directory,
+            @Value("${images.serving.accel-prefix:/internal/images/}") String accelPrefix) {
+        this.enabled = MODE_ACCEL_REDIRECT.equalsIgnoreCase(mode);
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+        this.accelPrefix = accelPrefix.endsWith("/") ? accelPrefix : accelPrefix + "/";
+        
+        if (enabled) {
+            try {
+                Files.createDirectories(root);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot create image file store: " + root, e);
+            }
+        }
+        log.info("Image serving mode: {}{}", enabled ? MODE_ACCEL_REDIRECT : MODE_DIRECT,
+            enabled ? ", fileStore=" + root : "");
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Make sure the blob is on disk and return the internal nginx location for it.
+     * The loader is only called when the file has not been written yet.
+     */
+    public String ensureStored(String contentHash, Supplier<byte[]> loader) throws IOException {
+        Path file = resolve(contentHash);
+        if (!Files.exists(file)) {
+            write(contentHash, loader.get());
+        }
+        return accelPrefix + relativePath(contentHash);
+    }
+    
+    /**
+     * Write the blob if it is not already present. Concurrent writers of the same
+     * hash are harmless: each writes a temp file and the rename is atomic.
+     */
+    public void write(String contentHash, byte[] data) throws IOException {
+        write(contentHash, () -> new ByteArrayInputStream(data));
+    }
+    
+    /**
+     * Same as {@link #write(String, byte[])}, copying from the source without buffering it
+     */
+    public void write(String contentHash, InputStreamSource source) throws IOException {
+        Path file = resolve(contentHash);
+        if (Files.exists(file)) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), contentHash, ".tmp");
+        try {
+            try (InputStream in = source.getInputStream()) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file);
+            }
+        } catch (FileAlreadyExistsException e) {
+            // Another request wrote the same content first
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    public void delete(String contentHash) {
+        try {
+            Files.deleteIfExists(resolve(contentHash));
+        } catch (IOException e) {
+            log.warn("Failed to delete image file: contentHash={}, error={}", contentHash, e.getMessage());
+        }
+    }
+    
+    private Path resolve(String contentHash) {
+        if (!contentHash.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("Invalid content hash: " + contentHash);
+        }
+        return root.resolve(relativePath(contentHash));
+    }
+    
+    private static String relativePath(String contentHash) {
+        // Two levels of fan-out keep directories small
+        return contentHash.substring(0, 2) + "/" + contentHash.substring(2, 4) + "/" + contentHash;
+    }
+}
@@ -0,0 +1,295 @@
+package com.quickgas.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Normalises uploaded photos before they are stored: caps the resolution,
+ * re-encodes JPEGs at a fixed quality and drops EXIF/metadata blocks
+ * (which also removes GPS coordinates from customer photos).
+ */
+@Slf4j
+@Service
+public class ImageProcessingService {
+    
+    private static final Set<String> JPEG_CONTENT_TYPES = Set.of("image/jpeg", "image/jpg", "image/pjpeg");
+    
+    @Value("${images.processing.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${images.processing.max-dimension:2048}")
+    private int maxDimension;
+    
+    @Value("${images.processing.jpeg-quality:0.82}")
+    private float jpegQuality;
+    
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    private final Counter bytesSaved;
+    private final MeterRegistry meterRegistry;
+    
+    public ImageProcessingService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bytesIn = Counter.builder("images.processing.bytes.in")
+            .description("Bytes received for image uploads before processing")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.bytesOut = Counter.builder("images.processing.bytes.out")
+            .description("Bytes stored for image uploads after processing")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.bytesSaved = Counter.builder("images.processing.bytes.saved")
+            .description("Bytes removed from image uploads by recompression and metadata stripping")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Process an uploaded image. The source is opened more than once (header scan,
+     * then decode) so it must be re-readable, e.g. a MultipartFile or a file resource.
+     * Non-JPEG content and images that cannot be decoded are stored unchanged and stay
+     * streamed from the source. A processed JPEG is held in memory; it is re-encoded at
+     * no more than max-dimension pixels, so its size does not grow with the upload.
+     */
+    public ProcessedImage process(InputStreamSource source, long size, String contentType, String fileName)
+            throws IOException {
+        bytesIn.increment(size);
+        
+        String normalizedType = contentType != null ? contentType.toLowerCase() : "";
+        if (!enabled || !JPEG_CONTENT_TYPES.contains(normalizedType)) {
+            record("passthrough", size, size);
+            return ProcessedImage.streamed(source, size, contentType, fileName);
+        }
+        
+        try {
+            byte[] processed = processJpeg(source, size);
+            record("processed", size, processed.length);
+            return ProcessedImage.inMemory(processed, "image/jpeg", fileName, size);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Image processing failed, storing original: fileName={}, error={}", fileName, e.getMessage());
+            record("failed", size, size);
+            return ProcessedImage.streamed(source, size, contentType, fileName);
+        }
+    }
+    
+    private byte[] processJpeg(InputStreamSource source, long originalSize) throws IOException {
+        int orientation;
+        try (InputStream in = source.getInputStream()) {
+            orientation = JpegMetadata.readOrientation(in);
+        }
+        
+        BufferedImage decoded;
+        boolean resized;
+        try (InputStream in = source.getInputStream();
+             ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("No JPEG decoder available");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                resized = Math.max(width, height) > maxDimension;
+                
+                // Decode at reduced resolution so a 12MP photo never materialises as a full raster
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = subsampling(width, height, maxDimension);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        
+        if (!resized && orientation == 1) {
+            // Small enough already: a lossless metadata strip usually beats re-encoding
+            byte[] reencoded = encodeJpeg(decoded);
+            if (reencoded.length < originalSize) {
+                return reencoded;
+            }
+            ByteArrayOutputStream stripped = new ByteArrayOutputStream((int) Math.min(originalSize, Integer.MAX_VALUE));
+            try (InputStream in = source.getInputStream()) {
+                JpegMetadata.stripMetadata(in, stripped);
+            }
+            return stripped.toByteArray();
+        }
+        
+        return encodeJpeg(normalize(decoded, orientation));
+    }
+    
+    /**
+     * Source subsampling for decoding, rounded up so the decoded raster is never larger than maxDimension
+     */
+    static int subsampling(int width, int height, int maxDimension) {
+        return Math.max(1, (Math.max(width, height) + maxDimension - 1) / maxDimension);
+    }
+    
+    /**
+     * Apply the EXIF orientation (which is lost with the metadata) and scale to fit maxDimension
+     */
+    private BufferedImage normalize(BufferedImage source, int orientation) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean swapsAxes = orientation >= 5;
+        int orientedWidth = swapsAxes ? height : width;
+        int orientedHeight = swapsAxes ? width : height;
+        
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(orientedWidth, orientedHeight));
+        int targetWidth = Math.max(1, (int) Math.round(orientedWidth * scale));
+        int targetHeight = Math.max(1, (int) Math.round(orientedHeight * scale));
+        
+        AffineTransform transform = AffineTransform.getScaleInstance(
+            (double) targetWidth / orientedWidth, (double) targetHeight / orientedHeight);
+        transform.concatenate(orientationTransform(orientation, width, height));
+        
+        BufferedImage target = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+    
+    private static AffineTransform orientationTransform(int orientation, int width, int height) {
+        AffineTransform t = new AffineTransform();
+        switch (orientation) {
+            case 2: // mirror horizontal
+                t.scale(-1.0, 1.0);
+                t.translate(-width, 0);
+                break;
+            case 3: // rotate 180
+                t.translate(width, height);
+                t.rotate(Math.PI);
+                break;
+            case 4: // mirror vertical
+                t.scale(1.0, -1.0);
+                t.translate(0, -height);
+                break;
+            case 5: // transpose
+                t.rotate(-Math.PI / 2);
+                t.scale(-1.0, 1.0);
+                break;
+            case 6: // rotate 90 clockwise
+                t.translate(height, 0);
+                t.rotate(Math.PI / 2);
+                break;
+            case 7: // transverse
+                t.scale(-1.0, 1.0);
+                t.translate(-height, 0);
+                t.translate(0, width);
+                t.rotate(3 * Math.PI / 2);
+                break;
+            case 8: // rotate 90 counter-clockwise
+                t.translate(0, width);
+                t.rotate(3 * Math.PI / 2);
+                break;
+            default:
+                break;
+        }
+        return t;
+    }
+    
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        BufferedImage rgb = image;
+        if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = rgb.createGraphics();
+            try {
+                g.drawImage(image, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+        }
+        
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            if (param instanceof JPEGImageWriteParam jpegParam) {
+                jpegParam.setOptimizeHuffmanTables(true);
+            }
+            writer.setOutput(ios);
+            // No metadata passed: only a bare JFIF header is written
+            writer.write(null, new IIOImage(rgb, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+    
+    private void record(String outcome, long originalSize, long storedSize) {
+        bytesOut.increment(storedSize);
+        if (originalSize > storedSize) {
+            bytesSaved.increment(originalSize - storedSize);
+        }
+        meterRegistry.counter("images.processing.uploads", "outcome", outcome).increment();
+    }
+    
+    /**
+     * Result of upload processing: either bytes in memory or the re-readable upload itself
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class ProcessedImage {
+        private final byte[] data; // null when streamed from the source
+        private final InputStreamSource source;
+        private final long size;
+        private final String contentType;
+        private final String fileName;
+        private final long originalSize;
+        
+        public static ProcessedImage inMemory(byte[] data, String contentType, String fileName, long originalSize) {
+            return new ProcessedImage(data, null, data.length, contentType, fileName, originalSize);
+        }
+        
+        public static ProcessedImage streamed(InputStreamSource source, long size, String contentType,
+                                              String fileName) {
+            return new ProcessedImage(null, source, size, contentType, fileName, size);
+        }
+        
+        public boolean isInMemory() {
+            return data != null;
+        }
+        
+        public InputStream openStream() throws IOException {
+            return data != null ? new ByteArrayInputStream(data) : source.getInputStream();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.quickgas.service;
+
+import com.quickgas.config.ImageRetentionProperties;
+import com.quickgas.entity.ImageEntity;
+import com.quickgas.repository.ImageBlobRepository;
+import com.quickgas.repository.ImageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scheduled purge of images past their type's retention age. Rows are removed in
+ * small keyset-paginated batches, each in its own short transaction with a pause
+ * in between, so the job never holds long locks or competes with live traffic.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ImageRetentionService {
+    
+    private static final LocalDateTime KEYSET_START = LocalDateTime.of(1970, 1, 1, 0, 0);
+    
+    private final ImageRetentionProperties properties;
+    private final ImageRepository imageRepository;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageCache imageCache;
+    private final ImageFileStore imageFileStore;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    
+    private final AtomicBoolean running = new AtomicBoolean();
+    
+    @Scheduled(cron = "${images.retention.cron:0 30 3 * * *}")
+    public void applyRetention() {
+        if (!properties.isEnabled() || properties.getPolicies().isEmpty()) {
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            log.warn("Image retention already running, skipping");
+            return;
+        }
+        
+        try {
+            int batchBudget = properties.getMaxBatchesPerRun();
+            for (Map.Entry<String, ImageRetentionProperties.Policy> entry : properties.getPolicies().entrySet()) {
+                if (batchBudget <= 0) {
+                    log.info("Image retention batch limit reached, remaining images are left for the next run");
+                    break;
+                }
+                if (entry.getValue().getMaxAge() == null) {
+                    log.warn("Image retention policy without max-age ignored: imageType={}", entry.getKey());
+                    continue;
+                }
+                batchBudget -= purgeType(entry.getKey(), entry.getValue(), batchBudget);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Image retention interrupted");
+        } catch (Exception e) {
+            log.error("Image retention failed: {}", e.getMessage(), e);
+        } finally {
+            running.set(false);
+        }
+    }
+    
+    /**
+     * @return number of batches processed
+     */
+    private int purgeType(String imageType, ImageRetentionProperties.Policy policy, int batchBudget)
+            throws InterruptedException {
+        LocalDateTime cutoff = LocalDateTime.now().minus(policy.getMaxAge());
+        String action = policy.getAction().name().toLowerCase();
+        int batchSize = properties.getBatchSize();
+        
+        LocalDateTime afterCreatedAt = KEYSET_START;
+        String afterId = "";
+        int batches = 0;
+        long processed = 0;
+        
+        while (batches < batchBudget) {
+            List<ImageEntity> batch = imageRepository.findExpiredAfter(
+                imageType, cutoff, afterCreatedAt, afterId, batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+            
+            ImageEntity last = batch.get(batch.size() - 1);
+            afterCreatedAt = last.getCreatedAt();
+            afterId = last.getId();
+            
+            List<String> unreferenced = transactionTemplate.execute(status -> applyBatch(policy, batch));
+            
+            // Bytes of deleted images must not outlive the rows
+            batch.forEach(image -> imageCache.invalidate(image.getId()));
+            if (imageFileStore.isEnabled()) {
+                unreferenced.forEach(imageFileStore::delete);
+            }
+            
+            batches++;
+            processed += batch.size();
+            meterRegistry.counter("images.retention.images", "image_type", imageType, "action", action)
+                .increment(batch.size());
+            meterRegistry.counter("images.retention.blobs.deleted").increment(unreferenced.size());
+            meterRegistry.counter("images.retention.batches", "image_type", imageType).increment();
+            log.debug("Image retention batch: imageType={}, action={}, batch={}, processed={}",
+                imageType, action, batches, processed);
+            
+            if (batch.size() < batchSize) {
+                break;
+            }
+            Thread.sleep(properties.getPauseBetweenBatches().toMillis());
+        }
+        
+        if (processed > 0) {
+            log.info("Image retention applied: imageType={}, action={}, cutoff={}, images={}, batches={}",
+                imageType, action, cutoff, processed, batches);
+        }
+        return batches;
+    }
+    
+    /**
+     * Archive or delete one batch.
+     * @return content hashes whose blobs were removed because nothing references them any more
+     */
+    private List<String> applyBatch(ImageRetentionProperties.Policy policy, List<ImageEntity> batch) {
+        List<String> ids = batch.stream().map(ImageEntity::getId).toList();
+        
+        if (policy.getAction() == ImageRetentionProperties.Action.ARCHIVE) {
+            // The archive row takes over the blob reference (V21 triggers), but nothing reads it back
+            imageRepository.archiveByIds(ids);
+            imageRepository.deleteByIds(ids);
+            return List.of();
+        }
+        
+        // The delete trigger releases blob references; only rows this statement removed can have freed one
+        List<String> deletedHashes = imageRepository.deleteByIdsReturningHashes(ids).stream().distinct().toList();
+        if (deletedHashes.isEmpty()) {
+            return List.of();
+        }
+        List<String> unreferenced = new ArrayList<>(deletedHashes);
+        unreferenced.removeAll(imageBlobRepository.findExistingHashes(deletedHashes));
+        return unreferenced;
+    }
+}
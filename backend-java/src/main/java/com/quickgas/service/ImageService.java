@@ -2,18 +2,41 @@ package com.quickgas.service;
 
 import com.quickgas.dto.ImageResponse;
 import com.quickgas.entity.ImageEntity;
+import com.quickgas.exception.ValidationException;
+import com.quickgas.repository.ImageBlobRepository;
 import com.quickgas.repository.ImageRepository;
+import com.quickgas.util.Hashing;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -21,7 +44,19 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class ImageService {
     
+    private static final String INSERT_BLOB_SQL =
+        "INSERT INTO image_blobs (content_hash, data, size, ref_count, created_at) " +
+        "VALUES (?, ?, ?, 1, CURRENT_TIMESTAMP) " +
+        "ON CONFLICT (content_hash) DO UPDATE SET ref_count = image_blobs.ref_count + 1";
+    
     private final ImageRepository imageRepository;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageProcessingService imageProcessingService;
+    private final ImageCache imageCache;
+    private final ImageFileStore imageFileStore;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskExecutor imageProcessingExecutor;
+    private final JdbcTemplate jdbcTemplate;
     
     @Value("${server.port:8080}")
     private int serverPort;
@@ -32,50 +67,240 @@ public class ImageService {
     @Value("${server.base-url:}")
     private String baseUrl;
     
-    @Transactional
-    public ImageResponse uploadImage(String orderId, String imageType, MultipartFile file) 
+    @Value("${images.upload.max-file-bytes:10485760}")
+    private long maxFileBytes;
+    
+    @Value("${images.upload.max-batch-files:10}")
+    private int maxBatchFiles;
+    
+    public ImageResponse uploadImage(String orderId, String imageType, MultipartFile file)
+            throws IOException {
+        // Hash the upload as it streams in; identical retries resolve to the same row
+        String contentHash = sha256(file);
+        
+        return storeUpload(orderId, imageType, file, file.getSize(),
+            file.getContentType(), file.getOriginalFilename(), contentHash);
+    }
+    
+    /**
+     * Store an upload whose SHA-256 is already known. The source must be re-readable
+     * (it is opened again by the processing stage).
+     */
+    public ImageResponse storeUpload(String orderId, String imageType, InputStreamSource source, long size,
+                                     String contentType, String fileName, String contentHash)
+            throws IOException {
+        Optional<ImageEntity> existing = imageRepository
+            .findByOrderIdAndImageTypeAndContentHash(orderId, imageType, contentHash);
+        if (existing.isPresent()) {
+            log.info("Duplicate image upload ignored: orderId={}, imageType={}, imageId={}",
+                orderId, imageType, existing.get().getId());
+            return toResponse(existing.get());
+        }
+        
+        // Resize, recompress and strip metadata before storing
+        ImageProcessingService.ProcessedImage processed = imageProcessingService.process(
+            source, size, contentType, fileName);
+        
+        return toResponse(storeOne(orderId, imageType, contentHash, processed));
+    }
+    
+    /**
+     * Upload several images for one order in a single request. Validation, hashing and
+     * processing run in parallel; all new rows are then written in one transaction
+     * with batched inserts. Responses are returned in the order of the input files.
+     */
+    public List<ImageResponse> uploadImages(String orderId, String imageType, List<MultipartFile> files)
             throws IOException {
-        // Generate unique ID for image
-        String imageId = UUID.randomUUID().toString();
+        if (files.size() > maxBatchFiles) {
+            throw new ValidationException("At most " + maxBatchFiles + " files can be uploaded at once");
+        }
+        
+        List<CompletableFuture<String>> hashing = new ArrayList<>();
+        for (MultipartFile file : files) {
+            hashing.add(CompletableFuture.supplyAsync(() -> {
+                validateImageFile(file);
+                return sha256Unchecked(file);
+            }, imageProcessingExecutor));
+        }
+        List<String> hashes = new ArrayList<>();
+        for (CompletableFuture<String> future : hashing) {
+            hashes.add(await(future));
+        }
+        
+        // Retried batches resolve to the rows stored the first time
+        Map<String, ImageEntity> existing = new HashMap<>();
+        imageRepository.findByOrderIdAndImageTypeAndContentHashIn(orderId, imageType, new HashSet<>(hashes))
+            .forEach(image -> existing.put(image.getContentHash(), image));
+        
+        // Process each distinct new content once
+        Map<String, CompletableFuture<ImageProcessingService.ProcessedImage>> processing = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            String hash = hashes.get(i);
+            if (!existing.containsKey(hash)) {
+                processing.computeIfAbsent(hash, h -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return imageProcessingService.process(
+                            file, file.getSize(), file.getContentType(), file.getOriginalFilename());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, imageProcessingExecutor));
+            }
+        }
+        Map<String, ImageProcessingService.ProcessedImage> processed = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<ImageProcessingService.ProcessedImage>> entry : processing.entrySet()) {
+            processed.put(entry.getKey(), await(entry.getValue()));
+        }
         
-        // Read file data
-        byte[] imageData = file.getBytes();
+        Map<String, ImageEntity> stored = processed.isEmpty()
+            ? Map.of()
+            : storeBatch(orderId, imageType, processed);
         
-        // Create image entity
-        ImageEntity imageEntity = ImageEntity.builder()
-            .id(imageId)
+        List<ImageResponse> responses = new ArrayList<>();
+        for (String hash : hashes) {
+            ImageEntity image = existing.containsKey(hash) ? existing.get(hash) : stored.get(hash);
+            responses.add(toResponse(image));
+        }
+        log.info("Batch image upload: orderId={}, files={}, stored={}, duplicates={}",
+            orderId, files.size(), stored.size(), files.size() - processed.size());
+        return responses;
+    }
+    
+    private Map<String, ImageEntity> storeBatch(String orderId, String imageType,
+                                                Map<String, ImageProcessingService.ProcessedImage> processed) {
+        Map<String, ImageEntity> stored = new LinkedHashMap<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<ImageEntity> entities = new ArrayList<>();
+                processed.forEach((hash, image) -> {
+                    referenceBlob(hash, image);
+                    entities.add(newImageEntity(orderId, imageType, hash, image));
+                });
+                imageRepository.saveAll(entities);
+                imageRepository.flush();
+                entities.forEach(entity -> stored.put(entity.getContentHash(), entity));
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Part of the batch was stored concurrently by a retry; fall back to one row at a time
+            log.info("Batch image insert conflicted, storing individually: orderId={}", orderId);
+            stored.clear();
+            processed.forEach((hash, image) -> stored.put(hash, storeOne(orderId, imageType, hash, image)));
+            return stored;
+        }
+        
+        stored.forEach((hash, entity) -> onStored(entity, processed.get(hash)));
+        return stored;
+    }
+    
+    private ImageEntity storeOne(String orderId, String imageType, String contentHash,
+                                 ImageProcessingService.ProcessedImage processed) {
+        ImageEntity imageEntity;
+        try {
+            imageEntity = transactionTemplate.execute(status ->
+                storeImage(orderId, imageType, contentHash, processed));
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent retry of the same upload committed first
+            imageEntity = imageRepository
+                .findByOrderIdAndImageTypeAndContentHash(orderId, imageType, contentHash)
+                .orElseThrow(() -> e);
+            log.info("Concurrent duplicate image upload resolved: orderId={}, imageId={}",
+                orderId, imageEntity.getId());
+            return imageEntity;
+        }
+        
+        onStored(imageEntity, processed);
+        return imageEntity;
+    }
+    
+    private void onStored(ImageEntity image, ImageProcessingService.ProcessedImage processed) {
+        if (processed.isInMemory()) {
+            // Freshly uploaded photos are read repeatedly in the next few minutes
+            imageCache.put(image, processed.getData());
+        }
+        
+        if (imageFileStore.isEnabled()) {
+            try {
+                imageFileStore.write(image.getContentHash(), processed::openStream);
+            } catch (IOException e) {
+                // Written lazily on first read instead
+                log.warn("Failed to mirror image to file store: imageId={}, error={}",
+                    image.getId(), e.getMessage());
+            }
+        }
+    }
+    
+    private ImageEntity storeImage(String orderId, String imageType, String contentHash,
+                                   ImageProcessingService.ProcessedImage processed) {
+        referenceBlob(contentHash, processed);
+        return imageRepository.saveAndFlush(newImageEntity(orderId, imageType, contentHash, processed));
+    }
+    
+    private void referenceBlob(String contentHash, ImageProcessingService.ProcessedImage processed) {
+        // Store the bytes only if no other image already references this content
+        if (imageBlobRepository.incrementRefCount(contentHash) == 0) {
+            insertBlob(contentHash, processed);
+        }
+    }
+    
+    /**
+     * Insert the blob, or reference it if a concurrent upload inserted it first. The bytes are
+     * streamed to Postgres from the processed image, so an upload passed through unchanged is
+     * never held in memory as a whole.
+     */
+    private void insertBlob(String contentHash, ImageProcessingService.ProcessedImage processed) {
+        try (InputStream in = processed.openStream()) {
+            jdbcTemplate.update(INSERT_BLOB_SQL, ps -> {
+                ps.setString(1, contentHash);
+                ps.setBinaryStream(2, in, processed.getSize());
+                ps.setLong(3, processed.getSize());
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private ImageEntity newImageEntity(String orderId, String imageType, String contentHash,
+                                       ImageProcessingService.ProcessedImage processed) {
+        return ImageEntity.builder()
+            .id(UUID.randomUUID().toString())
             .orderId(orderId)
             .imageType(imageType)
-            .fileName(file.getOriginalFilename())
-            .contentType(file.getContentType())
-            .fileSize(file.getSize())
-            .imageData(imageData)
+            .fileName(processed.getFileName())
+            .contentType(processed.getContentType())
+            .fileSize(processed.getSize())
+            .contentHash(contentHash)
             .createdAt(LocalDateTime.now())
             .updatedAt(LocalDateTime.now())
             .build();
-        
-        // Save to database
-        imageEntity = imageRepository.save(imageEntity);
-        
-        // Build response with URL
-        String imageUrl;
-        if (baseUrl != null && !baseUrl.isEmpty()) {
-            imageUrl = String.format("%s/api/images/%s", baseUrl, imageId);
-        } else {
-            imageUrl = String.format("http://%s:%d/api/images/%s", 
-                serverAddress, serverPort, imageId);
+    }
+    
+    private void validateImageFile(MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new ValidationException("File is empty: " + file.getOriginalFilename());
+        }
+        String contentType = file.getContentType();
+        if (contentType == null || !contentType.startsWith("image/")) {
+            throw new ValidationException("File must be an image: " + file.getOriginalFilename());
+        }
+        if (file.getSize() > maxFileBytes) {
+            throw new ValidationException("File size exceeds " + (maxFileBytes / (1024 * 1024))
+                + "MB limit: " + file.getOriginalFilename());
+        }
+    }
+    
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
         }
-        
-        return ImageResponse.builder()
-            .id(imageEntity.getId())
-            .orderId(imageEntity.getOrderId())
-            .imageType(imageEntity.getImageType())
-            .fileName(imageEntity.getFileName())
-            .contentType(imageEntity.getContentType())
-            .fileSize(imageEntity.getFileSize())
-            .url(imageUrl)
-            .createdAt(imageEntity.getCreatedAt().toString())
-            .build();
     }
     
     public ImageEntity getImage(String imageId) {
@@ -83,51 +308,76 @@ public class ImageService {
             .orElseThrow(() -> new RuntimeException("Image not found: " + imageId));
     }
     
+    /**
+     * Load image metadata and bytes, served from the in-memory cache when possible
+     */
+    public ImageCache.CachedImage loadImage(String imageId) {
+        return imageCache.get(imageId, id -> {
+            ImageEntity image = getImage(id);
+            return new ImageCache.CachedImage(image, getImageData(image));
+        });
+    }
+    
+    public boolean isAccelRedirectEnabled() {
+        return imageFileStore.isEnabled();
+    }
+    
+    /**
+     * Internal nginx location for the image bytes, mirroring the blob to the
+     * file store first if this content has not been served from disk yet
+     */
+    public String getAccelRedirectPath(ImageEntity image) throws IOException {
+        return imageFileStore.ensureStored(image.getContentHash(), () -> getImageData(image));
+    }
+    
+    public byte[] getImageData(ImageEntity image) {
+        return imageBlobRepository.findById(image.getContentHash())
+            .orElseThrow(() -> new RuntimeException("Image data not found: " + image.getId()))
+            .getData();
+    }
+    
     public List<ImageResponse> getImagesByOrder(String orderId) {
-        List<ImageEntity> images = imageRepository.findByOrderId(orderId);
-        
-        return images.stream()
-            .map(image -> {
-                String imageUrl;
-                if (baseUrl != null && !baseUrl.isEmpty()) {
-                    imageUrl = String.format("%s/api/images/%s", baseUrl, image.getId());
-                } else {
-                    imageUrl = String.format("http://%s:%d/api/images/%s", 
-                        serverAddress, serverPort, image.getId());
-                }
-                
-                return ImageResponse.builder()
-                    .id(image.getId())
-                    .orderId(image.getOrderId())
-                    .imageType(image.getImageType())
-                    .fileName(image.getFileName())
-                    .contentType(image.getContentType())
-                    .fileSize(image.getFileSize())
-                    .url(imageUrl)
-                    .createdAt(image.getCreatedAt().toString())
-                    .build();
-            })
+        return imageRepository.findByOrderId(orderId).stream()
+            .map(this::toResponse)
             .collect(Collectors.toList());
     }
     
     @Transactional
     public void deleteImage(String imageId) {
-        if (!imageRepository.existsById(imageId)) {
-            throw new RuntimeException("Image not found: " + imageId);
+        ImageEntity image = imageRepository.findById(imageId)
+            .orElseThrow(() -> new RuntimeException("Image not found: " + imageId));
+        
+        imageRepository.delete(image);
+        imageRepository.flush();
+        
+        // Invalidate now and again after commit so a concurrent read cannot re-cache the row
+        imageCache.invalidate(imageId);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                imageCache.invalidate(imageId);
+            }
+        });
+        
+        // The delete trigger released the blob reference and removed the blob if it was the last one
+        if (!imageBlobRepository.existsById(image.getContentHash())) {
+            log.info("Deleted unreferenced image blob: contentHash={}", image.getContentHash());
+            if (imageFileStore.isEnabled()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        imageFileStore.delete(image.getContentHash());
+                    }
+                });
+            }
         }
-        imageRepository.deleteById(imageId);
     }
     
     public ImageResponse getImageResponse(String imageId) {
-        ImageEntity image = getImage(imageId);
-        String imageUrl;
-        if (baseUrl != null && !baseUrl.isEmpty()) {
-            imageUrl = String.format("%s/api/images/%s", baseUrl, image.getId());
-        } else {
-            imageUrl = String.format("http://%s:%d/api/images/%s", 
-                serverAddress, serverPort, image.getId());
-        }
-        
+        return toResponse(getImage(imageId));
+    }
+    
+    private ImageResponse toResponse(ImageEntity image) {
         return ImageResponse.builder()
             .id(image.getId())
             .orderId(image.getOrderId())
@@ -135,9 +385,31 @@ public class ImageService {
             .fileName(image.getFileName())
             .contentType(image.getContentType())
             .fileSize(image.getFileSize())
-            .url(imageUrl)
+            .url(buildImageUrl(image.getId()))
             .createdAt(image.getCreatedAt().toString())
             .build();
     }
+    
+    private String buildImageUrl(String imageId) {
+        if (baseUrl != null && !baseUrl.isEmpty()) {
+            return String.format("%s/api/images/%s", baseUrl, imageId);
+        }
+        return String.format("http://%s:%d/api/images/%s", serverAddress, serverPort, imageId);
+    }
+    
+    private static String sha256Unchecked(InputStreamSource source) {
+        try {
+            return sha256(source);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    static String sha256(InputStreamSource source) throws IOException {
+        MessageDigest digest = Hashing.newSha256();
+        try (InputStream in = new DigestInputStream(source.getInputStream(), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return Hashing.toHex(digest);
+    }
 }
-
@@ -0,0 +1,339 @@
+package com.quickgas.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.quickgas.dto.ImageResponse;
+import com.quickgas.entity.ImageUploadChunk;
+import com.quickgas.entity.ImageUploadSession;
+import com.quickgas.exception.ValidationException;
+import com.quickgas.repository.ImageUploadChunkRepository;
+import com.quickgas.repository.ImageUploadSessionRepository;
+import com.quickgas.util.Hashing;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Resumable chunked image uploads: initiate, append chunks at explicit offsets, complete.
+ * Chunks are written to Postgres as they arrive (bounded by max-chunk-bytes each), so a
+ * dropped connection only loses the chunk in flight and any instance can continue the upload.
+ */
+@Slf4j
+@Service
+public class ImageUploadSessionService {
+    
+    private static final String STATUS_UPLOADING = "uploading";
+    private static final String STATUS_COMPLETED = "completed";
+    
+    private final ImageUploadSessionRepository sessionRepository;
+    private final ImageUploadChunkRepository chunkRepository;
+    private final ImageService imageService;
+    private final TransactionTemplate transactionTemplate;
+    
+    // Running SHA-256 per session so completion does not have to re-read every chunk
+    private final Cache<String, RunningDigest> digests;
+    
+    @Value("${images.upload.max-file-bytes:10485760}")
+    private long maxFileBytes;
+    
+    @Value("${images.upload.max-chunk-bytes:1048576}")
+    private int maxChunkBytes;
+    
+    @Value("${images.upload.session-ttl:PT24H}")
+    private Duration sessionTtl;
+    
+    public ImageUploadSessionService(
+            ImageUploadSessionRepository sessionRepository,
+            ImageUploadChunkRepository chunkRepository,
+            ImageService imageService,
+            TransactionTemplate transactionTemplate) {
+        this.sessionRepository = sessionRepository;
+        this.chunkRepository = chunkRepository;
+        this.imageService = imageService;
+        this.transactionTemplate = transactionTemplate;
+        this.digests = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterAccess(Duration.ofHours(1))
+            .build();
+    }
+    
+    public ImageUploadSession initiate(String orderId, String imageType, String fileName,
+                                       String contentType, long totalSize, String expectedHash) {
+        if (contentType == null || !contentType.startsWith("image/")) {
+            throw new ValidationException("File must be an image");
+        }
+        if (totalSize <= 0) {
+            throw new ValidationException("File is empty");
+        }
+        if (totalSize > maxFileBytes) {
+            throw new ValidationException("File size exceeds " + (maxFileBytes / (1024 * 1024)) + "MB limit");
+        }
+        
+        ImageUploadSession session = ImageUploadSession.builder()
+            .id(UUID.randomUUID().toString())
+            .orderId(orderId)
+            .imageType(imageType)
+            .fileName(fileName != null ? fileName : "upload")
+            .contentType(contentType)
+            .totalSize(totalSize)
+            .receivedBytes(0L)
+            .expectedHash(expectedHash != null ? expectedHash.toLowerCase() : null)
+            .status(STATUS_UPLOADING)
+            .expiresAt(LocalDateTime.now().plus(sessionTtl))
+            .build();
+        
+        session = sessionRepository.save(session);
+        digests.put(session.getId(), new RunningDigest());
+        log.info("Image upload session created: uploadId={}, orderId={}, totalSize={}",
+            session.getId(), orderId, totalSize);
+        return session;
+    }
+    
+    public ImageUploadSession getSession(String uploadId) {
+        return sessionRepository.findById(uploadId)
+            .orElseThrow(() -> new IllegalArgumentException("Upload session not found: " + uploadId));
+    }
+    
+    public int getMaxChunkBytes() {
+        return maxChunkBytes;
+    }
+    
+    /**
+     * Append a chunk starting at {@code offset}. The offset must equal the number of bytes
+     * already received; otherwise an {@link OffsetMismatchException} tells the client where to resume.
+     * @return the new received offset
+     */
+    public long appendChunk(String uploadId, long offset, InputStream body) throws IOException {
+        ImageUploadSession session = getSession(uploadId);
+        if (!STATUS_UPLOADING.equals(session.getStatus())) {
+            throw new IllegalStateException("Upload session is " + session.getStatus());
+        }
+        checkNotExpired(session);
+        if (offset != session.getReceivedBytes()) {
+            throw new OffsetMismatchException(session.getReceivedBytes());
+        }
+        
+        // Only one chunk is ever held in memory, never the whole file
+        byte[] chunk = body.readNBytes(maxChunkBytes + 1);
+        if (chunk.length == 0) {
+            throw new ValidationException("Chunk is empty");
+        }
+        if (chunk.length > maxChunkBytes) {
+            throw new ValidationException("Chunk exceeds " + maxChunkBytes + " bytes");
+        }
+        if (offset + chunk.length > session.getTotalSize()) {
+            throw new ValidationException("Chunk extends past declared file size");
+        }
+        
+        transactionTemplate.executeWithoutResult(status -> {
+            if (sessionRepository.advanceOffset(uploadId, offset, chunk.length) == 0) {
+                // Another request appended at this offset first
+                throw new OffsetMismatchException(getSession(uploadId).getReceivedBytes());
+            }
+            chunkRepository.save(ImageUploadChunk.builder()
+                .uploadId(uploadId)
+                .chunkOffset(offset)
+                .size(chunk.length)
+                .data(chunk)
+                .build());
+        });
+        
+        RunningDigest digest = digests.getIfPresent(uploadId);
+        if (digest != null) {
+            digest.update(offset, chunk);
+        }
+        
+        return offset + chunk.length;
+    }
+    
+    /**
+     * Verify the upload is complete and hand it to the regular image pipeline.
+     * Completing an already-completed session returns the same image.
+     */
+    public ImageResponse complete(String uploadId) throws IOException {
+        ImageUploadSession session = getSession(uploadId);
+        if (STATUS_COMPLETED.equals(session.getStatus())) {
+            return imageService.getImageResponse(session.getImageId());
+        }
+        checkNotExpired(session);
+        if (!session.getReceivedBytes().equals(session.getTotalSize())) {
+            throw new IllegalStateException("Upload incomplete: received " + session.getReceivedBytes()
+                + " of " + session.getTotalSize() + " bytes");
+        }
+        
+        InputStreamSource source = () -> new ChunkInputStream(uploadId);
+        
+        RunningDigest digest = digests.getIfPresent(uploadId);
+        String contentHash = digest != null ? digest.hexIfAt(session.getTotalSize()) : null;
+        if (contentHash == null) {
+            // Chunks were received by another instance or before a restart
+            contentHash = ImageService.sha256(source);
+        }
+        
+        if (session.getExpectedHash() != null && !session.getExpectedHash().equals(contentHash)) {
+            throw new ValidationException("Uploaded content does not match expected SHA-256");
+        }
+        
+        ImageResponse response = imageService.storeUpload(session.getOrderId(), session.getImageType(),
+            source, session.getTotalSize(), session.getContentType(), session.getFileName(), contentHash);
+        
+        transactionTemplate.executeWithoutResult(status -> {
+            ImageUploadSession completed = getSession(uploadId);
+            completed.setStatus(STATUS_COMPLETED);
+            completed.setImageId(response.getId());
+            sessionRepository.save(completed);
+            chunkRepository.deleteByUploadId(uploadId);
+        });
+        digests.invalidate(uploadId);
+        
+        log.info("Image upload session completed: uploadId={}, imageId={}", uploadId, response.getId());
+        return response;
+    }
+    
+    private static void checkNotExpired(ImageUploadSession session) {
+        if (session.getExpiresAt().isBefore(LocalDateTime.now())) {
+            // The purge job may already be deleting its chunks
+            throw new IllegalStateException("Upload session expired at " + session.getExpiresAt());
+        }
+    }
+    
+    public void abort(String uploadId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            chunkRepository.deleteByUploadId(uploadId);
+            sessionRepository.deleteById(uploadId);
+        });
+        digests.invalidate(uploadId);
+        log.info("Image upload session aborted: uploadId={}", uploadId);
+    }
+    
+    /**
+     * Remove expired sessions along with any chunks. Uploads that never completed are abandoned;
+     * completed sessions are kept until then so a retried complete still returns the image.
+     */
+    @Scheduled(fixedDelayString = "${images.upload.purge-interval:PT15M}")
+    public void purgeExpiredSessions() {
+        List<ImageUploadSession> expired;
+        do {
+            expired = sessionRepository.findTop100ByExpiresAtBefore(LocalDateTime.now());
+            for (ImageUploadSession session : expired) {
+                try {
+                    abort(session.getId());
+                } catch (Exception e) {
+                    log.error("Failed to purge upload session: uploadId={}, error={}",
+                        session.getId(), e.getMessage());
+                    return;
+                }
+            }
+        } while (!expired.isEmpty());
+    }
+    
+    /**
+     * Streams the stored chunks back in offset order, one chunk in memory at a time
+     */
+    private class ChunkInputStream extends InputStream {
+        private final String uploadId;
+        private byte[] current = new byte[0];
+        private int position;
+        private long nextOffset;
+        private boolean exhausted;
+        
+        ChunkInputStream(String uploadId) {
+            this.uploadId = uploadId;
+        }
+        
+        private boolean fill() {
+            while (position >= current.length) {
+                if (exhausted) {
+                    return false;
+                }
+                var chunk = chunkRepository.findByUploadIdAndChunkOffset(uploadId, nextOffset);
+                if (chunk.isEmpty()) {
+                    exhausted = true;
+                    return false;
+                }
+                current = chunk.get().getData();
+                position = 0;
+                nextOffset += current.length;
+            }
+            return true;
+        }
+        
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+    
+    /**
+     * SHA-256 state for the bytes received so far on this instance
+     */
+    private static class RunningDigest {
+        private final MessageDigest digest = Hashing.newSha256();
+        private long offset;
+        private boolean broken;
+        
+        synchronized void update(long chunkOffset, byte[] chunk) {
+            if (broken || chunkOffset != offset) {
+                // A chunk was appended elsewhere; fall back to re-reading on completion
+                broken = true;
+                return;
+            }
+            digest.update(chunk);
+            offset += chunk.length;
+        }
+        
+        synchronized String hexIfAt(long totalSize) {
+            if (broken || offset != totalSize) {
+                return null;
+            }
+            try {
+                // Digest a copy so completion can be retried
+                return Hashing.toHex((MessageDigest) digest.clone());
+            } catch (CloneNotSupportedException e) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Thrown when a chunk does not start at the current received offset
+     */
+    @Getter
+    public static class OffsetMismatchException extends RuntimeException {
+        private final long expectedOffset;
+        
+        public OffsetMismatchException(long expectedOffset) {
+            super("Chunk offset mismatch, expected offset " + expectedOffset);
+            this.expectedOffset = expectedOffset;
+        }
+    }
+}
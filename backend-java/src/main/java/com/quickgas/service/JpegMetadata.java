@@ -0,0 +1,214 @@
+package com.quickgas.service;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Marker-level JPEG helpers that work on streams without decoding pixel data
+ */
+final class JpegMetadata {
+    
+    private static final int SOI = 0xD8;
+    private static final int SOS = 0xDA;
+    private static final int EOI = 0xD9;
+    private static final int APP0 = 0xE0;
+    private static final int APP1 = 0xE1;
+    private static final int APP2 = 0xE2;
+    private static final int APP14 = 0xEE;
+    private static final int APP15 = 0xEF;
+    private static final int COM = 0xFE;
+    
+    private static final int ORIENTATION_TAG = 0x0112;
+    
+    private JpegMetadata() {
+    }
+    
+    /**
+     * Read the EXIF orientation (1-8) from the APP1 segment.
+     * Returns 1 (normal) if the stream has no EXIF block or it cannot be parsed.
+     * Only the header segments are read; the stream is left positioned at the scan data.
+     */
+    static int readOrientation(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readUnsignedByte() != 0xFF || data.readUnsignedByte() != SOI) {
+            return 1;
+        }
+        
+        while (true) {
+            int marker = nextMarker(data);
+            if (marker == SOS || marker == EOI) {
+                return 1;
+            }
+            if (isStandalone(marker)) {
+                continue;
+            }
+            
+            int length = data.readUnsignedShort() - 2;
+            if (length < 0) {
+                return 1;
+            }
+            
+            if (marker == APP1) {
+                byte[] segment = new byte[length];
+                data.readFully(segment);
+                int orientation = parseExifOrientation(segment);
+                if (orientation > 0) {
+                    return orientation;
+                }
+            } else {
+                skipFully(data, length);
+            }
+        }
+    }
+    
+    /**
+     * Copy a JPEG stream while dropping EXIF/XMP (APP1), vendor APPn blocks and comments.
+     * JFIF (APP0), ICC profiles (APP2) and the Adobe colour transform block (APP14) are kept
+     * because decoders need them to render colours correctly. Scan data is copied verbatim.
+     */
+    static void stripMetadata(InputStream in, OutputStream out) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readUnsignedByte() != 0xFF || data.readUnsignedByte() != SOI) {
+            throw new IOException("Not a JPEG stream");
+        }
+        out.write(0xFF);
+        out.write(SOI);
+        
+        while (true) {
+            int marker = nextMarker(data);
+            if (isStandalone(marker)) {
+                out.write(0xFF);
+                out.write(marker);
+                if (marker == EOI) {
+                    return;
+                }
+                continue;
+            }
+            
+            int length = data.readUnsignedShort();
+            if (length < 2) {
+                throw new IOException("Corrupt JPEG segment length");
+            }
+            
+            if (isMetadata(marker)) {
+                skipFully(data, length - 2);
+                continue;
+            }
+            
+            out.write(0xFF);
+            out.write(marker);
+            out.write(length >> 8);
+            out.write(length & 0xFF);
+            copyFully(data, out, length - 2);
+            
+            if (marker == SOS) {
+                // Entropy-coded data and everything after it is copied as-is
+                data.transferTo(out);
+                return;
+            }
+        }
+    }
+    
+    private static boolean isMetadata(int marker) {
+        if (marker == COM) {
+            return true;
+        }
+        if (marker < APP0 || marker > APP15) {
+            return false;
+        }
+        return marker != APP0 && marker != APP2 && marker != APP14;
+    }
+    
+    private static boolean isStandalone(int marker) {
+        // TEM, RSTn, SOI and EOI carry no length field
+        return marker == 0x01 || (marker >= 0xD0 && marker <= 0xD9);
+    }
+    
+    private static int nextMarker(DataInputStream data) throws IOException {
+        int b = data.readUnsignedByte();
+        if (b != 0xFF) {
+            throw new IOException("Expected JPEG marker");
+        }
+        // Markers may be preceded by any number of 0xFF fill bytes
+        int marker;
+        do {
+            marker = data.readUnsignedByte();
+        } while (marker == 0xFF);
+        return marker;
+    }
+    
+    private static int parseExifOrientation(byte[] segment) {
+        // "Exif\0\0" followed by a TIFF header
+        if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x'
+                || segment[2] != 'i' || segment[3] != 'f') {
+            return -1;
+        }
+        int tiff = 6;
+        boolean littleEndian;
+        if (segment[tiff] == 'I' && segment[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (segment[tiff] == 'M' && segment[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return -1;
+        }
+        
+        long ifdOffset = readInt(segment, tiff + 4, littleEndian);
+        int ifd = tiff + (int) ifdOffset;
+        if (ifdOffset < 8 || ifd + 2 > segment.length) {
+            return -1;
+        }
+        
+        int entries = readShort(segment, ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > segment.length) {
+                return -1;
+            }
+            if (readShort(segment, entry, littleEndian) == ORIENTATION_TAG) {
+                int value = readShort(segment, entry + 8, littleEndian);
+                return value >= 1 && value <= 8 ? value : -1;
+            }
+        }
+        return -1;
+    }
+    
+    private static int readShort(byte[] b, int offset, boolean littleEndian) {
+        int b0 = b[offset] & 0xFF;
+        int b1 = b[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+    
+    private static long readInt(byte[] b, int offset, boolean littleEndian) {
+        long hi = readShort(b, littleEndian ? offset + 2 : offset, littleEndian);
+        long lo = readShort(b, littleEndian ? offset : offset + 2, littleEndian);
+        return (hi << 16) | lo;
+    }
+    
+    private static void skipFully(DataInputStream data, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = data.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException("Unexpected end of JPEG stream");
+            }
+            remaining -= skipped;
+        }
+    }
+    
+    private static void copyFully(DataInputStream data, OutputStream out, int length) throws IOException {
+        byte[] buffer = new byte[Math.min(length, 8192)];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = data.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of JPEG stream");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+}
@@ -1,17 +1,25 @@
 package com.quickgas.service;
 
+import com.google.api.core.ApiFuture;
 import com.google.firebase.messaging.FirebaseMessaging;
 import com.google.firebase.messaging.FirebaseMessagingException;
 import com.google.firebase.messaging.Message;
 import com.google.firebase.messaging.MulticastMessage;
 import com.quickgas.dto.BatchNotificationRequest;
 import com.quickgas.dto.NotificationRequest;
+import com.quickgas.resilience.DependencyGuard;
+import com.quickgas.resilience.DependencyGuards;
+import com.quickgas.resilience.DependencyUnavailableException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Service
@@ -20,6 +28,9 @@ public class NotificationService {
     @Autowired(required = false)
     private FirebaseMessaging firebaseMessaging;
     
+    @Autowired
+    private DependencyGuards dependencyGuards;
+    
     public NotificationService() {
         // Default constructor for Spring
     }
@@ -50,7 +61,9 @@ public class NotificationService {
             messageBuilder.putAllData(dataMap);
         }
         
-        return firebaseMessaging.send(messageBuilder.build());
+        Message message = messageBuilder.build();
+        DependencyGuard fcm = dependencyGuards.fcm();
+        return fcm.call(() -> await(firebaseMessaging.sendAsync(message), fcm));
     }
     
     public Map<String, Integer> sendBatchNotifications(BatchNotificationRequest request) 
@@ -76,7 +89,9 @@ public class NotificationService {
             messageBuilder.putAllData(dataMap);
         }
         
-        var response = firebaseMessaging.sendEachForMulticast(messageBuilder.build());
+        MulticastMessage message = messageBuilder.build();
+        DependencyGuard fcm = dependencyGuards.fcm();
+        var response = fcm.call(() -> await(firebaseMessaging.sendEachForMulticastAsync(message), fcm));
         
         Map<String, Integer> result = new HashMap<>();
         result.put("successCount", response.getSuccessCount());
@@ -84,5 +99,30 @@ public class NotificationService {
         
         return result;
     }
+    
+    /**
+     * Wait for an FCM call no longer than the fcm timeout or the request deadline, whichever is sooner
+     */
+    private static <T> T await(ApiFuture<T> future, DependencyGuard fcm) throws FirebaseMessagingException {
+        Duration timeout = fcm.effectiveTimeout();
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw DependencyUnavailableException.timeout(fcm.getName(), timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException("Interrupted while sending notification", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FirebaseMessagingException messagingException) {
+                throw messagingException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Notification sending failed", e.getCause());
+        }
+    }
 }
 
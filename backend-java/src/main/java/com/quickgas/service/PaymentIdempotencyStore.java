@@ -0,0 +1,208 @@
+package com.quickgas.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.quickgas.dto.PaymentIntentRequest;
+import com.quickgas.dto.PaymentIntentResponse;
+import com.quickgas.entity.PaymentIdempotencyKey;
+import com.quickgas.exception.PaymentException;
+import com.quickgas.exception.ValidationException;
+import com.quickgas.repository.PaymentIdempotencyKeyRepository;
+import com.quickgas.util.Hashing;
+import com.stripe.exception.StripeException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Server-side idempotency for createPaymentIntent, keyed by (userId, idempotencyKey).
+ * A retry is answered with the original response from a bounded in-memory tier or the
+ * payment_idempotency_keys table, without calling Stripe or re-running the security checks.
+ * Concurrent requests with the same key wait for the first one instead of racing it.
+ */
+@Slf4j
+@Component
+public class PaymentIdempotencyStore {
+    
+    private final PaymentIdempotencyKeyRepository repository;
+    private final MeterRegistry meterRegistry;
+    private final Cache<Key, StoredResponse> recent;
+    private final Map<Key, InFlight> inFlight = new ConcurrentHashMap<>();
+    
+    private final Duration ttl;
+    
+    @Value("${payments.idempotency.wait-timeout:PT30S}")
+    private Duration waitTimeout;
+    
+    public PaymentIdempotencyStore(
+            PaymentIdempotencyKeyRepository repository,
+            MeterRegistry meterRegistry,
+            @Value("${payments.idempotency.cache-size:10000}") long cacheSize,
+            @Value("${payments.idempotency.ttl:PT24H}") Duration ttl) {
+        this.repository = repository;
+        this.meterRegistry = meterRegistry;
+        this.ttl = ttl;
+        this.recent = Caffeine.newBuilder()
+            .maximumSize(cacheSize)
+            .expireAfterWrite(ttl)
+            .build();
+    }
+    
+    /**
+     * Return the stored response for this key, or run the action once and store its result.
+     * Failed actions are not stored, so the client can retry them.
+     */
+    public PaymentIntentResponse execute(String userId, String idempotencyKey, String fingerprint,
+                                         Action action) throws StripeException {
+        Key key = new Key(userId, idempotencyKey);
+        
+        StoredResponse stored = lookup(key);
+        if (stored != null) {
+            return replay(key, stored, fingerprint);
+        }
+        
+        InFlight mine = new InFlight(fingerprint, new CompletableFuture<>());
+        InFlight existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            meterRegistry.counter("payments.idempotency.requests", "result", "waited").increment();
+            return await(key, existing, fingerprint);
+        }
+        
+        try {
+            // The first request may have finished between the lookup and claiming the key
+            stored = lookup(key);
+            if (stored != null) {
+                mine.future().complete(stored.response());
+                return replay(key, stored, fingerprint);
+            }
+            
+            PaymentIntentResponse response = action.call();
+            store(key, fingerprint, response);
+            mine.future().complete(response);
+            meterRegistry.counter("payments.idempotency.requests", "result", "miss").increment();
+            return response;
+        } catch (StripeException | RuntimeException e) {
+            mine.future().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+    
+    /**
+     * Fingerprint of the parts of a request that must match when a key is reused
+     */
+    public static String fingerprint(PaymentIntentRequest request) {
+        StringBuilder canonical = new StringBuilder()
+            .append(request.getAmount() != null ? request.getAmount().stripTrailingZeros().toPlainString() : "").append('|')
+            .append(request.getCurrency() != null ? request.getCurrency().toLowerCase() : "").append('|');
+        if (request.getMetadata() != null) {
+            new TreeMap<>(request.getMetadata()).forEach((name, value) ->
+                canonical.append(name).append('=').append(value).append(';'));
+        }
+        return Hashing.sha256Hex(canonical.toString());
+    }
+    
+    @Scheduled(cron = "${payments.idempotency.purge-cron:0 45 4 * * *}")
+    public void purgeExpired() {
+        long purged = 0;
+        int deleted;
+        do {
+            deleted = repository.deleteExpired(LocalDateTime.now(), 1000);
+            purged += deleted;
+        } while (deleted > 0);
+        if (purged > 0) {
+            log.info("Purged expired payment idempotency keys: count={}", purged);
+        }
+    }
+    
+    private StoredResponse lookup(Key key) {
+        StoredResponse stored = recent.getIfPresent(key);
+        if (stored != null) {
+            meterRegistry.counter("payments.idempotency.requests", "result", "memory_hit").increment();
+            return stored;
+        }
+        
+        Optional<PaymentIdempotencyKey> row = repository.findByUserIdAndIdempotencyKeyAndExpiresAtAfter(
+            key.userId(), key.idempotencyKey(), LocalDateTime.now());
+        if (row.isEmpty()) {
+            return null;
+        }
+        stored = new StoredResponse(row.get().getRequestFingerprint(),
+            new PaymentIntentResponse(row.get().getClientSecret(), row.get().getPaymentIntentId()));
+        recent.put(key, stored);
+        meterRegistry.counter("payments.idempotency.requests", "result", "db_hit").increment();
+        return stored;
+    }
+    
+    private void store(Key key, String fingerprint, PaymentIntentResponse response) {
+        recent.put(key, new StoredResponse(fingerprint, response));
+        try {
+            repository.insertIfAbsent(key.userId(), key.idempotencyKey(), fingerprint,
+                response.getPaymentIntentId(), response.getClientSecret(), LocalDateTime.now().plus(ttl));
+        } catch (Exception e) {
+            // Stripe's own idempotency key still protects retries that reach another instance
+            log.error("Failed to persist idempotency key: userId={}, paymentIntentId={}, error={}",
+                key.userId(), response.getPaymentIntentId(), e.getMessage());
+        }
+    }
+    
+    private PaymentIntentResponse replay(Key key, StoredResponse stored, String fingerprint) {
+        if (!stored.fingerprint().equals(fingerprint)) {
+            throw new ValidationException("Idempotency key was already used with a different request");
+        }
+        log.info("Replaying payment intent for idempotency key: userId={}, paymentIntentId={}",
+            key.userId(), stored.response().getPaymentIntentId());
+        return stored.response();
+    }
+    
+    private PaymentIntentResponse await(Key key, InFlight first, String fingerprint) throws StripeException {
+        if (!first.fingerprint().equals(fingerprint)) {
+            throw new ValidationException("Idempotency key was already used with a different request");
+        }
+        try {
+            return first.future().get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentException("Interrupted while waiting for payment request with the same idempotency key");
+        } catch (TimeoutException e) {
+            throw new PaymentException("A payment request with this idempotency key is still in progress");
+        } catch (ExecutionException e) {
+            // Same outcome as the request we waited on
+            if (e.getCause() instanceof StripeException stripe) {
+                throw stripe;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new PaymentException("Payment request failed", e.getCause());
+        }
+    }
+    
+    @FunctionalInterface
+    public interface Action {
+        PaymentIntentResponse call() throws StripeException;
+    }
+    
+    private record Key(String userId, String idempotencyKey) {
+    }
+    
+    private record StoredResponse(String fingerprint, PaymentIntentResponse response) {
+    }
+    
+    private record InFlight(String fingerprint, CompletableFuture<PaymentIntentResponse> future) {
+    }
+}
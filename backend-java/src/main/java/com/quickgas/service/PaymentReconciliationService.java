@@ -0,0 +1,357 @@
+package com.quickgas.service;
+
+import com.quickgas.resilience.DependencyGuard;
+import com.quickgas.resilience.DependencyGuards;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Transfer;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.PaymentIntentListParams;
+import com.stripe.param.TransferListParams;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares payment_transactions and driver_payments with Stripe to catch drift left by
+ * missed webhooks. PaymentIntents and Transfers created in the window are streamed with
+ * Stripe auto-pagination (one page in memory at a time) and checked in fixed-size batches,
+ * each with a single indexed lookup of the matching rows, so memory stays constant however
+ * many objects the window holds. Drift is fixed in batches and counted in
+ * payments.reconciliation.mismatches.
+ *
+ * Set stripe.api-base to point the job at a local stub Stripe server.
+ */
+@Slf4j
+@Service
+public class PaymentReconciliationService {
+    
+    private static final String DRIVER_PAYMENT_ID_METADATA = "driverPaymentId";
+    private static final String TRANSFER_GROUP_PREFIX = "driver_payment_";
+    
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final PaymentService paymentService;
+    private final DriverPayoutBatchService driverPayoutBatchService;
+    private final DependencyGuards dependencyGuards;
+    private final MeterRegistry meterRegistry;
+    
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong lastSuccessEpochSeconds = new AtomicLong();
+    private final Timer runTimer;
+    
+    @Value("${payments.reconciliation.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${payments.reconciliation.window:P2D}")
+    private Duration window;
+    
+    @Value("${payments.reconciliation.settle-delay:PT15M}")
+    private Duration settleDelay;
+    
+    @Value("${payments.reconciliation.batch-size:500}")
+    private int batchSize;
+    
+    public PaymentReconciliationService(NamedParameterJdbcTemplate jdbcTemplate,
+                                        PaymentService paymentService,
+                                        DriverPayoutBatchService driverPayoutBatchService,
+                                        DependencyGuards dependencyGuards,
+                                        MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.paymentService = paymentService;
+        this.driverPayoutBatchService = driverPayoutBatchService;
+        this.dependencyGuards = dependencyGuards;
+        this.meterRegistry = meterRegistry;
+        this.runTimer = meterRegistry.timer("payments.reconciliation.duration");
+        meterRegistry.gauge("payments.reconciliation.last.success", lastSuccessEpochSeconds);
+    }
+    
+    @Scheduled(cron = "${payments.reconciliation.cron:0 15 4 * * *}")
+    public void scheduledRun() {
+        if (!enabled) {
+            return;
+        }
+        // Objects younger than the settle delay may still have a webhook in flight
+        Instant end = Instant.now().minus(settleDelay);
+        reconcile(end.minus(window), end);
+    }
+    
+    /**
+     * Reconcile Stripe objects created in [from, to)
+     * @return false if the run was skipped or failed
+     */
+    public boolean reconcile(Instant from, Instant to) {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("Payment reconciliation already running, skipping");
+            return false;
+        }
+        if (dependencyGuards.stripe().getState() == DependencyGuard.State.OPEN) {
+            log.warn("Stripe circuit is open, skipping payment reconciliation");
+            running.set(false);
+            return false;
+        }
+        
+        Timer.Sample sample = Timer.start();
+        try {
+            log.info("Payment reconciliation started: from={}, to={}", from, to);
+            long intents = reconcilePaymentIntents(from, to);
+            long transfers = reconcileTransfers(from, to);
+            lastSuccessEpochSeconds.set(Instant.now().getEpochSecond());
+            log.info("Payment reconciliation finished: paymentIntents={}, transfers={}", intents, transfers);
+            return true;
+        } catch (StripeException e) {
+            log.error("Payment reconciliation aborted by Stripe error: code={}, message={}", e.getCode(), e.getMessage());
+            return false;
+        } catch (Exception e) {
+            log.error("Payment reconciliation failed: {}", e.getMessage(), e);
+            return false;
+        } finally {
+            sample.stop(runTimer);
+            running.set(false);
+        }
+    }
+    
+    private long reconcilePaymentIntents(Instant from, Instant to) throws StripeException {
+        PaymentIntentListParams params = PaymentIntentListParams.builder()
+            .setCreated(PaymentIntentListParams.Created.builder()
+                .setGte(from.getEpochSecond())
+                .setLt(to.getEpochSecond())
+                .build())
+            .setLimit(100L)
+            .build();
+        
+        long checked = 0;
+        List<PaymentIntent> batch = new ArrayList<>(batchSize);
+        for (PaymentIntent intent : PaymentIntent.list(params, requestOptions()).autoPagingIterable()) {
+            batch.add(intent);
+            if (batch.size() >= batchSize) {
+                checked += comparePaymentIntents(batch);
+                batch.clear();
+            }
+        }
+        checked += comparePaymentIntents(batch);
+        return checked;
+    }
+    
+    private int comparePaymentIntents(List<PaymentIntent> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Map<String, String> localStatus = new HashMap<>();
+        jdbcTemplate.query(
+            "SELECT stripe_payment_intent_id, status FROM payment_transactions WHERE stripe_payment_intent_id IN (:ids)",
+            new MapSqlParameterSource("ids", batch.stream().map(PaymentIntent::getId).toList()),
+            rs -> {
+                localStatus.put(rs.getString(1), rs.getString(2));
+            });
+        
+        for (PaymentIntent intent : batch) {
+            String local = localStatus.get(intent.getId());
+            if (local == null) {
+                // Intents created without an order (or before transactions were recorded) have no row
+                if (intent.getMetadata() != null && intent.getMetadata().containsKey("orderId")) {
+                    mismatch("payment_missing_locally");
+                    log.warn("Stripe payment intent has no transaction row: paymentIntentId={}, orderId={}",
+                        intent.getId(), intent.getMetadata().get("orderId"));
+                }
+            } else if (!local.equals(intent.getStatus())) {
+                mismatch("payment_status");
+                log.info("Payment status drift: paymentIntentId={}, local={}, stripe={}",
+                    intent.getId(), local, intent.getStatus());
+                // Batched through the status writer like any other API-read status
+                paymentService.updateTransactionStatus(intent.getId(), intent.getStatus());
+            }
+        }
+        meterRegistry.counter("payments.reconciliation.checked", "type", "payment_intent").increment(batch.size());
+        return batch.size();
+    }
+    
+    private long reconcileTransfers(Instant from, Instant to) throws StripeException {
+        TransferListParams params = TransferListParams.builder()
+            .setCreated(TransferListParams.Created.builder()
+                .setGte(from.getEpochSecond())
+                .setLt(to.getEpochSecond())
+                .build())
+            .setLimit(100L)
+            .build();
+        
+        long checked = 0;
+        List<Transfer> batch = new ArrayList<>(batchSize);
+        for (Transfer transfer : Transfer.list(params, requestOptions()).autoPagingIterable()) {
+            batch.add(transfer);
+            if (batch.size() >= batchSize) {
+                checked += compareTransfers(batch);
+                batch.clear();
+            }
+        }
+        checked += compareTransfers(batch);
+        return checked;
+    }
+    
+    private int compareTransfers(List<Transfer> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Transfer> byPaymentId = new HashMap<>();
+        Map<Long, Transfer> byPayoutBatchId = new HashMap<>();
+        for (Transfer transfer : batch) {
+            Long payoutBatchId = metadataId(transfer, DriverPayoutBatchService.BATCH_METADATA_KEY);
+            if (payoutBatchId != null) {
+                byPayoutBatchId.put(payoutBatchId, transfer);
+                continue;
+            }
+            Long paymentId = driverPaymentId(transfer);
+            if (paymentId != null) {
+                byPaymentId.put(paymentId, transfer);
+            } else {
+                mismatch("transfer_unmatched");
+            }
+        }
+        comparePayoutBatches(byPayoutBatchId);
+        if (byPaymentId.isEmpty()) {
+            meterRegistry.counter("payments.reconciliation.checked", "type", "transfer").increment(batch.size());
+            return batch.size();
+        }
+        
+        Map<Long, String[]> local = new HashMap<>();
+        jdbcTemplate.query(
+            "SELECT id, status, stripe_transfer_id FROM driver_payments WHERE id IN (:ids)",
+            new MapSqlParameterSource("ids", byPaymentId.keySet()),
+            rs -> {
+                local.put(rs.getLong(1), new String[]{rs.getString(2), rs.getString(3)});
+            });
+        
+        List<MapSqlParameterSource> fixes = new ArrayList<>();
+        for (Map.Entry<Long, Transfer> entry : byPaymentId.entrySet()) {
+            Transfer transfer = entry.getValue();
+            String[] row = local.get(entry.getKey());
+            if (row == null) {
+                mismatch("payout_missing_locally");
+                continue;
+            }
+            boolean reversed = Boolean.TRUE.equals(transfer.getReversed());
+            if (!"paid".equals(row[0]) && !reversed) {
+                mismatch("payout_unpaid");
+                log.info("Driver payout drift: paymentId={}, local={}, transferId={}",
+                    entry.getKey(), row[0], transfer.getId());
+                fixes.add(new MapSqlParameterSource()
+                    .addValue("id", entry.getKey())
+                    .addValue("transferId", transfer.getId())
+                    .addValue("paidAt", Timestamp.from(Instant.ofEpochSecond(transfer.getCreated()))));
+            } else if ("paid".equals(row[0]) && reversed) {
+                // Needs a person: the driver was paid and the money taken back
+                mismatch("payout_reversed");
+                log.warn("Paid driver payout was reversed in Stripe: paymentId={}, transferId={}",
+                    entry.getKey(), transfer.getId());
+            }
+        }
+        
+        if (!fixes.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                "UPDATE driver_payments SET status = 'paid', stripe_transfer_id = :transferId, paid_at = :paidAt, " +
+                "updated_at = CURRENT_TIMESTAMP WHERE id = :id AND status <> 'paid'",
+                fixes.toArray(new MapSqlParameterSource[0]));
+        }
+        meterRegistry.counter("payments.reconciliation.checked", "type", "transfer").increment(batch.size());
+        return batch.size();
+    }
+    
+    /**
+     * One batched transfer pays many driver_payments rows, so it is compared against its batch.
+     * All batches of the page are read with one lookup.
+     */
+    private void comparePayoutBatches(Map<Long, Transfer> byPayoutBatchId) {
+        if (byPayoutBatchId.isEmpty()) {
+            return;
+        }
+        Map<Long, String> localStatus = new HashMap<>();
+        jdbcTemplate.query(
+            "SELECT id, status FROM driver_payout_batches WHERE id IN (:ids)",
+            new MapSqlParameterSource("ids", byPayoutBatchId.keySet()),
+            rs -> {
+                localStatus.put(rs.getLong(1), rs.getString(2));
+            });
+        
+        for (Map.Entry<Long, Transfer> entry : byPayoutBatchId.entrySet()) {
+            Long batchId = entry.getKey();
+            Transfer transfer = entry.getValue();
+            String status = localStatus.get(batchId);
+            boolean reversed = Boolean.TRUE.equals(transfer.getReversed());
+            if (status == null) {
+                mismatch("payout_batch_missing_locally");
+            } else if (!"paid".equals(status) && !reversed) {
+                mismatch("payout_batch_unpaid");
+                log.info("Payout batch drift: batchId={}, local={}, transferId={}", batchId, status, transfer.getId());
+                if ("transfer_pending".equals(status)) {
+                    driverPayoutBatchService.complete(batchId, transfer.getId(), LocalDateTime.ofInstant(
+                        Instant.ofEpochSecond(transfer.getCreated()), ZoneId.systemDefault()));
+                } else {
+                    // Released or failed locally but paid in Stripe. Only a definite rejection closes a
+                    // batch, so this needs a manual look: its payments may have been paid again since
+                    log.warn("Closed payout batch has a Stripe transfer: batchId={}, status={}, transferId={}",
+                        batchId, status, transfer.getId());
+                }
+            } else if ("paid".equals(status) && reversed) {
+                mismatch("payout_batch_reversed");
+                log.warn("Paid payout batch was reversed in Stripe: batchId={}, transferId={}", batchId, transfer.getId());
+            }
+        }
+    }
+    
+    private static Long metadataId(Transfer transfer, String key) {
+        String value = transfer.getMetadata() != null ? transfer.getMetadata().get(key) : null;
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private static Long driverPaymentId(Transfer transfer) {
+        String value = transfer.getMetadata() != null ? transfer.getMetadata().get(DRIVER_PAYMENT_ID_METADATA) : null;
+        if (value == null && transfer.getTransferGroup() != null
+                && transfer.getTransferGroup().startsWith(TRANSFER_GROUP_PREFIX)) {
+            value = transfer.getTransferGroup().substring(TRANSFER_GROUP_PREFIX.length());
+        }
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private RequestOptions requestOptions() {
+        return dependencyGuards.stripeRequestOptions().build();
+    }
+    
+    private void mismatch(String kind) {
+        Counter.builder("payments.reconciliation.mismatches")
+            .description("Differences found between local payment rows and Stripe")
+            .tag("kind", kind)
+            .register(meterRegistry)
+            .increment();
+    }
+}
@@ -0,0 +1,167 @@
+package com.quickgas.service;
+
+import com.quickgas.entity.DriverPayment;
+import com.quickgas.entity.DriverPayoutBatch;
+import com.quickgas.entity.PaymentTransaction;
+import com.quickgas.events.DomainEventBus;
+import com.quickgas.repository.DriverPaymentRepository;
+import com.quickgas.repository.DriverPayoutBatchRepository;
+import com.quickgas.repository.PaymentTransactionRepository;
+import com.quickgas.resilience.DependencyGuards;
+import com.quickgas.resilience.DependencyUnavailableException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.PaymentIntentSearchResult;
+import com.stripe.model.Transfer;
+import com.stripe.model.TransferCollection;
+import com.stripe.param.PaymentIntentSearchParams;
+import com.stripe.param.TransferListParams;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Settles rows left in an intermediate state when the process died between a Stripe
+ * call and the database write that follows it. Stripe is the source of truth: a payment
+ * transaction stuck in 'creating' is linked to the intent carrying its reference, and a
+ * driver payment (or payout batch) stuck in 'transfer_pending' is marked paid if its transfer exists.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PaymentRecoveryService {
+    
+    private final PaymentTransactionRepository paymentTransactionRepository;
+    private final DriverPaymentRepository driverPaymentRepository;
+    private final DriverPayoutBatchRepository driverPayoutBatchRepository;
+    private final DriverPayoutBatchService driverPayoutBatchService;
+    private final DependencyGuards dependencyGuards;
+    private final DomainEventBus eventBus;
+    
+    @Value("${payments.recovery.stuck-after:PT10M}")
+    private Duration stuckAfter;
+    
+    @Scheduled(fixedDelayString = "${payments.recovery.interval:PT5M}",
+               initialDelayString = "${payments.recovery.interval:PT5M}")
+    public void recover() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(stuckAfter);
+        recoverPaymentTransactions(cutoff);
+        recoverDriverPayouts(cutoff);
+        recoverPayoutBatches(cutoff);
+    }
+    
+    private void recoverPaymentTransactions(LocalDateTime cutoff) {
+        List<PaymentTransaction> stuck = paymentTransactionRepository
+            .findTop100ByStatusAndCreatedAtBefore(PaymentService.STATUS_CREATING, cutoff);
+        for (PaymentTransaction transaction : stuck) {
+            try {
+                Optional<PaymentIntent> intent = findIntentByReference(transaction.getReference());
+                if (intent.isPresent() && !linkedElsewhere(intent.get().getId(), transaction.getReference())) {
+                    paymentTransactionRepository.attachPaymentIntent(
+                        transaction.getReference(), intent.get().getId(), intent.get().getStatus());
+                    log.info("Recovered payment transaction: reference={}, paymentIntentId={}",
+                        transaction.getReference(), intent.get().getId());
+                } else {
+                    paymentTransactionRepository.markCreateFailed(transaction.getReference());
+                    log.info("Payment transaction never reached Stripe, marked create_failed: reference={}",
+                        transaction.getReference());
+                }
+            } catch (StripeException | DependencyUnavailableException e) {
+                log.warn("Payment transaction recovery deferred: reference={}, error={}",
+                    transaction.getReference(), e.getMessage());
+                return;
+            } catch (Exception e) {
+                log.error("Payment transaction recovery failed: reference={}", transaction.getReference(), e);
+            }
+        }
+    }
+    
+    private Optional<PaymentIntent> findIntentByReference(String reference) throws StripeException {
+        PaymentIntentSearchParams params = PaymentIntentSearchParams.builder()
+            .setQuery("metadata['" + PaymentService.REFERENCE_METADATA_KEY + "']:'" + reference + "'")
+            .setLimit(1L)
+            .build();
+        PaymentIntentSearchResult result = dependencyGuards.stripe().call(() -> PaymentIntent.search(params));
+        return result.getData().stream().findFirst();
+    }
+    
+    private boolean linkedElsewhere(String paymentIntentId, String reference) {
+        // A replayed idempotency key returns an intent another row already owns
+        return paymentTransactionRepository.findByStripePaymentIntentId(paymentIntentId)
+            .map(other -> !reference.equals(other.getReference()))
+            .orElse(false);
+    }
+    
+    private void recoverDriverPayouts(LocalDateTime cutoff) {
+        List<DriverPayment> stuck = driverPaymentRepository
+            .findTop100ByStatusAndPayoutBatchIdIsNullAndUpdatedAtBefore("transfer_pending", cutoff);
+        for (DriverPayment payment : stuck) {
+            try {
+                TransferListParams params = TransferListParams.builder()
+                    .setTransferGroup(DriverPaymentService.transferGroup(payment.getId()))
+                    .setLimit(1L)
+                    .build();
+                TransferCollection transfers = dependencyGuards.stripe().call(() -> Transfer.list(params));
+                if (!transfers.getData().isEmpty()) {
+                    Transfer transfer = transfers.getData().get(0);
+                    LocalDateTime paidAt = LocalDateTime.ofInstant(
+                        Instant.ofEpochSecond(transfer.getCreated()), ZoneId.systemDefault());
+                    driverPaymentRepository.markPaid(payment.getId(), transfer.getId(), paidAt);
+                    eventBus.publish(DriverPaymentService.payoutPaid(payment, transfer.getId()));
+                    log.info("Recovered driver payout: paymentId={}, transferId={}",
+                        payment.getId(), transfer.getId());
+                } else {
+                    // The next attempt uses a new idempotency key, so it cannot replay a stale failure
+                    driverPaymentRepository.releaseTransferPending(payment.getId());
+                    log.info("Driver payout never reached Stripe, returned to pending: paymentId={}",
+                        payment.getId());
+                }
+            } catch (StripeException | DependencyUnavailableException e) {
+                log.warn("Driver payout recovery deferred: paymentId={}, error={}",
+                    payment.getId(), e.getMessage());
+                return;
+            } catch (Exception e) {
+                log.error("Driver payout recovery failed: paymentId={}", payment.getId(), e);
+            }
+        }
+    }
+    
+    private void recoverPayoutBatches(LocalDateTime cutoff) {
+        List<DriverPayoutBatch> stuck = driverPayoutBatchRepository
+            .findTop100ByStatusAndUpdatedAtBefore("transfer_pending", cutoff);
+        for (DriverPayoutBatch batch : stuck) {
+            try {
+                TransferListParams params = TransferListParams.builder()
+                    .setTransferGroup(DriverPayoutBatchService.transferGroup(batch.getId()))
+                    .setLimit(1L)
+                    .build();
+                TransferCollection transfers = dependencyGuards.stripe().call(() -> Transfer.list(params));
+                if (!transfers.getData().isEmpty()) {
+                    Transfer transfer = transfers.getData().get(0);
+                    LocalDateTime paidAt = LocalDateTime.ofInstant(
+                        Instant.ofEpochSecond(transfer.getCreated()), ZoneId.systemDefault());
+                    driverPayoutBatchService.complete(batch.getId(), transfer.getId(), paidAt);
+                    log.info("Recovered payout batch: batchId={}, transferId={}", batch.getId(), transfer.getId());
+                } else {
+                    driverPayoutBatchService.release(batch.getId());
+                    log.info("Payout batch never reached Stripe, payments returned to pending: batchId={}",
+                        batch.getId());
+                }
+            } catch (StripeException | DependencyUnavailableException e) {
+                log.warn("Payout batch recovery deferred: batchId={}, error={}", batch.getId(), e.getMessage());
+                return;
+            } catch (Exception e) {
+                log.error("Payout batch recovery failed: batchId={}", batch.getId(), e);
+            }
+        }
+    }
+}
@@ -4,7 +4,10 @@ import com.quickgas.dto.PaymentIntentRequest;
 import com.quickgas.dto.PaymentIntentResponse;
 import com.quickgas.entity.PaymentTransaction;
 import com.quickgas.exception.ValidationException;
+import com.quickgas.money.Money;
 import com.quickgas.repository.PaymentTransactionRepository;
+import com.quickgas.resilience.DependencyGuards;
+import com.quickgas.resilience.DependencyUnavailableException;
 import com.quickgas.service.SecurityService;
 import com.stripe.Stripe;
 import com.stripe.exception.StripeException;
@@ -16,13 +19,13 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.annotation.PostConstruct;
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 @Slf4j
 @Service
@@ -32,8 +35,19 @@ public class PaymentService {
     @Value("${stripe.secret-key:}")
     private String stripeSecretKey;
     
+    @Value("${stripe.api-base:}")
+    private String stripeApiBase;
+    
     private final PaymentTransactionRepository paymentTransactionRepository;
     private final SecurityService securityService;
+    private final PaymentStatusWriter paymentStatusWriter;
+    private final PaymentIdempotencyStore idempotencyStore;
+    private final DependencyGuards dependencyGuards;
+    private final PaymentStatusCache paymentStatusCache;
+    private final PaymentStatusService paymentStatusService;
+    
+    static final String STATUS_CREATING = "creating";
+    static final String REFERENCE_METADATA_KEY = "transaction_reference";
     
     // Supported currencies (ISO 4217 codes)
     private static final Set<String> SUPPORTED_CURRENCIES = Set.of(
@@ -48,10 +62,35 @@ public class PaymentService {
         } else {
             log.warn("Stripe secret key not configured");
         }
+        if (stripeApiBase != null && !stripeApiBase.isEmpty()) {
+            // e.g. a local stub server for reconciliation tests
+            Stripe.overrideApiBase(stripeApiBase);
+            log.warn("Stripe API base overridden: {}", stripeApiBase);
+        }
     }
     
-    @Transactional
+    /**
+     * Create a Stripe payment intent. No database transaction is held during the Stripe call:
+     * the transaction row is written first with status 'creating', then linked to the intent.
+     */
     public PaymentIntentResponse createPaymentIntent(PaymentIntentRequest request) throws StripeException {
+        String idempotencyKey = request.getIdempotencyKey();
+        if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+            return createNewPaymentIntent(request);
+        }
+        
+        // Keys are scoped to the user; without one, anonymous callers would share a namespace
+        String userId = request.getMetadata() != null ? request.getMetadata().get("userId") : null;
+        if (userId == null || userId.isEmpty()) {
+            throw new ValidationException("An idempotency key requires metadata.userId");
+        }
+        
+        // Retries with the same key get the original response without another Stripe call
+        return idempotencyStore.execute(userId, idempotencyKey,
+            PaymentIdempotencyStore.fingerprint(request), () -> createNewPaymentIntent(request));
+    }
+    
+    private PaymentIntentResponse createNewPaymentIntent(PaymentIntentRequest request) throws StripeException {
         try {
             if (stripeSecretKey == null || stripeSecretKey.isEmpty()) {
                 log.error("Stripe secret key not configured");
@@ -69,14 +108,17 @@ public class PaymentService {
                 throw new ValidationException("Unsupported currency: " + currency + ". Supported currencies: " + SUPPORTED_CURRENCIES);
             }
             
-            // Validate amount
-            if (request.getAmount() == null || request.getAmount() <= 0) {
+            // Validate amount; the only decimal-to-minor-unit conversion on this path
+            if (request.getAmount() == null || request.getAmount().signum() <= 0) {
                 log.warn("Invalid amount: {}", request.getAmount());
                 throw new ValidationException("Amount must be greater than 0");
             }
+            Money amount = Money.ofMajor(request.getAmount(), currency);
+            if (!amount.isPositive()) {
+                throw new ValidationException("Amount is below the smallest unit of " + currency);
+            }
             
             // Security validation: amount limits and rate limiting
-            BigDecimal amount = BigDecimal.valueOf(request.getAmount());
             String userId = "unknown";
             String orderId = null;
             
@@ -98,14 +140,8 @@ public class PaymentService {
                 throw e;
             }
             
-            // Check for duplicate payment intent using idempotency key
-            if (request.getIdempotencyKey() != null && !request.getIdempotencyKey().isEmpty()) {
-                // Stripe will handle idempotency, but we can log it
-                log.info("Creating payment intent with idempotency key: {}", request.getIdempotencyKey());
-            }
-            
             PaymentIntentCreateParams.Builder paramsBuilder = PaymentIntentCreateParams.builder()
-                .setAmount((long) (request.getAmount() * 100)) // Convert to cents
+                .setAmount(amount.minorUnits()) // Smallest currency unit (cents, or yen for jpy)
                 .setCurrency(currency)
                 .setAutomaticPaymentMethods(
                     PaymentIntentCreateParams.AutomaticPaymentMethods.builder()
@@ -117,44 +153,67 @@ public class PaymentService {
                 paramsBuilder.putAllMetadata(request.getMetadata());
             }
             
-            PaymentIntentCreateParams params = paramsBuilder.build();
-            RequestOptions requestOptions = null;
-            
-            // Add idempotency key if provided (via RequestOptions)
-            if (request.getIdempotencyKey() != null && !request.getIdempotencyKey().isEmpty()) {
-                requestOptions = RequestOptions.builder()
-                    .setIdempotencyKey(request.getIdempotencyKey())
-                    .build();
+            // Record the attempt before calling Stripe (short transaction of its own).
+            // With a client key the reference is derived from it, so a retry that misses the
+            // idempotency store sends Stripe the same idempotency key and the same parameters.
+            String idempotencyKey = request.getIdempotencyKey();
+            String reference = idempotencyKey != null && !idempotencyKey.isEmpty()
+                ? transactionReference(userId, idempotencyKey)
+                : UUID.randomUUID().toString();
+            PaymentTransaction transaction = null;
+            if (orderId != null && !orderId.isEmpty()) {
+                // Lets the recovery sweep find the intent if we crash before linking it
+                paramsBuilder.putMetadata(REFERENCE_METADATA_KEY, reference);
+                try {
+                    // A retry of a keyed request reuses the row written by the first attempt
+                    transaction = paymentTransactionRepository.findByReference(reference).orElse(null);
+                    if (transaction == null) {
+                        transaction = paymentTransactionRepository.save(PaymentTransaction.builder()
+                            .orderId(orderId)
+                            .reference(reference)
+                            .amount(amount.toMajor())
+                            .currency(currency)
+                            .status(STATUS_CREATING)
+                            .build());
+                    }
+                } catch (Exception e) {
+                    log.error("Failed to save payment transaction: orderId={}", orderId, e);
+                    // Don't fail the payment intent creation if transaction save fails
+                }
             }
             
+            // The reference is scoped to the user, so two users sending the same key don't collide at Stripe
+            RequestOptions requestOptions = dependencyGuards.stripeRequestOptions()
+                .setIdempotencyKey(reference)
+                .build();
+            
             PaymentIntent paymentIntent;
-            if (requestOptions != null) {
-                paymentIntent = PaymentIntent.create(params, requestOptions);
-            } else {
-                paymentIntent = PaymentIntent.create(params);
+            try {
+                paymentIntent = dependencyGuards.stripe().call(
+                    () -> PaymentIntent.create(paramsBuilder.build(), requestOptions));
+            } catch (StripeException | DependencyUnavailableException e) {
+                if (transaction != null) {
+                    paymentTransactionRepository.markCreateFailed(reference);
+                }
+                throw e;
             }
             
             log.info("Stripe payment intent created: paymentIntentId={}, status={}, amount={}, currency={}", 
-                paymentIntent.getId(), paymentIntent.getStatus(), request.getAmount(), currency);
+                paymentIntent.getId(), paymentIntent.getStatus(), amount.toMajor(), currency);
             
-            // Save payment transaction to database
-            if (orderId != null && !orderId.isEmpty()) {
+            paymentStatusCache.record(paymentIntent.getId(), orderId, paymentIntent.getStatus(), null);
+            
+            // Link the row to the intent (second short transaction)
+            if (transaction != null) {
                 try {
-                    PaymentTransaction transaction = PaymentTransaction.builder()
-                        .orderId(orderId)
-                        .stripePaymentIntentId(paymentIntent.getId())
-                        .amount(BigDecimal.valueOf(request.getAmount()))
-                        .currency(currency)
-                        .status(paymentIntent.getStatus())
-                        .build();
-                    
-                    paymentTransactionRepository.save(transaction);
+                    paymentTransactionRepository.attachPaymentIntent(
+                        reference, paymentIntent.getId(), paymentIntent.getStatus());
                     log.info("Payment transaction saved: orderId={}, paymentIntentId={}, amount={}, status={}", 
-                        orderId, paymentIntent.getId(), request.getAmount(), paymentIntent.getStatus());
+                        orderId, paymentIntent.getId(), amount.toMajor(), paymentIntent.getStatus());
                 } catch (Exception e) {
-                    log.error("Failed to save payment transaction: orderId={}, paymentIntentId={}", 
+                    // The recovery sweep links it later
+                    log.error("Failed to link payment transaction: orderId={}, paymentIntentId={}", 
                         orderId, paymentIntent.getId(), e);
-                    // Don't fail the payment intent creation if transaction save fails
                 }
             }
             
@@ -162,7 +221,8 @@ public class PaymentService {
                 paymentIntent.getClientSecret(),
                 paymentIntent.getId()
             );
-        } catch (ValidationException | SecurityService.SecurityException | IllegalStateException e) {
+        } catch (ValidationException | SecurityService.SecurityException | IllegalStateException
+                 | DependencyUnavailableException e) {
             // Re-throw known exceptions
             throw e;
         } catch (StripeException e) {
@@ -175,26 +235,31 @@ public class PaymentService {
         }
     }
     
-    @Transactional
+    /**
+     * Stable transaction reference for a client idempotency key, scoped to the user
+     */
+    static String transactionReference(String userId, String idempotencyKey) {
+        return UUID.nameUUIDFromBytes((userId + ":" + idempotencyKey).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+    
+    /**
+     * Current status of the intent, served from the status read model; Stripe is only
+     * called when the known status is missing or stale
+     */
     public Map<String, Object> confirmPayment(String paymentIntentId) throws StripeException {
-        PaymentIntent paymentIntent = PaymentIntent.retrieve(paymentIntentId);
-        
-        // Update transaction status in database
-        updateTransactionStatus(paymentIntentId, paymentIntent.getStatus());
+        Map<String, Object> status = paymentStatusService.getStatus(paymentIntentId);
         
         Map<String, Object> response = new HashMap<>();
-        response.put("status", paymentIntent.getStatus());
-        response.put("paymentIntentId", paymentIntent.getId());
+        response.put("status", status.get("status"));
+        response.put("paymentIntentId", paymentIntentId);
         
         return response;
     }
     
-    @Transactional
     public Map<String, Object> cancelPayment(String paymentIntentId) throws StripeException {
-        PaymentIntent paymentIntent = PaymentIntent.retrieve(paymentIntentId);
-        paymentIntent = paymentIntent.cancel(
-            PaymentIntentCancelParams.builder().build()
-        );
+        PaymentIntent paymentIntent = dependencyGuards.stripe().call(
+            () -> PaymentIntent.retrieve(paymentIntentId, dependencyGuards.stripeRequestOptions().build())
+                .cancel(PaymentIntentCancelParams.builder().build(), dependencyGuards.stripeRequestOptions().build()));
         
         // Update transaction status in database
         updateTransactionStatus(paymentIntentId, paymentIntent.getStatus());
@@ -206,20 +271,27 @@ public class PaymentService {
         return response;
     }
     
-    @Transactional
+    /**
+     * Apply a status carried by a webhook event. Written synchronously in the caller's
+     * transaction; events older than the last one applied are ignored.
+     * @return true if the stored status was updated
+     */
+    public boolean applyEventStatus(String paymentIntentId, String status, long eventCreated) {
+        paymentStatusCache.record(paymentIntentId, null, status, eventCreated);
+        boolean updated = paymentStatusWriter.write(paymentIntentId, status, eventCreated);
+        log.info("Payment transaction status written: paymentIntentId={}, status={}, updated={}", 
+            paymentIntentId, status, updated);
+        return updated;
+    }
+    
+    /**
+     * Record a status just read from the Stripe API (batched write)
+     */
     public void updateTransactionStatus(String paymentIntentId, String status) {
-        try {
-            paymentTransactionRepository.findByStripePaymentIntentId(paymentIntentId)
-                .ifPresent(transaction -> {
-                    transaction.setStatus(status);
-                    paymentTransactionRepository.save(transaction);
-                    log.info("Payment transaction status updated: paymentIntentId={}, status={}", 
-                        paymentIntentId, status);
-                });
-        } catch (Exception e) {
-            log.error("Failed to update payment transaction status: paymentIntentId={}, status={}", 
-                paymentIntentId, status, e);
-        }
+        paymentStatusCache.record(paymentIntentId, null, status, null);
+        paymentStatusWriter.submit(paymentIntentId, status, null);
+        log.info("Payment transaction status queued: paymentIntentId={}, status={}", 
+            paymentIntentId, status);
     }
 }
 
@@ -0,0 +1,131 @@
+package com.quickgas.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Latest known status per payment intent, kept current by webhooks and by our own Stripe
+ * calls. Updates follow the same rules as {@link PaymentStatusWriter}: an older event never
+ * replaces a newer one and succeeded/canceled are final. Listeners registered for an intent
+ * are called when its status changes, which is what the long-poll API waits on.
+ */
+@Component
+public class PaymentStatusCache {
+    
+    private static final Set<String> TERMINAL_STATUSES = Set.of("succeeded", "canceled");
+    
+    private final Cache<String, CachedStatus> byIntent;
+    private final Cache<String, String> intentByOrder;
+    private final Map<String, Set<Consumer<CachedStatus>>> listeners = new ConcurrentHashMap<>();
+    private final AtomicInteger listenerCount = new AtomicInteger();
+    
+    public PaymentStatusCache(
+            @Value("${payments.status-cache.max-size:50000}") long maxSize,
+            @Value("${payments.status-cache.expire-after:PT1H}") Duration expireAfter,
+            MeterRegistry meterRegistry) {
+        this.byIntent = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expireAfter)
+            .build();
+        this.intentByOrder = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expireAfter)
+            .build();
+        Gauge.builder("payments.status.cache.size", byIntent, Cache::estimatedSize)
+            .register(meterRegistry);
+        Gauge.builder("payments.status.waiters", listenerCount, AtomicInteger::get)
+            .description("Long-poll requests waiting for a payment status change")
+            .register(meterRegistry);
+    }
+    
+    public static boolean isTerminal(String status) {
+        return TERMINAL_STATUSES.contains(status);
+    }
+    
+    public CachedStatus get(String paymentIntentId) {
+        return byIntent.getIfPresent(paymentIntentId);
+    }
+    
+    public String getIntentForOrder(String orderId) {
+        return intentByOrder.getIfPresent(orderId);
+    }
+    
+    /**
+     * Record a status. {@code eventCreated} is the Stripe event time for webhook updates and
+     * null for a status read from the API; {@code orderId} may be null if not known here.
+     */
+    public void record(String paymentIntentId, String orderId, String status, Long eventCreated) {
+        CachedStatus[] changed = new CachedStatus[1];
+        byIntent.asMap().compute(paymentIntentId, (id, current) -> {
+            String order = orderId != null ? orderId : current != null ? current.orderId() : null;
+            CachedStatus incoming = new CachedStatus(id, order, status, eventCreated, Instant.now());
+            if (current == null) {
+                changed[0] = incoming;
+                return incoming;
+            }
+            if (isTerminal(current.status()) && !current.status().equals(status)) {
+                return current;
+            }
+            if (eventCreated != null && current.eventCreated() != null && current.eventCreated() > eventCreated) {
+                return current;
+            }
+            Long newestEvent = eventCreated != null ? eventCreated : current.eventCreated();
+            CachedStatus updated = new CachedStatus(id, order, status, newestEvent, incoming.observedAt());
+            if (!current.status().equals(status)) {
+                changed[0] = updated;
+            }
+            return updated;
+        });
+        if (orderId != null) {
+            intentByOrder.put(orderId, paymentIntentId);
+        }
+        if (changed[0] != null) {
+            notifyListeners(changed[0]);
+        }
+    }
+    
+    /**
+     * Call the listener on the next status change of this intent; returns the handle to remove it
+     */
+    public Runnable addListener(String paymentIntentId, Consumer<CachedStatus> listener) {
+        listeners.computeIfAbsent(paymentIntentId, id -> ConcurrentHashMap.newKeySet()).add(listener);
+        listenerCount.incrementAndGet();
+        return () -> {
+            Set<Consumer<CachedStatus>> registered = listeners.get(paymentIntentId);
+            if (registered != null && registered.remove(listener)) {
+                listenerCount.decrementAndGet();
+                listeners.computeIfPresent(paymentIntentId, (id, set) -> set.isEmpty() ? null : set);
+            }
+        };
+    }
+    
+    public int getListenerCount() {
+        return listenerCount.get();
+    }
+    
+    private void notifyListeners(CachedStatus status) {
+        Set<Consumer<CachedStatus>> registered = listeners.get(status.paymentIntentId());
+        if (registered != null) {
+            registered.forEach(listener -> listener.accept(status));
+        }
+    }
+    
+    /**
+     * @param observedAt when this instance learned the status, used to decide staleness
+     */
+    public record CachedStatus(String paymentIntentId, String orderId, String status, Long eventCreated,
+                               Instant observedAt) {
+    }
+}
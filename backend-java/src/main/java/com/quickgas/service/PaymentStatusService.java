@@ -0,0 +1,183 @@
+package com.quickgas.service;
+
+import com.quickgas.entity.PaymentTransaction;
+import com.quickgas.repository.PaymentTransactionRepository;
+import com.quickgas.resilience.DependencyGuards;
+import com.quickgas.resilience.DependencyUnavailableException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Payment status queries for the app. Answers from {@link PaymentStatusCache}, then from
+ * payment_transactions (which webhooks keep current), and calls PaymentIntent.retrieve only
+ * when neither has a fresh non-final status. If Stripe cannot be reached the last known
+ * status is returned, flagged as stale.
+ */
+@Slf4j
+@Service
+public class PaymentStatusService {
+    
+    private final PaymentStatusCache statusCache;
+    private final PaymentTransactionRepository paymentTransactionRepository;
+    private final PaymentStatusWriter paymentStatusWriter;
+    private final DependencyGuards dependencyGuards;
+    
+    private final Counter cacheHits;
+    private final Counter databaseHits;
+    private final Counter stripeLookups;
+    
+    @Value("${payments.status-cache.stale-after:PT30S}")
+    private Duration staleAfter;
+    
+    @Value("${payments.status-cache.max-wait:PT30S}")
+    private Duration maxWait;
+    
+    @Value("${payments.status-cache.max-waiters:10000}")
+    private int maxWaiters;
+    
+    public PaymentStatusService(PaymentStatusCache statusCache,
+                                PaymentTransactionRepository paymentTransactionRepository,
+                                PaymentStatusWriter paymentStatusWriter,
+                                DependencyGuards dependencyGuards,
+                                MeterRegistry meterRegistry) {
+        this.statusCache = statusCache;
+        this.paymentTransactionRepository = paymentTransactionRepository;
+        this.paymentStatusWriter = paymentStatusWriter;
+        this.dependencyGuards = dependencyGuards;
+        this.cacheHits = meterRegistry.counter("payments.status.lookups", "source", "cache");
+        this.databaseHits = meterRegistry.counter("payments.status.lookups", "source", "database");
+        this.stripeLookups = meterRegistry.counter("payments.status.lookups", "source", "stripe");
+    }
+    
+    public Map<String, Object> getStatus(String paymentIntentId) throws StripeException {
+        PaymentStatusCache.CachedStatus cached = statusCache.get(paymentIntentId);
+        if (cached != null && isFresh(cached.status(), cached.observedAt())) {
+            cacheHits.increment();
+            return toResponse(cached, "cache", false);
+        }
+        
+        Optional<PaymentTransaction> row = paymentTransactionRepository.findByStripePaymentIntentId(paymentIntentId);
+        if (row.isPresent() && isFresh(row.get().getStatus(), toInstant(row.get()))) {
+            databaseHits.increment();
+            PaymentTransaction transaction = row.get();
+            statusCache.record(paymentIntentId, transaction.getOrderId(), transaction.getStatus(),
+                transaction.getLastEventCreated());
+            return toResponse(statusCache.get(paymentIntentId), "database", false);
+        }
+        
+        try {
+            stripeLookups.increment();
+            PaymentIntent paymentIntent = dependencyGuards.stripe().call(
+                () -> PaymentIntent.retrieve(paymentIntentId, dependencyGuards.stripeRequestOptions().build()));
+            String orderId = row.map(PaymentTransaction::getOrderId).orElse(null);
+            statusCache.record(paymentIntentId, orderId, paymentIntent.getStatus(), null);
+            paymentStatusWriter.submit(paymentIntentId, paymentIntent.getStatus(), null);
+            return toResponse(statusCache.get(paymentIntentId), "stripe", false);
+        } catch (DependencyUnavailableException e) {
+            // Better a slightly old answer than none while Stripe is degraded
+            if (cached != null) {
+                return toResponse(cached, "cache", true);
+            }
+            if (row.isPresent()) {
+                PaymentTransaction transaction = row.get();
+                return toResponse(new PaymentStatusCache.CachedStatus(paymentIntentId, transaction.getOrderId(),
+                    transaction.getStatus(), transaction.getLastEventCreated(), toInstant(transaction)),
+                    "database", true);
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Status of the most recent payment intent for an order, or empty if the order has none
+     */
+    public Optional<Map<String, Object>> getStatusForOrder(String orderId) throws StripeException {
+        String paymentIntentId = statusCache.getIntentForOrder(orderId);
+        if (paymentIntentId == null) {
+            paymentIntentId = paymentTransactionRepository.findByOrderId(orderId).stream()
+                .filter(transaction -> transaction.getStripePaymentIntentId() != null)
+                .max(Comparator.comparing(PaymentTransaction::getCreatedAt))
+                .map(PaymentTransaction::getStripePaymentIntentId)
+                .orElse(null);
+        }
+        if (paymentIntentId == null) {
+            return Optional.empty();
+        }
+        return Optional.of(getStatus(paymentIntentId));
+    }
+    
+    /**
+     * Long-poll: completes as soon as the status differs from {@code knownStatus}, or with the
+     * current status when {@code wait} elapses. Only changes seen by this instance wake the
+     * request early; the timeout re-reads through the normal fallback path.
+     */
+    public DeferredResult<Map<String, Object>> awaitChange(String paymentIntentId, String knownStatus, Duration wait)
+            throws StripeException {
+        Duration timeout = wait.compareTo(maxWait) > 0 ? maxWait : wait;
+        Map<String, Object> current = getStatus(paymentIntentId);
+        if (knownStatus == null || !knownStatus.equals(current.get("status"))
+                || PaymentStatusCache.isTerminal(knownStatus)
+                || timeout.isZero() || timeout.isNegative()
+                || statusCache.getListenerCount() >= maxWaiters) {
+            DeferredResult<Map<String, Object>> immediate = new DeferredResult<>();
+            immediate.setResult(current);
+            return immediate;
+        }
+        
+        DeferredResult<Map<String, Object>> result = new DeferredResult<>(timeout.toMillis());
+        Runnable removeListener = statusCache.addListener(paymentIntentId, status -> {
+            if (!knownStatus.equals(status.status())) {
+                result.setResult(toResponse(status, "cache", false));
+            }
+        });
+        result.onCompletion(removeListener);
+        result.onTimeout(() -> {
+            try {
+                result.setResult(getStatus(paymentIntentId));
+            } catch (StripeException | RuntimeException e) {
+                result.setErrorResult(e);
+            }
+        });
+        
+        // A change between the first read and registering the listener would otherwise be missed
+        PaymentStatusCache.CachedStatus latest = statusCache.get(paymentIntentId);
+        if (latest != null && !knownStatus.equals(latest.status())) {
+            result.setResult(toResponse(latest, "cache", false));
+        }
+        return result;
+    }
+    
+    private boolean isFresh(String status, Instant observedAt) {
+        return PaymentStatusCache.isTerminal(status)
+            || Duration.between(observedAt, Instant.now()).compareTo(staleAfter) < 0;
+    }
+    
+    private static Instant toInstant(PaymentTransaction transaction) {
+        return transaction.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant();
+    }
+    
+    private static Map<String, Object> toResponse(PaymentStatusCache.CachedStatus status, String source, boolean stale) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("paymentIntentId", status.paymentIntentId());
+        response.put("orderId", status.orderId());
+        response.put("status", status.status());
+        response.put("updatedAt", status.observedAt().toString());
+        response.put("source", source);
+        response.put("stale", stale);
+        return response;
+    }
+}
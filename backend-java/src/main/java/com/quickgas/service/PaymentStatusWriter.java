@@ -0,0 +1,194 @@
+package com.quickgas.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind updater for payment_transactions.status. Updates are coalesced per
+ * payment intent (only the newest status survives) and flushed every few hundred
+ * milliseconds as one set-based UPDATE ... FROM (VALUES ...) per chunk, instead of a
+ * select plus full-entity save per event.
+ *
+ * The flush keeps the webhook ordering rules: an event older than the last applied
+ * one is ignored, and succeeded/canceled are never replaced by a different status.
+ *
+ * Only statuses read from the Stripe API go through the queue; updates still pending
+ * when the process dies are lost and are read from Stripe again on the next status
+ * lookup. Webhook statuses use {@link #write}, inside the inbox transaction, so an
+ * event is only marked processed once its status is stored.
+ */
+@Slf4j
+@Service
+public class PaymentStatusWriter {
+    
+    private static final String FLUSH_SQL_PREFIX =
+        "UPDATE payment_transactions t SET status = v.status, " +
+        "last_event_created = COALESCE(v.event_created, t.last_event_created), " +
+        "updated_at = CURRENT_TIMESTAMP FROM (VALUES ";
+    
+    private static final String FLUSH_SQL_SUFFIX =
+        ") AS v(intent_id, status, event_created) " +
+        "WHERE t.stripe_payment_intent_id = v.intent_id " +
+        "AND (v.event_created IS NULL OR t.last_event_created IS NULL " +
+        "OR t.last_event_created <= v.event_created) " +
+        "AND (t.status NOT IN ('succeeded', 'canceled') OR t.status = v.status)";
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<String, PendingStatus> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    
+    private final Counter submitted;
+    private final Counter coalesced;
+    private final Counter written;
+    private final Counter dropped;
+    private final Timer flushTimer;
+    
+    @Value("${payments.status-writer.max-pending:5000}")
+    private int maxPending;
+    
+    @Value("${payments.status-writer.batch-size:500}")
+    private int batchSize;
+    
+    @Value("${payments.status-writer.max-flush-attempts:10}")
+    private int maxFlushAttempts;
+    
+    public PaymentStatusWriter(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.submitted = meterRegistry.counter("payments.status.writes", "stage", "submitted");
+        this.coalesced = meterRegistry.counter("payments.status.writes", "stage", "coalesced");
+        this.written = meterRegistry.counter("payments.status.writes", "stage", "flushed");
+        this.dropped = meterRegistry.counter("payments.status.writes", "stage", "dropped");
+        this.flushTimer = meterRegistry.timer("payments.status.flush");
+        Gauge.builder("payments.status.pending", pending, Map::size)
+            .description("Payment status updates waiting to be flushed")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Queue a status update.
+     * @param eventCreated Stripe event.created for webhook updates, or null for a status
+     *                     just read from the Stripe API
+     */
+    public void submit(String paymentIntentId, String status, Long eventCreated) {
+        submitted.increment();
+        pending.merge(paymentIntentId, new PendingStatus(status, eventCreated, 0), (current, incoming) -> {
+            coalesced.increment();
+            return current.isNewerThan(incoming) ? current : incoming;
+        });
+        
+        if (pending.size() >= maxPending) {
+            // Back-pressure: the submitting thread pays for the flush
+            flush();
+        }
+    }
+    
+    /**
+     * Write one status now, with the same ordering rules as the flush. Joins the caller's
+     * transaction, if any.
+     * @return true if the row was updated
+     */
+    public boolean write(String paymentIntentId, String status, Long eventCreated) {
+        PendingStatus update = new PendingStatus(status, eventCreated, 0);
+        // A queued status this one supersedes must not be flushed over it
+        pending.computeIfPresent(paymentIntentId, (id, queued) -> queued.isNewerThan(update) ? queued : null);
+        return writeChunk(List.of(Map.entry(paymentIntentId, update))) > 0;
+    }
+    
+    @Scheduled(fixedDelayString = "${payments.status-writer.flush-interval:PT0.2S}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            Timer.Sample sample = Timer.start();
+            List<Map.Entry<String, PendingStatus>> drained = new ArrayList<>(pending.size());
+            for (String paymentIntentId : pending.keySet()) {
+                PendingStatus update = pending.remove(paymentIntentId);
+                if (update != null) {
+                    drained.add(Map.entry(paymentIntentId, update));
+                }
+            }
+            
+            for (int from = 0; from < drained.size(); from += batchSize) {
+                List<Map.Entry<String, PendingStatus>> chunk =
+                    drained.subList(from, Math.min(from + batchSize, drained.size()));
+                try {
+                    writeChunk(chunk);
+                    written.increment(chunk.size());
+                } catch (Exception e) {
+                    log.error("Failed to flush payment status updates, will retry: count={}, error={}",
+                        chunk.size(), e.getMessage());
+                    requeue(chunk);
+                }
+            }
+            sample.stop(flushTimer);
+            log.debug("Flushed payment status updates: count={}", drained.size());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+    
+    @PreDestroy
+    public void flushOnShutdown() {
+        if (!pending.isEmpty()) {
+            log.info("Flushing pending payment status updates before shutdown: count={}", pending.size());
+            flush();
+        }
+    }
+    
+    private int writeChunk(List<Map.Entry<String, PendingStatus>> chunk) {
+        StringBuilder sql = new StringBuilder(FLUSH_SQL_PREFIX);
+        Object[] args = new Object[chunk.size() * 3];
+        for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, CAST(? AS BIGINT))");
+            Map.Entry<String, PendingStatus> entry = chunk.get(i);
+            args[i * 3] = entry.getKey();
+            args[i * 3 + 1] = entry.getValue().status();
+            args[i * 3 + 2] = entry.getValue().eventCreated();
+        }
+        sql.append(FLUSH_SQL_SUFFIX);
+        return jdbcTemplate.update(sql.toString(), args);
+    }
+    
+    private void requeue(List<Map.Entry<String, PendingStatus>> chunk) {
+        for (Map.Entry<String, PendingStatus> entry : chunk) {
+            PendingStatus failed = entry.getValue().failedOnce();
+            if (failed.failures() >= maxFlushAttempts) {
+                // Don't retry a bad update forever; the status is read from Stripe again on the next lookup
+                dropped.increment();
+                log.error("Dropping payment status update after {} failed flushes: paymentIntentId={}, status={}",
+                    failed.failures(), entry.getKey(), failed.status());
+                continue;
+            }
+            // Anything submitted since the drain is newer unless its event says otherwise
+            pending.merge(entry.getKey(), failed,
+                (current, retry) -> retry.isNewerThan(current) ? retry : current);
+        }
+    }
+    
+    private record PendingStatus(String status, Long eventCreated, int failures) {
+        
+        PendingStatus failedOnce() {
+            return new PendingStatus(status, eventCreated, failures + 1);
+        }
+        
+        boolean isNewerThan(PendingStatus other) {
+            return eventCreated != null && other.eventCreated != null && eventCreated > other.eventCreated;
+        }
+    }
+}
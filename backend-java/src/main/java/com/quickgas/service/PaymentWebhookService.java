@@ -1,21 +1,43 @@
 package com.quickgas.service;
 
-import com.stripe.model.Event;
+import com.quickgas.events.DomainEvent;
+import com.quickgas.events.DomainEventBus;
+import com.stripe.model.Account;
 import com.stripe.model.PaymentIntent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Set;
+
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class PaymentWebhookService {
     
+    /**
+     * Event types with a handler; anything else is acknowledged and dropped without being stored
+     */
+    public static final Set<String> HANDLED_EVENT_TYPES = Set.of(
+        "payment_intent.succeeded",
+        "payment_intent.payment_failed",
+        "payment_intent.canceled",
+        "payment_intent.requires_action",
+        "account.updated"
+    );
+    
     private final PaymentService paymentService;
+    private final DomainEventBus eventBus;
+    private final ConnectedAccountCache connectedAccountCache;
+    
+    public boolean handles(String eventType) {
+        return HANDLED_EVENT_TYPES.contains(eventType);
+    }
     
     @Transactional
-    public void handleEvent(Event event) {
+    public void handleEvent(WebhookEnvelope event) {
         String eventType = event.getType();
         
         log.info("Processing webhook event: type={}, id={}", eventType, event.getId());
@@ -33,45 +55,43 @@ public class PaymentWebhookService {
             case "payment_intent.requires_action":
                 handlePaymentIntentRequiresAction(event);
                 break;
+            case "account.updated":
+                handleAccountUpdated(event);
+                break;
             default:
                 log.debug("Unhandled webhook event type: {}", eventType);
         }
     }
     
-    private void handlePaymentIntentSucceeded(Event event) {
-        PaymentIntent paymentIntent = (PaymentIntent) event.getDataObjectDeserializer()
-            .getObject()
-            .orElse(null);
-        
-        if (paymentIntent == null) {
-            log.warn("Payment intent not found in webhook event: {}", event.getId());
+    private void handlePaymentIntentSucceeded(WebhookEnvelope event) {
+        if (!hasPaymentIntent(event)) {
             return;
         }
         
-        String paymentIntentId = paymentIntent.getId();
-        log.info("Payment intent succeeded: paymentIntentId={}, amount={}, currency={}", 
-            paymentIntentId, paymentIntent.getAmount(), paymentIntent.getCurrency());
+        String paymentIntentId = event.getObjectId();
+        log.info("Payment intent succeeded: paymentIntentId={}", paymentIntentId);
         
-        // Update transaction status
-        paymentService.updateTransactionStatus(paymentIntentId, paymentIntent.getStatus());
+        // Update transaction status; the event goes out once it and the inbox ack have committed
+        paymentService.applyEventStatus(paymentIntentId, event.getObjectStatus(), event.getCreated());
+        eventBus.publishAfterCommit(new DomainEvent.PaymentSucceeded(paymentIntentId, event.getCreated(), Instant.now()));
         
         // Log for audit trail
         log.info("Payment transaction updated via webhook: paymentIntentId={}, status=succeeded", 
             paymentIntentId);
     }
     
-    private void handlePaymentIntentFailed(Event event) {
-        PaymentIntent paymentIntent = (PaymentIntent) event.getDataObjectDeserializer()
-            .getObject()
-            .orElse(null);
-        
-        if (paymentIntent == null) {
-            log.warn("Payment intent not found in webhook event: {}", event.getId());
+    private void handlePaymentIntentFailed(WebhookEnvelope event) {
+        if (!hasPaymentIntent(event)) {
             return;
         }
         
-        String paymentIntentId = paymentIntent.getId();
-        String lastPaymentError = paymentIntent.getLastPaymentError() != null 
+        String paymentIntentId = event.getObjectId();
+        
+        // The error message is the one field not in the envelope, so only this handler parses the full object
+        PaymentIntent paymentIntent = (PaymentIntent) event.getEvent().getDataObjectDeserializer()
+            .getObject()
+            .orElse(null);
+        String lastPaymentError = paymentIntent != null && paymentIntent.getLastPaymentError() != null 
             ? paymentIntent.getLastPaymentError().getMessage() 
             : "Unknown error";
         
@@ -79,45 +99,57 @@ public class PaymentWebhookService {
             paymentIntentId, lastPaymentError);
         
         // Update transaction status
-        paymentService.updateTransactionStatus(paymentIntentId, paymentIntent.getStatus());
+        paymentService.applyEventStatus(paymentIntentId, event.getObjectStatus(), event.getCreated());
         
         // Log for audit trail
         log.info("Payment transaction updated via webhook: paymentIntentId={}, status=failed", 
             paymentIntentId);
     }
     
-    private void handlePaymentIntentCanceled(Event event) {
-        PaymentIntent paymentIntent = (PaymentIntent) event.getDataObjectDeserializer()
-            .getObject()
-            .orElse(null);
-        
-        if (paymentIntent == null) {
-            log.warn("Payment intent not found in webhook event: {}", event.getId());
+    private void handlePaymentIntentCanceled(WebhookEnvelope event) {
+        if (!hasPaymentIntent(event)) {
             return;
         }
         
-        String paymentIntentId = paymentIntent.getId();
+        String paymentIntentId = event.getObjectId();
         log.info("Payment intent canceled: paymentIntentId={}", paymentIntentId);
         
         // Update transaction status
-        paymentService.updateTransactionStatus(paymentIntentId, paymentIntent.getStatus());
+        paymentService.applyEventStatus(paymentIntentId, event.getObjectStatus(), event.getCreated());
     }
     
-    private void handlePaymentIntentRequiresAction(Event event) {
-        PaymentIntent paymentIntent = (PaymentIntent) event.getDataObjectDeserializer()
-            .getObject()
-            .orElse(null);
-        
-        if (paymentIntent == null) {
-            log.warn("Payment intent not found in webhook event: {}", event.getId());
+    private void handlePaymentIntentRequiresAction(WebhookEnvelope event) {
+        if (!hasPaymentIntent(event)) {
             return;
         }
         
-        String paymentIntentId = paymentIntent.getId();
+        String paymentIntentId = event.getObjectId();
         log.info("Payment intent requires action (3D Secure): paymentIntentId={}", paymentIntentId);
         
         // Update transaction status
-        paymentService.updateTransactionStatus(paymentIntentId, paymentIntent.getStatus());
+        paymentService.applyEventStatus(paymentIntentId, event.getObjectStatus(), event.getCreated());
+    }
+    
+    private void handleAccountUpdated(WebhookEnvelope event) {
+        // Capability flags are not in the envelope, so this handler parses the full account
+        Account account = (Account) event.getEvent().getDataObjectDeserializer()
+            .getObject()
+            .orElse(null);
+        if (account == null) {
+            log.warn("Account not found in webhook event: {}", event.getId());
+            return;
+        }
+        
+        ConnectedAccountCache.AccountStatus status = connectedAccountCache.refresh(account);
+        log.info("Connected account updated: accountId={}, detailsSubmitted={}, payoutsEnabled={}",
+            status.accountId(), status.detailsSubmitted(), status.payoutsEnabled());
+    }
+    
+    private static boolean hasPaymentIntent(WebhookEnvelope event) {
+        if (event.getObjectId() == null || event.getObjectStatus() == null) {
+            log.warn("Payment intent not found in webhook event: {}", event.getId());
+            return false;
+        }
+        return true;
     }
 }
-
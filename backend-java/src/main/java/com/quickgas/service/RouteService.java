@@ -3,7 +3,13 @@ package com.quickgas.service;
 import com.quickgas.dto.RouteOptimizeRequest;
 import com.quickgas.dto.RouteStartRequest;
 import com.quickgas.dto.NotificationRequest;
+import com.quickgas.events.DomainEvent;
+import com.quickgas.events.DomainEventBus;
 import com.quickgas.repository.RouteRepository;
+import com.quickgas.resilience.DependencyGuard;
+import com.quickgas.resilience.DependencyGuards;
+import com.quickgas.resilience.DependencyUnavailableException;
+import com.quickgas.resilience.RequestDeadline;
 import com.quickgas.service.NotificationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,9 +17,14 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Slf4j
@@ -23,6 +34,8 @@ public class RouteService {
     
     private final RouteRepository routeRepository;
     private final NotificationService notificationService;
+    private final DependencyGuards dependencyGuards;
+    private final DomainEventBus eventBus;
     
     @Value("${openrouteservice.api-key:}")
     private String defaultApiKey;
@@ -44,15 +57,18 @@ public class RouteService {
         requestBody.put("locations", request.getLocations());
         requestBody.put("metrics", new String[]{"distance", "duration"});
         
+        DependencyGuard ors = dependencyGuards.ors();
+        Duration timeout = ors.effectiveTimeout();
         @SuppressWarnings("unchecked")
-        Map<String, Object> response = webClient.post()
+        Map<String, Object> response = ors.call(() -> webClient.post()
             .uri("/matrix/driving-car")
             .header("Authorization", "Bearer " + apiKey)
             .header("Content-Type", "application/json")
             .bodyValue(requestBody)
             .retrieve()
             .bodyToMono(Map.class)
-            .block();
+            .timeout(timeout, Mono.error(() -> DependencyUnavailableException.timeout(ors.getName(), timeout)))
+            .block());
         
         if (response == null) {
             throw new RuntimeException("Failed to get response from OpenRouteService");
@@ -75,6 +91,8 @@ public class RouteService {
             route.setStartedAt(LocalDateTime.now());
             routeRepository.save(route);
         });
+        eventBus.publishAfterCommit(new DomainEvent.RouteStarted(request.getRouteId(),
+            request.getOrderIds() != null ? new ArrayList<>(request.getOrderIds()) : List.of(), Instant.now()));
         
         // Send notifications to all order owners
         Map<String, Integer> notificationResults = new HashMap<>();
@@ -83,6 +101,12 @@ public class RouteService {
         
         if (notificationService.isFirebaseEnabled() && request.getCustomerFcmTokens() != null) {
             for (Map.Entry<String, String> entry : request.getCustomerFcmTokens().entrySet()) {
+                if (RequestDeadline.isExpired()) {
+                    // The client has stopped waiting; the remaining notifications would be wasted work
+                    log.warn("Request deadline passed, skipping remaining route notifications: routeId={}",
+                        request.getRouteId());
+                    break;
+                }
                 String orderId = entry.getKey();
                 String fcmToken = entry.getValue();
                 
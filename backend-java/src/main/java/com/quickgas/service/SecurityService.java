@@ -1,5 +1,6 @@
 package com.quickgas.service;
 
+import com.quickgas.money.Money;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -17,15 +18,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Service
 public class SecurityService {
     
-    // Amount limits (configurable via environment variables)
+    // Amount limits in major units of the payment currency (configurable via environment variables)
     @Value("${security.payment.min-amount:0.50}")
-    private double minPaymentAmount;
+    private BigDecimal minPaymentAmount;
     
     @Value("${security.payment.max-amount:10000.00}")
-    private double maxPaymentAmount;
+    private BigDecimal maxPaymentAmount;
     
     @Value("${security.payment.max-daily-amount:50000.00}")
-    private double maxDailyAmount;
+    private BigDecimal maxDailyAmount;
     
     @Value("${security.rate-limit.enabled:true}")
     private boolean rateLimitEnabled;
@@ -36,44 +37,51 @@ public class SecurityService {
     // Rate limiting: userId -> request count
     private final Map<String, RateLimitTracker> rateLimitMap = new ConcurrentHashMap<>();
     
-    // Daily amount tracking: userId -> daily total
+    // Daily amount tracking: userId:currency -> daily total
     private final Map<String, DailyAmountTracker> dailyAmountMap = new ConcurrentHashMap<>();
     
+    // Limits converted to minor units once per currency
+    private final Map<String, Limits> limitsByCurrency = new ConcurrentHashMap<>();
+    
     /**
      * Validate payment amount against security limits
      */
-    public void validatePaymentAmount(BigDecimal amount, String userId) {
-        double amountValue = amount.doubleValue();
+    public void validatePaymentAmount(Money amount, String userId) {
+        Limits limits = limitsFor(amount.currency());
         
-        if (amountValue < minPaymentAmount) {
+        if (amount.isLessThan(limits.min())) {
             log.warn("Payment amount below minimum: amount={}, min={}, userId={}", 
-                    amountValue, minPaymentAmount, userId);
-            throw new SecurityException("Payment amount must be at least $" + minPaymentAmount);
+                    amount, limits.min(), userId);
+            throw new SecurityException("Payment amount must be at least " + limits.min());
         }
         
-        if (amountValue > maxPaymentAmount) {
+        if (amount.isGreaterThan(limits.max())) {
             log.warn("Payment amount above maximum: amount={}, max={}, userId={}", 
-                    amountValue, maxPaymentAmount, userId);
-            throw new SecurityException("Payment amount exceeds maximum limit of $" + maxPaymentAmount);
+                    amount, limits.max(), userId);
+            throw new SecurityException("Payment amount exceeds maximum limit of " + limits.max());
         }
         
         // Check daily limit
-        DailyAmountTracker tracker = dailyAmountMap.computeIfAbsent(userId, 
+        DailyAmountTracker tracker = dailyAmountMap.computeIfAbsent(userId + ":" + amount.currency(), 
                 k -> new DailyAmountTracker());
         
-        if (tracker.isNewDay()) {
-            tracker.reset();
-        }
+        long newDailyTotal = tracker.addAmount(amount.minorUnits());
         
-        double newDailyTotal = tracker.addAmount(amountValue);
-        
-        if (newDailyTotal > maxDailyAmount) {
+        if (newDailyTotal > limits.maxDaily().minorUnits()) {
             log.warn("Daily payment limit exceeded: userId={}, dailyTotal={}, max={}", 
-                    userId, newDailyTotal, maxDailyAmount);
-            throw new SecurityException("Daily payment limit exceeded. Maximum: $" + maxDailyAmount);
+                    userId, Money.ofMinor(newDailyTotal, amount.currency()), limits.maxDaily());
+            throw new SecurityException("Daily payment limit exceeded. Maximum: " + limits.maxDaily());
         }
     }
     
+    private Limits limitsFor(String currency) {
+        return limitsByCurrency.computeIfAbsent(currency, code -> {
+            Money max = Money.ofMajor(maxPaymentAmount, code);
+            return new Limits(Money.ofMajor(minPaymentAmount, code), max,
+                    Money.ofMajor(maxDailyAmount, code), max.percentage(8_000));
+        });
+    }
+    
     /**
      * Check rate limiting for a user
      */
@@ -101,7 +109,7 @@ public class SecurityService {
     /**
      * Detect suspicious activity patterns
      */
-    public void detectSuspiciousActivity(String userId, BigDecimal amount, String orderId) {
+    public void detectSuspiciousActivity(String userId, Money amount, String orderId) {
         // Check for rapid successive payments
         RateLimitTracker tracker = rateLimitMap.get(userId);
         if (tracker != null && tracker.getRequests() > 10) {
@@ -111,7 +119,7 @@ public class SecurityService {
         }
         
         // Check for unusually large amounts
-        if (amount.doubleValue() > maxPaymentAmount * 0.8) {
+        if (amount.isGreaterThan(limitsFor(amount.currency()).largePayment())) {
             log.warn("Large payment detected: userId={}, amount={}, orderId={}", 
                     userId, amount, orderId);
         }
@@ -156,28 +164,27 @@ public class SecurityService {
     }
     
     /**
-     * Daily amount tracker
+     * Payment limits for one currency, in minor units
+     * @param largePayment amounts above this (80% of max) are logged as suspicious
+     */
+    private record Limits(Money min, Money max, Money maxDaily, Money largePayment) {
+    }
+    
+    /**
+     * Daily amount tracker (minor units)
      */
     private static class DailyAmountTracker {
-        private int dayOfYear;
-        private double totalAmount;
+        private int dayOfYear = -1;
+        private long totalMinorUnits;
         
-        boolean isNewDay() {
+        synchronized long addAmount(long minorUnits) {
             int currentDay = LocalDateTime.now().getDayOfYear();
             if (currentDay != dayOfYear) {
-                return true;
+                dayOfYear = currentDay;
+                totalMinorUnits = 0;
             }
-            return false;
-        }
-        
-        void reset() {
-            dayOfYear = LocalDateTime.now().getDayOfYear();
-            totalAmount = 0.0;
-        }
-        
-        double addAmount(double amount) {
-            totalAmount += amount;
-            return totalAmount;
+            totalMinorUnits += minorUnits;
+            return totalMinorUnits;
         }
     }
     
@@ -0,0 +1,138 @@
+package com.quickgas.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.stripe.model.Event;
+import com.stripe.net.ApiResource;
+
+import java.io.IOException;
+
+/**
+ * The few fields of a Stripe event that routing and status updates need, read with a
+ * streaming parser that skips every other subtree without building it. The full
+ * {@link Event} (and its data object) is only deserialised if a handler asks for it.
+ */
+public final class WebhookEnvelope {
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    private final String id;
+    private final String type;
+    private final long created;
+    private final String objectId;
+    private final String objectStatus;
+    private final String payload;
+    private Event event;
+    
+    private WebhookEnvelope(String id, String type, long created, String objectId, String objectStatus,
+                            String payload) {
+        this.id = id;
+        this.type = type;
+        this.created = created;
+        this.objectId = objectId;
+        this.objectStatus = objectStatus;
+        this.payload = payload;
+    }
+    
+    /**
+     * Read id, type, created and data.object.id/status from an event payload
+     * @throws IOException if the payload is not a JSON object or has no id or type
+     */
+    public static WebhookEnvelope parse(String payload) throws IOException {
+        String id = null;
+        String type = null;
+        long created = 0;
+        String[] object = new String[2];
+        
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Webhook payload is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "id" -> id = parser.getValueAsString();
+                    case "type" -> type = parser.getValueAsString();
+                    case "created" -> created = parser.getValueAsLong();
+                    case "data" -> {
+                        if (value == JsonToken.START_OBJECT) {
+                            readData(parser, object);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        
+        if (id == null || type == null) {
+            throw new IOException("Webhook payload has no event id or type");
+        }
+        return new WebhookEnvelope(id, type, created, object[0], object[1], payload);
+    }
+    
+    private static void readData(JsonParser parser, String[] object) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("object".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String objectField = parser.getCurrentName();
+                    JsonToken objectValue = parser.nextToken();
+                    if ("id".equals(objectField) && objectValue == JsonToken.VALUE_STRING) {
+                        object[0] = parser.getText();
+                    } else if ("status".equals(objectField) && objectValue == JsonToken.VALUE_STRING) {
+                        object[1] = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    /**
+     * Stripe event.created, epoch seconds
+     */
+    public long getCreated() {
+        return created;
+    }
+    
+    /**
+     * data.object.id, e.g. the payment intent id; null if the event has none
+     */
+    public String getObjectId() {
+        return objectId;
+    }
+    
+    public String getObjectStatus() {
+        return objectStatus;
+    }
+    
+    public String getPayload() {
+        return payload;
+    }
+    
+    /**
+     * The fully deserialised event, parsed on first use
+     */
+    public Event getEvent() {
+        if (event == null) {
+            event = ApiResource.GSON.fromJson(payload, Event.class);
+        }
+        return event;
+    }
+}
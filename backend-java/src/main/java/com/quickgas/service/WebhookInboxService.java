@@ -0,0 +1,258 @@
+package com.quickgas.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.quickgas.concurrent.StripedExecutor;
+import com.quickgas.entity.WebhookDeadLetter;
+import com.quickgas.entity.WebhookEvent;
+import com.quickgas.repository.WebhookDeadLetterRepository;
+import com.quickgas.repository.WebhookEventRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Durable inbox for Stripe webhooks. The controller only verifies the signature and
+ * inserts the raw event; a worker pool runs {@link PaymentWebhookService#handleEvent}
+ * afterwards, so webhook latency does not depend on how busy the database is.
+ * Failed events are retried with backoff and end up in webhook_dead_letters.
+ * Redeliveries are dropped by Stripe event id, first against a bounded set of recently
+ * seen ids and then against the unique key on webhook_events.
+ * Events about the same object (usually a payment intent) run on the same executor
+ * stripe, so they are applied in order; different intents are processed in parallel.
+ */
+@Slf4j
+@Service
+public class WebhookInboxService {
+    
+    private static final int MAX_ERROR_LENGTH = 2000;
+    
+    private final WebhookEventRepository eventRepository;
+    private final WebhookDeadLetterRepository deadLetterRepository;
+    private final PaymentWebhookService webhookService;
+    private final TransactionTemplate transactionTemplate;
+    private final StripedExecutor webhookExecutor;
+    private final MeterRegistry meterRegistry;
+    
+    // Event ids stored recently; a hit skips the database entirely
+    private final Cache<String, Boolean> recentEventIds;
+    
+    @Value("${webhooks.inbox.max-attempts:8}")
+    private int maxAttempts;
+    
+    @Value("${webhooks.inbox.initial-backoff:PT5S}")
+    private Duration initialBackoff;
+    
+    @Value("${webhooks.inbox.max-backoff:PT30M}")
+    private Duration maxBackoff;
+    
+    @Value("${webhooks.inbox.stale-claim-timeout:PT5M}")
+    private Duration staleClaimTimeout;
+    
+    @Value("${webhooks.inbox.poll-batch-size:100}")
+    private int pollBatchSize;
+    
+    @Value("${webhooks.inbox.retention:P30D}")
+    private Duration retention;
+    
+    public WebhookInboxService(
+            WebhookEventRepository eventRepository,
+            WebhookDeadLetterRepository deadLetterRepository,
+            PaymentWebhookService webhookService,
+            TransactionTemplate transactionTemplate,
+            StripedExecutor webhookExecutor,
+            MeterRegistry meterRegistry,
+            @Value("${webhooks.dedup.recent-size:100000}") long recentSize,
+            @Value("${webhooks.dedup.recent-ttl:PT24H}") Duration recentTtl) {
+        this.eventRepository = eventRepository;
+        this.deadLetterRepository = deadLetterRepository;
+        this.webhookService = webhookService;
+        this.transactionTemplate = transactionTemplate;
+        this.webhookExecutor = webhookExecutor;
+        this.meterRegistry = meterRegistry;
+        this.recentEventIds = Caffeine.newBuilder()
+            .maximumSize(recentSize)
+            .expireAfterWrite(recentTtl)
+            .build();
+    }
+    
+    /**
+     * Persist a verified event and schedule it for processing. Once this returns the
+     * event is durable, so the webhook can be acknowledged.
+     * @return false if the event id was already received
+     */
+    public boolean enqueue(WebhookEnvelope event) {
+        String stripeEventId = event.getId();
+        if (recentEventIds.getIfPresent(stripeEventId) != null) {
+            meterRegistry.counter("webhooks.inbox.duplicates", "source", "memory").increment();
+            log.debug("Duplicate webhook event dropped: stripeEventId={}", stripeEventId);
+            return false;
+        }
+        
+        String orderingKey = orderingKey(event);
+        List<Long> inserted = eventRepository.insertIfAbsent(stripeEventId, event.getType(), orderingKey,
+            event.getPayload());
+        recentEventIds.put(stripeEventId, Boolean.TRUE);
+        if (inserted.isEmpty()) {
+            meterRegistry.counter("webhooks.inbox.duplicates", "source", "database").increment();
+            log.info("Duplicate webhook event dropped: stripeEventId={}", stripeEventId);
+            return false;
+        }
+        
+        Long id = inserted.get(0);
+        meterRegistry.counter("webhooks.inbox.received", "type", event.getType()).increment();
+        
+        try {
+            webhookExecutor.execute(orderingKey, () -> processIfPending(id));
+        } catch (RejectedExecutionException e) {
+            // Worker pool saturated; the poller picks the event up from the table
+            log.warn("Webhook worker pool full, deferring event: id={}, stripeEventId={}",
+                id, stripeEventId);
+        }
+        return true;
+    }
+    
+    /**
+     * Recover events that were deferred, are due for retry, or whose worker died
+     */
+    @Scheduled(fixedDelayString = "${webhooks.inbox.poll-interval:PT5S}")
+    public void pollPending() {
+        List<Long> claimed;
+        try {
+            claimed = transactionTemplate.execute(status -> {
+                List<Long> ids = eventRepository.lockClaimable(
+                    LocalDateTime.now().minus(staleClaimTimeout), pollBatchSize);
+                if (!ids.isEmpty()) {
+                    eventRepository.claimAll(ids);
+                }
+                return ids;
+            });
+        } catch (Exception e) {
+            log.error("Failed to poll webhook inbox: {}", e.getMessage());
+            return;
+        }
+        
+        if (claimed.isEmpty()) {
+            return;
+        }
+        
+        // Dispatch in id order so events for the same intent keep their arrival order
+        List<WebhookEvent> events = new ArrayList<>(eventRepository.findAllById(claimed));
+        events.sort(Comparator.comparing(WebhookEvent::getId));
+        for (WebhookEvent event : events) {
+            try {
+                webhookExecutor.execute(dispatchKey(event), () -> process(event.getId()));
+            } catch (RejectedExecutionException e) {
+                eventRepository.release(event.getId());
+            }
+        }
+    }
+    
+    /**
+     * Processed events only need to outlive Stripe's redelivery window to de-duplicate
+     */
+    @Scheduled(cron = "${webhooks.inbox.purge-cron:0 15 4 * * *}")
+    public void purgeProcessed() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+        long purged = 0;
+        int deleted;
+        do {
+            deleted = eventRepository.deleteProcessedBefore(cutoff, 1000);
+            purged += deleted;
+        } while (deleted > 0);
+        if (purged > 0) {
+            log.info("Purged processed webhook events: count={}, cutoff={}", purged, cutoff);
+        }
+    }
+    
+    /**
+     * Id of the object the event is about, so events for one payment intent share a stripe
+     */
+    static String orderingKey(WebhookEnvelope event) {
+        return event.getObjectId() != null ? event.getObjectId() : event.getId();
+    }
+    
+    private static String dispatchKey(WebhookEvent event) {
+        return event.getOrderingKey() != null ? event.getOrderingKey() : event.getStripeEventId();
+    }
+    
+    private void processIfPending(Long id) {
+        if (eventRepository.claim(id) == 0) {
+            // Already taken by the poller
+            return;
+        }
+        process(id);
+    }
+    
+    private void process(Long id) {
+        WebhookEvent inboxEvent = eventRepository.findById(id).orElse(null);
+        if (inboxEvent == null) {
+            return;
+        }
+        
+        try {
+            WebhookEnvelope event = WebhookEnvelope.parse(inboxEvent.getPayload());
+            // The handler's writes and the ack commit together, so a crash in between retries both
+            transactionTemplate.executeWithoutResult(status -> {
+                webhookService.handleEvent(event);
+                eventRepository.markProcessed(id);
+            });
+            meterRegistry.counter("webhooks.inbox.events", "outcome", "processed").increment();
+            meterRegistry.timer("webhooks.inbox.lag").record(
+                Duration.between(inboxEvent.getReceivedAt(), LocalDateTime.now()));
+        } catch (Exception e) {
+            handleFailure(inboxEvent, e);
+        }
+    }
+    
+    private void handleFailure(WebhookEvent inboxEvent, Exception failure) {
+        String error = truncate(failure.getClass().getSimpleName() + ": " + failure.getMessage());
+        int attempts = inboxEvent.getAttempts();
+        
+        if (attempts < maxAttempts) {
+            Duration backoff = backoff(attempts);
+            eventRepository.scheduleRetry(inboxEvent.getId(), error, LocalDateTime.now().plus(backoff));
+            meterRegistry.counter("webhooks.inbox.events", "outcome", "retry").increment();
+            log.warn("Webhook event failed, retrying in {}: id={}, stripeEventId={}, attempt={}, error={}",
+                backoff, inboxEvent.getId(), inboxEvent.getStripeEventId(), attempts, error);
+            return;
+        }
+        
+        transactionTemplate.executeWithoutResult(status -> {
+            deadLetterRepository.save(WebhookDeadLetter.builder()
+                .webhookEventId(inboxEvent.getId())
+                .stripeEventId(inboxEvent.getStripeEventId())
+                .eventType(inboxEvent.getEventType())
+                .payload(inboxEvent.getPayload())
+                .error(error)
+                .attempts(attempts)
+                .build());
+            eventRepository.markDeadLetter(inboxEvent.getId(), error);
+        });
+        meterRegistry.counter("webhooks.inbox.events", "outcome", "dead_letter").increment();
+        log.error("Webhook event moved to dead letters: id={}, stripeEventId={}, type={}, attempts={}, error={}",
+            inboxEvent.getId(), inboxEvent.getStripeEventId(), inboxEvent.getEventType(), attempts, error,
+            failure);
+    }
+    
+    private Duration backoff(int attempts) {
+        // Exponential: initial, 2x, 4x, ... capped at maxBackoff
+        long multiplier = 1L << Math.min(Math.max(attempts - 1, 0), 20);
+        Duration backoff = initialBackoff.multipliedBy(multiplier);
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+    
+    private static String truncate(String error) {
+        return error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+}
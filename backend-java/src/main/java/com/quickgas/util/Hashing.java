@@ -0,0 +1,36 @@
+package com.quickgas.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 helpers shared by image content hashing and payment request fingerprints
+ */
+public final class Hashing {
+    
+    private Hashing() {
+    }
+    
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * Finish the digest and return it as lowercase hex
+     */
+    public static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    public static String sha256Hex(String value) {
+        MessageDigest digest = newSha256();
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        return toHex(digest);
+    }
+}
@@ -0,0 +1,22 @@
+-- Keyset scan order for the image retention job (per type, oldest first)
+CREATE INDEX IF NOT EXISTS idx_images_type_created_id ON images(image_type, created_at, id);
+
+-- Images moved out of the hot table by an 'archive' retention policy.
+-- The blob stays referenced, so archived photos can still be retrieved.
+CREATE TABLE IF NOT EXISTS images_archive (
+    id VARCHAR(255) PRIMARY KEY,
+    order_id VARCHAR(255),
+    image_type VARCHAR(50) NOT NULL,
+    file_name VARCHAR(255) NOT NULL,
+    content_type VARCHAR(100) NOT NULL,
+    file_size BIGINT NOT NULL,
+    content_hash VARCHAR(64) NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    archived_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (order_id) REFERENCES orders(id) ON DELETE CASCADE,
+    FOREIGN KEY (content_hash) REFERENCES image_blobs(content_hash)
+);
+
+-- Indexes
+CREATE INDEX IF NOT EXISTS idx_images_archive_order_id ON images_archive(order_id);
+CREATE INDEX IF NOT EXISTS idx_images_archive_content_hash ON images_archive(content_hash);
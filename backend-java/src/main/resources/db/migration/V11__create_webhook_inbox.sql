@@ -0,0 +1,31 @@
+-- Verified Stripe webhook events, persisted before they are acknowledged and processed asynchronously
+CREATE TABLE IF NOT EXISTS webhook_events (
+    id BIGSERIAL PRIMARY KEY,
+    stripe_event_id VARCHAR(255) NOT NULL,
+    event_type VARCHAR(100) NOT NULL,
+    payload TEXT NOT NULL, -- raw verified request body
+    status VARCHAR(50) NOT NULL DEFAULT 'pending', -- 'pending', 'processing', 'processed', 'dead_letter'
+    attempts INTEGER NOT NULL DEFAULT 0,
+    last_error TEXT,
+    next_attempt_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    claimed_at TIMESTAMP, -- when a worker took the event; stale claims are retried
+    received_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    processed_at TIMESTAMP
+);
+
+-- Events that failed every processing attempt
+CREATE TABLE IF NOT EXISTS webhook_dead_letters (
+    id BIGSERIAL PRIMARY KEY,
+    webhook_event_id BIGINT NOT NULL REFERENCES webhook_events(id) ON DELETE CASCADE,
+    stripe_event_id VARCHAR(255) NOT NULL,
+    event_type VARCHAR(100) NOT NULL,
+    payload TEXT NOT NULL,
+    error TEXT,
+    attempts INTEGER NOT NULL,
+    failed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Indexes
+CREATE INDEX IF NOT EXISTS idx_webhook_events_pending ON webhook_events(next_attempt_at) WHERE status = 'pending';
+CREATE INDEX IF NOT EXISTS idx_webhook_events_processing ON webhook_events(claimed_at) WHERE status = 'processing';
+CREATE INDEX IF NOT EXISTS idx_webhook_dead_letters_stripe_event_id ON webhook_dead_letters(stripe_event_id);
@@ -0,0 +1,10 @@
+-- Stripe delivers events at least once: keep only the first delivery of each event id
+DELETE FROM webhook_events e
+USING webhook_events keeper
+WHERE e.stripe_event_id = keeper.stripe_event_id
+  AND e.id > keeper.id;
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_webhook_events_stripe_event_id ON webhook_events(stripe_event_id);
+
+-- Retention purge of processed events
+CREATE INDEX IF NOT EXISTS idx_webhook_events_processed_at ON webhook_events(processed_at) WHERE status = 'processed';
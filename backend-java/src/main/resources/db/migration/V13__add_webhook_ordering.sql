@@ -0,0 +1,6 @@
+-- Object the event is about (e.g. the payment intent id); events with the same key are processed in order
+ALTER TABLE webhook_events ADD COLUMN IF NOT EXISTS ordering_key VARCHAR(255);
+
+-- Stripe event.created (epoch seconds) of the last webhook applied to the transaction,
+-- so an older event delivered late cannot overwrite a newer status
+ALTER TABLE payment_transactions ADD COLUMN IF NOT EXISTS last_event_created BIGINT;
@@ -0,0 +1,15 @@
+-- Responses of createPaymentIntent by (user, client idempotency key), replayed to retries
+CREATE TABLE IF NOT EXISTS payment_idempotency_keys (
+    id BIGSERIAL PRIMARY KEY,
+    user_id VARCHAR(255) NOT NULL,
+    idempotency_key VARCHAR(255) NOT NULL,
+    request_fingerprint VARCHAR(64) NOT NULL, -- SHA-256 of amount, currency and metadata
+    payment_intent_id VARCHAR(255) NOT NULL,
+    client_secret VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL,
+    UNIQUE (user_id, idempotency_key)
+);
+
+-- Indexes
+CREATE INDEX IF NOT EXISTS idx_payment_idempotency_keys_expires_at ON payment_idempotency_keys(expires_at);
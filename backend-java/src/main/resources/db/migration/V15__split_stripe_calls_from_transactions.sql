@@ -0,0 +1,13 @@
+-- Payment transactions are recorded before the Stripe call ('creating') and linked to the
+-- payment intent afterwards, so the intent id is not known when the row is first written
+ALTER TABLE payment_transactions ALTER COLUMN stripe_payment_intent_id DROP NOT NULL;
+ALTER TABLE payment_transactions ADD COLUMN IF NOT EXISTS reference VARCHAR(64);
+CREATE UNIQUE INDEX IF NOT EXISTS idx_payment_transactions_reference ON payment_transactions(reference);
+CREATE INDEX IF NOT EXISTS idx_payment_transactions_creating
+    ON payment_transactions(created_at) WHERE status = 'creating';
+
+-- Driver payouts move pending -> transfer_pending before the Stripe transfer is created;
+-- the attempt number is part of the Stripe idempotency key
+ALTER TABLE driver_payments ADD COLUMN IF NOT EXISTS payout_attempts INTEGER NOT NULL DEFAULT 0;
+CREATE INDEX IF NOT EXISTS idx_driver_payments_transfer_pending
+    ON driver_payments(updated_at) WHERE status = 'transfer_pending';
@@ -0,0 +1,29 @@
+-- Batched payout mode: a driver's pending payments are settled with one Stripe transfer
+-- per window instead of one per order; each payment row links to the batch that paid it
+CREATE TABLE IF NOT EXISTS driver_payout_batches (
+    id BIGSERIAL PRIMARY KEY,
+    driver_id VARCHAR(255) NOT NULL,
+    stripe_account_id VARCHAR(255) NOT NULL,
+    currency VARCHAR(10) NOT NULL,
+    amount DECIMAL(12, 2) NOT NULL DEFAULT 0,
+    payment_count INTEGER NOT NULL DEFAULT 0,
+    status VARCHAR(50) NOT NULL DEFAULT 'transfer_pending',
+    stripe_transfer_id VARCHAR(255),
+    paid_at TIMESTAMP,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_driver_payout_batches_driver_id ON driver_payout_batches(driver_id, created_at DESC);
+CREATE INDEX IF NOT EXISTS idx_driver_payout_batches_transfer_pending
+    ON driver_payout_batches(updated_at) WHERE status = 'transfer_pending';
+
+CREATE TRIGGER update_driver_payout_batches_updated_at BEFORE UPDATE ON driver_payout_batches
+    FOR EACH ROW EXECUTE FUNCTION update_updated_at_column();
+
+ALTER TABLE driver_payments ADD COLUMN IF NOT EXISTS payout_batch_id BIGINT REFERENCES driver_payout_batches(id);
+CREATE INDEX IF NOT EXISTS idx_driver_payments_payout_batch_id
+    ON driver_payments(payout_batch_id) WHERE payout_batch_id IS NOT NULL;
+-- Settlement groups pending rows by driver and currency
+CREATE INDEX IF NOT EXISTS idx_driver_payments_pending_driver
+    ON driver_payments(driver_id, currency) WHERE status = 'pending';
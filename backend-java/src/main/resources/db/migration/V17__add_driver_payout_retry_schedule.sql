@@ -0,0 +1,5 @@
+-- Background payout worker: failed or deferred payouts are retried with backoff
+ALTER TABLE driver_payments ADD COLUMN IF NOT EXISTS next_attempt_at TIMESTAMP;
+CREATE INDEX IF NOT EXISTS idx_driver_payments_payable
+    ON driver_payments(next_attempt_at NULLS FIRST, id)
+    WHERE status IN ('pending', 'failed') AND payout_batch_id IS NULL;
@@ -0,0 +1,62 @@
+-- Per-driver, per-day earnings kept up to date by a trigger in the same transaction as
+-- every driver_payments write, so the earnings summary reads O(days) rows instead of
+-- every payment. 'paid' is settled money; 'pending' is everything not paid yet.
+CREATE TABLE IF NOT EXISTS driver_earnings_daily (
+    driver_id VARCHAR(255) NOT NULL,
+    day DATE NOT NULL,
+    currency VARCHAR(10) NOT NULL,
+    payment_count INTEGER NOT NULL DEFAULT 0,
+    gross_amount DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    paid_amount DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    pending_amount DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    PRIMARY KEY (driver_id, day, currency)
+);
+
+CREATE OR REPLACE FUNCTION apply_driver_earnings_delta(
+    p_driver_id VARCHAR, p_day DATE, p_currency VARCHAR, p_sign INTEGER, p_amount DECIMAL, p_status VARCHAR)
+RETURNS VOID AS $$
+BEGIN
+    INSERT INTO driver_earnings_daily AS d
+        (driver_id, day, currency, payment_count, gross_amount, paid_amount, pending_amount)
+    VALUES (p_driver_id, p_day, p_currency, p_sign, p_sign * p_amount,
+            CASE WHEN p_status = 'paid' THEN p_sign * p_amount ELSE 0 END,
+            CASE WHEN p_status = 'paid' THEN 0 ELSE p_sign * p_amount END)
+    ON CONFLICT (driver_id, day, currency) DO UPDATE SET
+        payment_count = d.payment_count + EXCLUDED.payment_count,
+        gross_amount = d.gross_amount + EXCLUDED.gross_amount,
+        paid_amount = d.paid_amount + EXCLUDED.paid_amount,
+        pending_amount = d.pending_amount + EXCLUDED.pending_amount;
+END;
+$$ language 'plpgsql';
+
+CREATE OR REPLACE FUNCTION maintain_driver_earnings_daily()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'UPDATE'
+            AND OLD.driver_id = NEW.driver_id AND OLD.currency = NEW.currency AND OLD.amount = NEW.amount
+            AND OLD.created_at::date = NEW.created_at::date
+            AND (OLD.status = 'paid') = (NEW.status = 'paid') THEN
+        -- Bookkeeping-only update (attempts, transfer ids, pending -> transfer_pending, ...)
+        RETURN NULL;
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM apply_driver_earnings_delta(OLD.driver_id, OLD.created_at::date, OLD.currency, -1, OLD.amount, OLD.status);
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM apply_driver_earnings_delta(NEW.driver_id, NEW.created_at::date, NEW.currency, 1, NEW.amount, NEW.status);
+    END IF;
+    RETURN NULL;
+END;
+$$ language 'plpgsql';
+
+CREATE TRIGGER maintain_driver_earnings_daily AFTER INSERT OR UPDATE OR DELETE ON driver_payments
+    FOR EACH ROW EXECUTE FUNCTION maintain_driver_earnings_daily();
+
+-- Backfill from existing payments
+INSERT INTO driver_earnings_daily (driver_id, day, currency, payment_count, gross_amount, paid_amount, pending_amount)
+SELECT driver_id, created_at::date, currency, COUNT(*), SUM(amount),
+       SUM(CASE WHEN status = 'paid' THEN amount ELSE 0 END),
+       SUM(CASE WHEN status = 'paid' THEN 0 ELSE amount END)
+FROM driver_payments
+GROUP BY driver_id, created_at::date, currency
+ON CONFLICT (driver_id, day, currency) DO NOTHING;
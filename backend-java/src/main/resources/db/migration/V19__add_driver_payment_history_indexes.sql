@@ -0,0 +1,6 @@
+-- Keyset pagination of a driver's payment history on (created_at, id), newest first;
+-- the row-value comparison in the page query is answered by a single index range scan
+CREATE INDEX IF NOT EXISTS idx_driver_payments_driver_history
+    ON driver_payments(driver_id, created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_driver_payments_driver_status_history
+    ON driver_payments(driver_id, status, created_at DESC, id DESC);
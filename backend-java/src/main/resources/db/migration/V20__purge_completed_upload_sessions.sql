@@ -0,0 +1,3 @@
+-- The purge job now removes expired sessions in any status, so it looks them up by expiry alone
+DROP INDEX IF EXISTS idx_image_upload_sessions_expires_at;
+CREATE INDEX IF NOT EXISTS idx_image_upload_sessions_expires_at ON image_upload_sessions(expires_at);
@@ -0,0 +1,30 @@
+-- Release blob references in the database whenever an images or images_archive row goes away,
+-- including rows removed by ON DELETE CASCADE from orders, which never pass through the
+-- application. Blobs are deleted once nothing references them. New images rows still take
+-- their reference in the application, which has to create the blob before the row anyway;
+-- archived rows take theirs here, so moving a row into the archive is reference-neutral.
+CREATE OR REPLACE FUNCTION maintain_image_blob_refs()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        UPDATE image_blobs SET ref_count = ref_count + 1 WHERE content_hash = NEW.content_hash;
+        RETURN NULL;
+    END IF;
+    UPDATE image_blobs SET ref_count = ref_count - 1 WHERE content_hash = OLD.content_hash;
+    DELETE FROM image_blobs WHERE content_hash = OLD.content_hash AND ref_count <= 0;
+    RETURN NULL;
+END;
+$$ language 'plpgsql';
+
+CREATE TRIGGER release_image_blob_ref AFTER DELETE ON images
+    FOR EACH ROW EXECUTE FUNCTION maintain_image_blob_refs();
+
+CREATE TRIGGER maintain_archived_image_blob_ref AFTER INSERT OR DELETE ON images_archive
+    FOR EACH ROW EXECUTE FUNCTION maintain_image_blob_refs();
+
+-- Repair counts leaked by orders deleted before the triggers existed
+UPDATE image_blobs b
+SET ref_count = (SELECT COUNT(*) FROM images i WHERE i.content_hash = b.content_hash)
+              + (SELECT COUNT(*) FROM images_archive a WHERE a.content_hash = b.content_hash);
+
+DELETE FROM image_blobs WHERE ref_count <= 0;
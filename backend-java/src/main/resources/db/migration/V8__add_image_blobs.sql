@@ -0,0 +1,55 @@
+-- Content-addressed image storage: identical uploads share one blob
+CREATE TABLE IF NOT EXISTS image_blobs (
+    content_hash VARCHAR(64) PRIMARY KEY, -- hex SHA-256 of the bytes as uploaded
+    data BYTEA NOT NULL,
+    size BIGINT NOT NULL,
+    ref_count INTEGER NOT NULL DEFAULT 0, -- number of images rows pointing at this blob
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE images ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
+
+-- Backfill hashes for existing rows
+UPDATE images SET content_hash = encode(sha256(image_data), 'hex') WHERE content_hash IS NULL;
+
+-- Collapse retried uploads (same order, type and content) onto the first copy
+UPDATE orders o
+SET delivery_photo_id = d.keeper_id
+FROM (
+    SELECT id, FIRST_VALUE(id) OVER (
+        PARTITION BY order_id, image_type, content_hash ORDER BY created_at, id) AS keeper_id
+    FROM images
+    WHERE order_id IS NOT NULL
+) d
+WHERE o.delivery_photo_id = d.id AND d.id <> d.keeper_id;
+
+DELETE FROM images i
+USING (
+    SELECT id, FIRST_VALUE(id) OVER (
+        PARTITION BY order_id, image_type, content_hash ORDER BY created_at, id) AS keeper_id
+    FROM images
+    WHERE order_id IS NOT NULL
+) d
+WHERE i.id = d.id AND d.id <> d.keeper_id;
+
+-- Move image bytes into blobs
+INSERT INTO image_blobs (content_hash, data, size, ref_count)
+SELECT DISTINCT ON (content_hash) content_hash, image_data, octet_length(image_data), 0
+FROM images
+ORDER BY content_hash
+ON CONFLICT (content_hash) DO NOTHING;
+
+UPDATE image_blobs b
+SET ref_count = r.refs
+FROM (SELECT content_hash, COUNT(*) AS refs FROM images GROUP BY content_hash) r
+WHERE b.content_hash = r.content_hash;
+
+ALTER TABLE images ALTER COLUMN content_hash SET NOT NULL;
+ALTER TABLE images
+    ADD CONSTRAINT fk_images_content_hash
+        FOREIGN KEY (content_hash) REFERENCES image_blobs(content_hash);
+ALTER TABLE images DROP COLUMN IF EXISTS image_data;
+
+-- Indexes
+CREATE UNIQUE INDEX IF NOT EXISTS uq_images_order_type_hash ON images(order_id, image_type, content_hash);
+CREATE INDEX IF NOT EXISTS idx_images_content_hash ON images(content_hash);
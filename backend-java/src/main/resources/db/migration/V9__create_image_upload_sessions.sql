@@ -0,0 +1,33 @@
+-- Resumable chunked image uploads
+CREATE TABLE IF NOT EXISTS image_upload_sessions (
+    id VARCHAR(255) PRIMARY KEY,
+    order_id VARCHAR(255),
+    image_type VARCHAR(50) NOT NULL,
+    file_name VARCHAR(255) NOT NULL,
+    content_type VARCHAR(100) NOT NULL,
+    total_size BIGINT NOT NULL,
+    received_bytes BIGINT NOT NULL DEFAULT 0,
+    expected_hash VARCHAR(64), -- optional client-supplied SHA-256, verified on completion
+    status VARCHAR(50) NOT NULL DEFAULT 'uploading', -- 'uploading', 'completed'
+    image_id VARCHAR(255), -- resulting images.id once completed
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL
+);
+
+-- Chunks received so far, addressed by their byte offset in the file
+CREATE TABLE IF NOT EXISTS image_upload_chunks (
+    id BIGSERIAL PRIMARY KEY,
+    upload_id VARCHAR(255) NOT NULL REFERENCES image_upload_sessions(id) ON DELETE CASCADE,
+    chunk_offset BIGINT NOT NULL,
+    size INTEGER NOT NULL,
+    data BYTEA NOT NULL,
+    UNIQUE (upload_id, chunk_offset)
+);
+
+-- Indexes
+CREATE INDEX IF NOT EXISTS idx_image_upload_sessions_expires_at ON image_upload_sessions(status, expires_at);
+
+-- Trigger to update updated_at
+CREATE TRIGGER update_image_upload_sessions_updated_at BEFORE UPDATE ON image_upload_sessions
+    FOR EACH ROW EXECUTE FUNCTION update_updated_at_column();
@@ -0,0 +1,214 @@
+package com.quickgas.events;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class DomainEventBusTest {
+    
+    private final List<DomainEventBus> buses = new ArrayList<>();
+    
+    @AfterEach
+    void stopBuses() throws InterruptedException {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        for (DomainEventBus bus : buses) {
+            bus.stop();
+        }
+    }
+    
+    @Test
+    void deliversEveryEventInOrderAcrossBufferWraps() {
+        RecordingConsumer fast = new RecordingConsumer("fast");
+        RecordingConsumer other = new RecordingConsumer("other");
+        DomainEventBus bus = start(4, fast, other);
+        
+        for (int i = 0; i < 200; i++) {
+            assertThat(bus.publish(succeeded("pi_" + i))).isTrue();
+        }
+        
+        await().atMost(Duration.ofSeconds(5)).until(() -> fast.received.size() == 200 && other.received.size() == 200);
+        List<String> expected = IntStream.range(0, 200).mapToObj(i -> "pi_" + i).toList();
+        assertThat(fast.intentIds()).isEqualTo(expected);
+        assertThat(other.intentIds()).isEqualTo(expected);
+    }
+    
+    @Test
+    void dropsEventsOnceTheSlowestConsumerIsAFullBufferBehind() {
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingConsumer slow = new BlockingConsumer(release);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DomainEventBus bus = start(4, meterRegistry, slow);
+        
+        // The consumer holds the first event's slot inside onEvents; three more fill the buffer
+        assertThat(bus.publish(succeeded("pi_0"))).isTrue();
+        await().atMost(Duration.ofSeconds(5)).until(() -> slow.entered.getCount() == 0);
+        for (int i = 1; i <= 3; i++) {
+            assertThat(bus.publish(succeeded("pi_" + i))).isTrue();
+        }
+        
+        long start = System.nanoTime();
+        assertThat(bus.publish(succeeded("pi_dropped"))).isFalse();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(50));
+        assertThat(meterRegistry.counter("events.bus.dropped").count()).isEqualTo(1);
+        
+        release.countDown();
+        await().atMost(Duration.ofSeconds(5)).until(() -> slow.received.size() == 4);
+        assertThat(bus.publish(succeeded("pi_4"))).isTrue();
+        await().atMost(Duration.ofSeconds(5)).until(() -> slow.received.size() == 5);
+        assertThat(slow.intentIds()).containsExactly("pi_0", "pi_1", "pi_2", "pi_3", "pi_4");
+    }
+    
+    @Test
+    void idleConsumerWakesUpOnPublish() throws InterruptedException {
+        RecordingConsumer consumer = new RecordingConsumer("recording");
+        DomainEventBus bus = start(8, consumer);
+        
+        // Long enough for the consumer to be parked rather than polling
+        Thread.sleep(100);
+        bus.publish(succeeded("pi_1"));
+        
+        await().atMost(Duration.ofSeconds(1)).until(() -> consumer.received.size() == 1);
+    }
+    
+    @Test
+    void stopDrainsPublishedEvents() throws InterruptedException {
+        RecordingConsumer consumer = new RecordingConsumer("recording");
+        DomainEventBus bus = start(16, consumer);
+        for (int i = 0; i < 10; i++) {
+            bus.publish(succeeded("pi_" + i));
+        }
+        
+        bus.stop();
+        
+        assertThat(consumer.received).hasSize(10);
+        assertThat(bus.publish(succeeded("pi_late"))).isFalse();
+    }
+    
+    @Test
+    void rejectsBufferSizeThatIsNotAPowerOfTwo() {
+        assertThatThrownBy(() -> new DomainEventBus(List.of(), new SimpleMeterRegistry(), 100, 100,
+            Duration.ofMillis(50), Duration.ofMillis(1)))
+            .isInstanceOf(IllegalStateException.class);
+    }
+    
+    @Test
+    void publishAfterCommitWaitsForTheTransaction() {
+        RecordingConsumer consumer = new RecordingConsumer("recording");
+        DomainEventBus bus = start(8, consumer);
+        
+        TransactionSynchronizationManager.initSynchronization();
+        bus.publishAfterCommit(succeeded("pi_1"));
+        assertThat(bus.publish(succeeded("pi_2"))).isTrue();
+        await().atMost(Duration.ofSeconds(5)).until(() -> consumer.received.size() == 1);
+        
+        TransactionSynchronizationUtils.triggerAfterCommit();
+        TransactionSynchronizationManager.clearSynchronization();
+        
+        await().atMost(Duration.ofSeconds(5)).until(() -> consumer.received.size() == 2);
+        assertThat(consumer.intentIds()).containsExactly("pi_2", "pi_1");
+    }
+    
+    @Test
+    void publishAfterCommitDropsEventsOfRolledBackTransactions() throws InterruptedException {
+        RecordingConsumer consumer = new RecordingConsumer("recording");
+        DomainEventBus bus = start(8, consumer);
+        
+        TransactionSynchronizationManager.initSynchronization();
+        bus.publishAfterCommit(succeeded("pi_1"));
+        // Rolled back: the synchronization ends without afterCommit
+        TransactionSynchronizationManager.clearSynchronization();
+        bus.publish(succeeded("pi_2"));
+        
+        await().atMost(Duration.ofSeconds(5)).until(() -> consumer.received.size() == 1);
+        Thread.sleep(50);
+        assertThat(consumer.intentIds()).containsExactly("pi_2");
+    }
+    
+    @Test
+    void publishAfterCommitWithoutTransactionPublishesImmediately() {
+        RecordingConsumer consumer = new RecordingConsumer("recording");
+        DomainEventBus bus = start(8, consumer);
+        
+        bus.publishAfterCommit(succeeded("pi_1"));
+        
+        await().atMost(Duration.ofSeconds(5)).until(() -> consumer.received.size() == 1);
+    }
+    
+    private DomainEventBus start(int bufferSize, DomainEventConsumer... consumers) {
+        return start(bufferSize, new SimpleMeterRegistry(), consumers);
+    }
+    
+    private DomainEventBus start(int bufferSize, SimpleMeterRegistry meterRegistry, DomainEventConsumer... consumers) {
+        DomainEventBus bus = new DomainEventBus(List.of(consumers), meterRegistry, bufferSize, 100,
+            Duration.ofMillis(50), Duration.ofMillis(1));
+        bus.start();
+        buses.add(bus);
+        return bus;
+    }
+    
+    private static DomainEvent.PaymentSucceeded succeeded(String paymentIntentId) {
+        return new DomainEvent.PaymentSucceeded(paymentIntentId, 1L, Instant.now());
+    }
+    
+    private static class BlockingConsumer extends RecordingConsumer {
+        private final CountDownLatch release;
+        final CountDownLatch entered = new CountDownLatch(1);
+        
+        BlockingConsumer(CountDownLatch release) {
+            super("blocking");
+            this.release = release;
+        }
+        
+        @Override
+        public void onEvents(List<DomainEvent> events) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.onEvents(events);
+        }
+    }
+    
+    private static class RecordingConsumer implements DomainEventConsumer {
+        private final String name;
+        final List<DomainEvent> received = new CopyOnWriteArrayList<>();
+        
+        RecordingConsumer(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public String getName() {
+            return name;
+        }
+        
+        @Override
+        public void onEvents(List<DomainEvent> events) {
+            received.addAll(events);
+        }
+        
+        List<String> intentIds() {
+            return received.stream()
+                .map(event -> ((DomainEvent.PaymentSucceeded) event).paymentIntentId())
+                .toList();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.quickgas.money;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MoneyTest {
+    
+    @Test
+    void twoDecimalCurrencyRoundsHalfUpToCents() {
+        assertThat(Money.ofMajor(new BigDecimal("12.34"), "usd").minorUnits()).isEqualTo(1234);
+        assertThat(Money.ofMajor(new BigDecimal("12.345"), "usd").minorUnits()).isEqualTo(1235);
+        assertThat(Money.ofMajor(new BigDecimal("12.344"), "eur").minorUnits()).isEqualTo(1234);
+        assertThat(Money.ofMajor(new BigDecimal("0.004"), "usd").isPositive()).isFalse();
+    }
+    
+    @Test
+    void zeroDecimalCurrencyUsesWholeUnits() {
+        assertThat(Money.fractionDigits("jpy")).isZero();
+        assertThat(Money.ofMajor(new BigDecimal("1000"), "jpy").minorUnits()).isEqualTo(1000);
+        assertThat(Money.ofMajor(new BigDecimal("999.5"), "JPY").minorUnits()).isEqualTo(1000);
+        assertThat(Money.ofMajor(new BigDecimal("999.49"), "krw").minorUnits()).isEqualTo(999);
+        assertThat(Money.ofMinor(1000, "jpy").toMajor()).isEqualByComparingTo("1000");
+        assertThat(Money.ofMinor(1000, "jpy").toMajor().scale()).isZero();
+    }
+    
+    @Test
+    void threeDecimalCurrencyUsesThousandths() {
+        assertThat(Money.fractionDigits("kwd")).isEqualTo(3);
+        assertThat(Money.ofMajor(new BigDecimal("1.2345"), "kwd").minorUnits()).isEqualTo(1235);
+        assertThat(Money.ofMajor(new BigDecimal("1.2344"), "bhd").minorUnits()).isEqualTo(1234);
+        assertThat(Money.ofMinor(1234, "kwd").toMajor()).isEqualTo(new BigDecimal("1.234"));
+    }
+    
+    @Test
+    void currencyIsNormalisedToLowerCase() {
+        Money money = Money.ofMinor(100, "USD");
+        
+        assertThat(money.currency()).isEqualTo("usd");
+        assertThat(money).isEqualTo(Money.ofMinor(100, "usd"));
+        assertThat(money.toString()).isEqualTo("1.00 usd");
+    }
+    
+    @Test
+    void percentageRoundsHalfUpToWholeMinorUnits() {
+        // 80% of 12.345 usd: 987.6 cents
+        assertThat(Money.ofMinor(1235, "usd").percentage(8000).minorUnits()).isEqualTo(988);
+        // 80% of 1001 jpy: 800.8 yen
+        assertThat(Money.ofMinor(1001, "jpy").percentage(8000).minorUnits()).isEqualTo(801);
+        // Exactly half a unit rounds up
+        assertThat(Money.ofMinor(5, "usd").percentage(5000).minorUnits()).isEqualTo(3);
+        // 80% of 1.005 kwd: 804 thousandths
+        assertThat(Money.ofMinor(1005, "kwd").percentage(8000).minorUnits()).isEqualTo(804);
+    }
+    
+    @Test
+    void arithmeticRequiresTheSameCurrency() {
+        Money usd = Money.ofMinor(100, "usd");
+        
+        assertThat(usd.plus(Money.ofMinor(50, "usd")).minorUnits()).isEqualTo(150);
+        assertThat(usd.isGreaterThan(Money.ofMinor(99, "usd"))).isTrue();
+        assertThatThrownBy(() -> usd.plus(Money.ofMinor(100, "jpy"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> usd.compareTo(Money.ofMinor(100, "eur"))).isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    @Test
+    void rejectsInvalidInput() {
+        assertThatThrownBy(() -> Money.ofMinor(1, "us")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Money.ofMajor(null, "usd")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Money.ofMinor(Long.MAX_VALUE, "usd").plus(Money.ofMinor(1, "usd")))
+            .isInstanceOf(ArithmeticException.class);
+    }
+}
@@ -0,0 +1,176 @@
+package com.quickgas.repository;
+
+import com.quickgas.support.TestPostgres;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The V18 trigger keeps driver_earnings_daily equal to an aggregate over driver_payments
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class DriverEarningsDailyTriggerTest {
+    
+    private static final LocalDateTime DAY_1 = LocalDateTime.of(2026, 3, 1, 10, 0);
+    private static final LocalDateTime DAY_2 = LocalDateTime.of(2026, 3, 2, 23, 30);
+    
+    @Container
+    private static final PostgreSQLContainer<?> postgres = TestPostgres.container();
+    
+    private static JdbcTemplate jdbcTemplate;
+    
+    @BeforeAll
+    static void migrate() {
+        jdbcTemplate = new JdbcTemplate(TestPostgres.migrate(postgres, "17"));
+        // Written before the trigger existed; V18 backfills them
+        insert("driver-old", "usd", "10.00", "paid", DAY_1);
+        insert("driver-old", "usd", "5.50", "pending", DAY_1);
+        insert("driver-old", "usd", "2.00", "failed", DAY_1.plusHours(12));
+        insert("driver-old", "jpy", "1000", "pending", DAY_1);
+        TestPostgres.migrate(postgres, "latest");
+    }
+    
+    @BeforeEach
+    void deleteTestPayments() {
+        // Through the trigger, so the summary stays consistent
+        jdbcTemplate.update("DELETE FROM driver_payments WHERE driver_id <> 'driver-old'");
+    }
+    
+    @Test
+    void migrationBackfillsExistingPayments() {
+        assertDay("driver-old", DAY_1, "usd", 3, "17.50", "10.00", "7.50");
+        assertDay("driver-old", DAY_1, "jpy", 1, "1000.00", "0.00", "1000.00");
+        assertThat(jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM driver_earnings_daily WHERE driver_id = 'driver-old'", Integer.class)).isEqualTo(2);
+        assertMatchesPayments();
+    }
+    
+    @Test
+    void insertAddsToTheDayOfCreation() {
+        insert("driver-a", "usd", "10.00", "pending", DAY_1);
+        insert("driver-a", "usd", "4.25", "paid", DAY_1);
+        insert("driver-a", "usd", "3.00", "pending", DAY_2);
+        insert("driver-b", "usd", "1.00", "pending", DAY_1);
+        
+        assertDay("driver-a", DAY_1, "usd", 2, "14.25", "4.25", "10.00");
+        assertDay("driver-a", DAY_2, "usd", 1, "3.00", "0.00", "3.00");
+        assertDay("driver-b", DAY_1, "usd", 1, "1.00", "0.00", "1.00");
+        assertMatchesPayments();
+    }
+    
+    @Test
+    void payingMovesTheAmountFromPendingToPaid() {
+        long id = insert("driver-a", "usd", "10.00", "pending", DAY_1);
+        insert("driver-a", "usd", "2.00", "pending", DAY_1);
+        
+        jdbcTemplate.update("UPDATE driver_payments SET status = 'transfer_pending', payout_attempts = 1 WHERE id = ?", id);
+        assertDay("driver-a", DAY_1, "usd", 2, "12.00", "0.00", "12.00");
+        
+        jdbcTemplate.update("UPDATE driver_payments SET status = 'paid', stripe_transfer_id = 'tr_1' WHERE id = ?", id);
+        assertDay("driver-a", DAY_1, "usd", 2, "12.00", "10.00", "2.00");
+        
+        // A reversed payout counts as unpaid again
+        jdbcTemplate.update("UPDATE driver_payments SET status = 'failed' WHERE id = ?", id);
+        assertDay("driver-a", DAY_1, "usd", 2, "12.00", "0.00", "12.00");
+        assertMatchesPayments();
+    }
+    
+    @Test
+    void amountDriverAndDayChangesMoveTheRow() {
+        long id = insert("driver-a", "usd", "10.00", "paid", DAY_1);
+        
+        jdbcTemplate.update("UPDATE driver_payments SET amount = 12.50 WHERE id = ?", id);
+        assertDay("driver-a", DAY_1, "usd", 1, "12.50", "12.50", "0.00");
+        
+        jdbcTemplate.update("UPDATE driver_payments SET driver_id = 'driver-b', created_at = ? WHERE id = ?",
+            Timestamp.valueOf(DAY_2), id);
+        assertDay("driver-a", DAY_1, "usd", 0, "0.00", "0.00", "0.00");
+        assertDay("driver-b", DAY_2, "usd", 1, "12.50", "12.50", "0.00");
+        assertMatchesPayments();
+    }
+    
+    @Test
+    void deleteSubtracts() {
+        long id = insert("driver-a", "usd", "10.00", "paid", DAY_1);
+        insert("driver-a", "usd", "3.00", "pending", DAY_1);
+        
+        jdbcTemplate.update("DELETE FROM driver_payments WHERE id = ?", id);
+        
+        assertDay("driver-a", DAY_1, "usd", 1, "3.00", "0.00", "3.00");
+        assertMatchesPayments();
+    }
+    
+    @Test
+    void rolledBackWritesLeaveNoDelta() throws Exception {
+        insert("driver-a", "usd", "3.00", "pending", DAY_1);
+        
+        try (Connection connection = jdbcTemplate.getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE driver_payments SET status = 'paid'");
+                statement.executeUpdate("INSERT INTO driver_payments (driver_id, order_id, amount, currency, status) "
+                    + "VALUES ('driver-a', 'order-x', 99.00, 'usd', 'pending')");
+            }
+            connection.rollback();
+        }
+        
+        assertDay("driver-a", DAY_1, "usd", 1, "3.00", "0.00", "3.00");
+        assertMatchesPayments();
+    }
+    
+    private static long insert(String driverId, String currency, String amount, String status, LocalDateTime createdAt) {
+        return jdbcTemplate.queryForObject("INSERT INTO driver_payments (driver_id, order_id, amount, currency, status, "
+                + "created_at, updated_at) VALUES (?, gen_random_uuid()::text, ?, ?, ?, ?, ?) RETURNING id", Long.class,
+            driverId, new BigDecimal(amount), currency, status, Timestamp.valueOf(createdAt), Timestamp.valueOf(createdAt));
+    }
+    
+    private static void assertDay(String driverId, LocalDateTime day, String currency, int count,
+                                  String gross, String paid, String pending) {
+        Map<String, Object> row = jdbcTemplate.queryForMap("SELECT payment_count, gross_amount, paid_amount, "
+                + "pending_amount FROM driver_earnings_daily WHERE driver_id = ? AND day = ? AND currency = ?",
+            driverId, day.toLocalDate(), currency);
+        assertThat(row.get("payment_count")).isEqualTo(count);
+        assertThat((BigDecimal) row.get("gross_amount")).isEqualByComparingTo(gross);
+        assertThat((BigDecimal) row.get("paid_amount")).isEqualByComparingTo(paid);
+        assertThat((BigDecimal) row.get("pending_amount")).isEqualByComparingTo(pending);
+    }
+    
+    /**
+     * The summary must equal a fresh aggregate, ignoring days whose payments all moved away
+     */
+    private static void assertMatchesPayments() {
+        Integer mismatches = jdbcTemplate.queryForObject("""
+            SELECT COUNT(*) FROM (
+                SELECT driver_id, day, currency, payment_count, gross_amount, paid_amount, pending_amount
+                FROM driver_earnings_daily WHERE payment_count <> 0
+                EXCEPT
+                SELECT driver_id, created_at::date, currency, COUNT(*)::int, SUM(amount),
+                       SUM(CASE WHEN status = 'paid' THEN amount ELSE 0 END),
+                       SUM(CASE WHEN status = 'paid' THEN 0 ELSE amount END)
+                FROM driver_payments GROUP BY driver_id, created_at::date, currency
+            ) diff
+            """, Integer.class);
+        Integer missing = jdbcTemplate.queryForObject("""
+            SELECT COUNT(*) FROM (
+                SELECT driver_id, created_at::date, currency FROM driver_payments
+                EXCEPT
+                SELECT driver_id, day, currency FROM driver_earnings_daily WHERE payment_count <> 0
+            ) diff
+            """, Integer.class);
+        assertThat(mismatches).isZero();
+        assertThat(missing).isZero();
+    }
+}
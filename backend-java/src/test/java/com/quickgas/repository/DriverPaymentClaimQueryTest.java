@@ -0,0 +1,151 @@
+package com.quickgas.repository;
+
+import com.quickgas.support.TestPostgres;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the payout worker's claim queries, as declared on {@link DriverPaymentRepository}, on Postgres
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class DriverPaymentClaimQueryTest {
+    
+    @Container
+    private static final PostgreSQLContainer<?> postgres = TestPostgres.container();
+    
+    private static DataSource dataSource;
+    private static String lockPayable;
+    private static String claimAll;
+    
+    private JdbcTemplate jdbcTemplate;
+    
+    @BeforeAll
+    static void migrate() throws Exception {
+        dataSource = TestPostgres.migrate(postgres, "latest");
+        lockPayable = DriverPaymentRepository.class
+            .getMethod("lockPayable", int.class, LocalDateTime.class, int.class)
+            .getAnnotation(Query.class).value();
+        claimAll = DriverPaymentRepository.class
+            .getMethod("claimAll", Collection.class)
+            .getAnnotation(Query.class).value();
+    }
+    
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("TRUNCATE driver_payments, driver_payout_batches, driver_earnings_daily, users CASCADE");
+        jdbcTemplate.update("INSERT INTO users (id, email, name, role, stripe_account_id) VALUES "
+            + "('driver-a', 'a@example.com', 'A', 'driver', 'acct_a'), "
+            + "('driver-b', 'b@example.com', 'B', 'driver', 'acct_b'), "
+            + "('driver-c', 'c@example.com', 'C', 'driver', NULL)");
+    }
+    
+    @Test
+    void selectsOnlyDueUnbatchedPaymentsOfConnectedDrivers() throws Exception {
+        long due = insert("driver-a", "pending", 0, null, null);
+        long failedDue = insert("driver-b", "failed", 2, LocalDateTime.now().minusMinutes(1), null);
+        insert("driver-a", "failed", 2, LocalDateTime.now().plusMinutes(5), null);
+        insert("driver-a", "failed", 8, null, null);
+        insert("driver-a", "paid", 1, null, null);
+        insert("driver-a", "transfer_pending", 1, null, null);
+        insert("driver-c", "pending", 0, null, null);
+        jdbcTemplate.update("INSERT INTO driver_payout_batches (id, driver_id, stripe_account_id, currency, status) "
+            + "VALUES (1, 'driver-a', 'acct_a', 'usd', 'transfer_pending')");
+        insert("driver-a", "pending", 0, null, 1L);
+        long recent = insert("driver-b", "pending", 0, null, null);
+        jdbcTemplate.update("UPDATE driver_payments SET updated_at = CURRENT_TIMESTAMP WHERE id = ?", recent);
+        
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            assertThat(lock(connection, 50)).containsExactly(due, failedDue);
+            connection.rollback();
+        }
+    }
+    
+    @Test
+    void concurrentPollersSkipEachOthersRows() throws Exception {
+        long first = insert("driver-a", "pending", 0, null, null);
+        long second = insert("driver-a", "pending", 0, null, null);
+        long third = insert("driver-b", "pending", 0, null, null);
+        
+        try (Connection one = dataSource.getConnection(); Connection two = dataSource.getConnection()) {
+            one.setAutoCommit(false);
+            two.setAutoCommit(false);
+            
+            assertThat(lock(one, 2)).containsExactly(first, second);
+            // Does not block on the rows locked by the first poller
+            named(two).getJdbcTemplate().execute("SET LOCAL lock_timeout = '1s'");
+            assertThat(lock(two, 50)).containsExactly(third);
+            
+            claim(one, List.of(first, second));
+            one.commit();
+            two.rollback();
+        }
+        
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT status, payout_attempts FROM driver_payments WHERE id IN (?, ?)", first, second);
+        assertThat(rows).allSatisfy(row -> {
+            assertThat(row.get("status")).isEqualTo("transfer_pending");
+            assertThat(row.get("payout_attempts")).isEqualTo(1);
+        });
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            assertThat(lock(connection, 50)).containsExactly(third);
+            connection.rollback();
+        }
+    }
+    
+    @Test
+    void claimSkipsRowsThatChangedAfterTheyWereSelected() throws Exception {
+        long paid = insert("driver-a", "pending", 0, null, null);
+        jdbcTemplate.update("UPDATE driver_payments SET status = 'paid' WHERE id = ?", paid);
+        
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            assertThat(claim(connection, List.of(paid))).isZero();
+            connection.commit();
+        }
+    }
+    
+    private List<Long> lock(Connection connection, int limit) {
+        return named(connection).queryForList(lockPayable, Map.of(
+            "maxAttempts", 8,
+            "idleSince", Timestamp.valueOf(LocalDateTime.now().minusMinutes(1)),
+            "limit", limit), Long.class);
+    }
+    
+    private int claim(Connection connection, List<Long> ids) {
+        return named(connection).update(claimAll, Map.of("ids", ids));
+    }
+    
+    private static NamedParameterJdbcTemplate named(Connection connection) {
+        return new NamedParameterJdbcTemplate(new SingleConnectionDataSource(connection, true));
+    }
+    
+    private long insert(String driverId, String status, int attempts, LocalDateTime nextAttemptAt, Long batchId) {
+        LocalDateTime idle = LocalDateTime.now().minusMinutes(10);
+        return jdbcTemplate.queryForObject("INSERT INTO driver_payments (driver_id, order_id, amount, currency, "
+                + "status, payout_attempts, next_attempt_at, payout_batch_id, created_at, updated_at) "
+                + "VALUES (?, gen_random_uuid()::text, 10.00, 'usd', ?, ?, ?, ?, ?, ?) RETURNING id", Long.class,
+            driverId, status, attempts, nextAttemptAt != null ? Timestamp.valueOf(nextAttemptAt) : null, batchId,
+            Timestamp.valueOf(idle), Timestamp.valueOf(idle));
+    }
+}
@@ -0,0 +1,98 @@
+package com.quickgas.repository;
+
+import com.quickgas.support.TestPostgres;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The V21 triggers release image_blobs references for every deleted images/images_archive row,
+ * including rows removed by ON DELETE CASCADE from orders
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ImageBlobRefTriggerTest {
+    
+    @Container
+    private static final PostgreSQLContainer<?> postgres = TestPostgres.container();
+    
+    private static JdbcTemplate jdbcTemplate;
+    
+    @BeforeAll
+    static void migrate() {
+        jdbcTemplate = new JdbcTemplate(TestPostgres.migrate(postgres, "20"));
+        jdbcTemplate.update("INSERT INTO users (id, email, name) VALUES ('customer-1', 'c1@example.com', 'Customer')");
+        // Leaked before the triggers existed: the order holding the second reference was deleted
+        insertOrder("order-old");
+        insertBlob("hash-leaked", 2);
+        insertImage("img-old", "order-old", "hash-leaked");
+        insertBlob("hash-orphan", 1);
+        TestPostgres.migrate(postgres, "latest");
+    }
+    
+    @Test
+    void migrationRepairsLeakedCounts() {
+        assertThat(refCount("hash-leaked")).isEqualTo(1);
+        assertThat(blobExists("hash-orphan")).isFalse();
+    }
+    
+    @Test
+    void deletingAnOrderReleasesItsImagesBlobReferences() {
+        insertOrder("order-a");
+        insertOrder("order-b");
+        insertBlob("hash-shared", 2);
+        insertImage("img-a", "order-a", "hash-shared");
+        insertImage("img-b", "order-b", "hash-shared");
+        
+        jdbcTemplate.update("DELETE FROM orders WHERE id = 'order-a'");
+        assertThat(refCount("hash-shared")).isEqualTo(1);
+        
+        jdbcTemplate.update("DELETE FROM orders WHERE id = 'order-b'");
+        assertThat(blobExists("hash-shared")).isFalse();
+    }
+    
+    @Test
+    void archivingKeepsTheReferenceUntilTheArchiveRowIsDeleted() {
+        insertOrder("order-c");
+        insertBlob("hash-archived", 1);
+        insertImage("img-c", "order-c", "hash-archived");
+        
+        jdbcTemplate.update("INSERT INTO images_archive (id, order_id, image_type, file_name, content_type, " +
+            "file_size, content_hash, created_at) SELECT id, order_id, image_type, file_name, content_type, " +
+            "file_size, content_hash, created_at FROM images WHERE id = 'img-c'");
+        jdbcTemplate.update("DELETE FROM images WHERE id = 'img-c'");
+        assertThat(refCount("hash-archived")).isEqualTo(1);
+        
+        jdbcTemplate.update("DELETE FROM orders WHERE id = 'order-c'");
+        assertThat(blobExists("hash-archived")).isFalse();
+    }
+    
+    private static void insertOrder(String id) {
+        jdbcTemplate.update("INSERT INTO orders (id, customer_id, location_latitude, location_longitude, " +
+            "address, gas_quantity) VALUES (?, 'customer-1', 0, 0, 'address', 1)", id);
+    }
+    
+    private static void insertBlob(String contentHash, int refCount) {
+        jdbcTemplate.update("INSERT INTO image_blobs (content_hash, data, size, ref_count) VALUES (?, ?, 3, ?)",
+            contentHash, new byte[]{1, 2, 3}, refCount);
+    }
+    
+    private static void insertImage(String id, String orderId, String contentHash) {
+        jdbcTemplate.update("INSERT INTO images (id, order_id, image_type, file_name, content_type, file_size, " +
+            "content_hash) VALUES (?, ?, 'delivery_photo', 'photo.jpg', 'image/jpeg', 3, ?)", id, orderId, contentHash);
+    }
+    
+    private static int refCount(String contentHash) {
+        return jdbcTemplate.queryForObject(
+            "SELECT ref_count FROM image_blobs WHERE content_hash = ?", Integer.class, contentHash);
+    }
+    
+    private static boolean blobExists(String contentHash) {
+        return jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM image_blobs WHERE content_hash = ?", Integer.class, contentHash) > 0;
+    }
+}
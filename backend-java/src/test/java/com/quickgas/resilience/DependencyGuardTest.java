@@ -0,0 +1,180 @@
+package com.quickgas.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class DependencyGuardTest {
+    
+    private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+    
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    
+    @Test
+    void opensOnceTheFailureRateReachesTheThreshold() throws IOException {
+        DependencyGuard guard = guard(2);
+        
+        succeed(guard);
+        fail(guard);
+        succeed(guard);
+        // 1 of 3: below the minimum number of calls
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.CLOSED);
+        
+        fail(guard);
+        // 2 of 4: 50%
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.OPEN);
+        assertThat(calls("failure")).isEqualTo(2);
+        assertThat(calls("success")).isEqualTo(2);
+    }
+    
+    @Test
+    void failuresOutsideThePredicateCountAsSuccesses() throws IOException {
+        DependencyGuard guard = guard(2);
+        
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> guard.call(() -> {
+                throw new IllegalArgumentException("card declined");
+            })).isInstanceOf(IllegalArgumentException.class);
+        }
+        
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.CLOSED);
+        assertThat(calls("success")).isEqualTo(4);
+        assertThat(succeed(guard)).isEqualTo("ok");
+    }
+    
+    @Test
+    void openCircuitShortCircuitsWithoutCallingTheDependency() throws IOException {
+        DependencyGuard guard = open(guard(2));
+        boolean[] called = {false};
+        
+        assertThatThrownBy(() -> guard.call(() -> called[0] = true))
+            .isInstanceOfSatisfying(DependencyUnavailableException.class, e -> {
+                assertThat(e.getReason()).isEqualTo(DependencyUnavailableException.REASON_CIRCUIT_OPEN);
+                assertThat(e.isRejected()).isTrue();
+                assertThat(e.getRetryAfter()).isPositive();
+            });
+        assertThat(called[0]).isFalse();
+        assertThat(calls("short_circuited")).isEqualTo(1);
+    }
+    
+    @Test
+    void successfulProbeClosesTheCircuit() throws IOException {
+        DependencyGuard guard = open(guard(2));
+        
+        await().atMost(Duration.ofSeconds(2)).pollDelay(OPEN_DURATION).untilAsserted(() ->
+            assertThat(succeed(guard)).isEqualTo("ok"));
+        
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.CLOSED);
+        // The window starts over: one failure on its own does not re-open it
+        fail(guard);
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.CLOSED);
+    }
+    
+    @Test
+    void failedProbeReopensTheCircuit() throws IOException {
+        DependencyGuard guard = open(guard(2));
+        
+        await().atMost(Duration.ofSeconds(2)).pollDelay(OPEN_DURATION).untilAsserted(() ->
+            assertThatThrownBy(() -> guard.call(() -> {
+                throw new IOException("connection refused");
+            })).isInstanceOf(IOException.class));
+        
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.OPEN);
+        assertThatThrownBy(() -> succeed(guard)).isInstanceOf(DependencyUnavailableException.class);
+    }
+    
+    @Test
+    void onlyOneProbeIsAdmittedWhileHalfOpen() throws Exception {
+        DependencyGuard guard = open(guard(2));
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+        
+        CountDownLatch probing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> probe = blockingCall(guard, probing, release);
+        probing.await();
+        
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.HALF_OPEN);
+        assertThatThrownBy(() -> succeed(guard))
+            .isInstanceOfSatisfying(DependencyUnavailableException.class, e ->
+                assertThat(e.getReason()).isEqualTo(DependencyUnavailableException.REASON_CIRCUIT_OPEN));
+        
+        release.countDown();
+        assertThat(probe.get()).isEqualTo("blocked");
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.CLOSED);
+    }
+    
+    @Test
+    void rejectsCallsWhenTheBulkheadIsFull() throws Exception {
+        DependencyGuard guard = guard(1);
+        CountDownLatch inCall = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> busy = blockingCall(guard, inCall, release);
+        inCall.await();
+        
+        assertThatThrownBy(() -> succeed(guard))
+            .isInstanceOfSatisfying(DependencyUnavailableException.class, e ->
+                assertThat(e.getReason()).isEqualTo(DependencyUnavailableException.REASON_BULKHEAD_FULL));
+        assertThat(calls("bulkhead_full")).isEqualTo(1);
+        
+        release.countDown();
+        assertThat(busy.get()).isEqualTo("blocked");
+        assertThat(succeed(guard)).isEqualTo("ok");
+        // A rejected call says nothing about the dependency's health
+        assertThat(calls("failure")).isZero();
+    }
+    
+    private DependencyGuard guard(int maxConcurrentCalls) {
+        DependencyGuard.Settings settings = new DependencyGuard.Settings(maxConcurrentCalls, Duration.ofMillis(10),
+            Duration.ofSeconds(1), 50, 4, 4, OPEN_DURATION);
+        return new DependencyGuard("test", settings, e -> e instanceof IOException, meterRegistry);
+    }
+    
+    private DependencyGuard open(DependencyGuard guard) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            fail(guard);
+        }
+        assertThat(guard.getState()).isEqualTo(DependencyGuard.State.OPEN);
+        return guard;
+    }
+    
+    /**
+     * Starts a call that holds its permit until released
+     */
+    private static CompletableFuture<String> blockingCall(DependencyGuard guard, CountDownLatch entered,
+                                                          CountDownLatch release) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return guard.call(() -> {
+                    entered.countDown();
+                    release.await();
+                    return "blocked";
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+    
+    private static String succeed(DependencyGuard guard) throws IOException {
+        return guard.call(() -> "ok");
+    }
+    
+    private static void fail(DependencyGuard guard) {
+        assertThatThrownBy(() -> guard.call(() -> {
+            throw new IOException("connection refused");
+        })).isInstanceOf(IOException.class);
+    }
+    
+    private double calls(String outcome) {
+        return meterRegistry.counter("resilience.calls", "dependency", "test", "outcome", outcome).count();
+    }
+}
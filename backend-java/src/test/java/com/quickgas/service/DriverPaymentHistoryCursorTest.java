@@ -0,0 +1,54 @@
+package com.quickgas.service;
+
+import com.quickgas.exception.ValidationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DriverPaymentHistoryCursorTest {
+    
+    @Test
+    void roundTripsMicrosecondTimestamps() {
+        DriverPaymentHistoryService.Cursor cursor =
+            new DriverPaymentHistoryService.Cursor(LocalDateTime.of(2026, 3, 1, 10, 15, 30, 123_456_000), 42L);
+        
+        String encoded = cursor.encode();
+        
+        assertThat(encoded).matches("[A-Za-z0-9_-]+");
+        assertThat(DriverPaymentHistoryService.Cursor.decode(encoded)).isEqualTo(cursor);
+    }
+    
+    @Test
+    void roundTripsWholeMinuteTimestamps() {
+        // LocalDateTime.toString drops zero seconds
+        DriverPaymentHistoryService.Cursor cursor =
+            new DriverPaymentHistoryService.Cursor(LocalDateTime.of(2026, 3, 1, 10, 15), Long.MAX_VALUE);
+        
+        assertThat(DriverPaymentHistoryService.Cursor.decode(cursor.encode())).isEqualTo(cursor);
+    }
+    
+    @Test
+    void rejectsMalformedCursors() {
+        assertInvalid("not base64!");
+        assertInvalid(encode("2026-03-01T10:15:30"));
+        assertInvalid(encode("yesterday|42"));
+        assertInvalid(encode("2026-03-01T10:15:30|forty-two"));
+        assertInvalid(encode("|42"));
+        assertInvalid("");
+    }
+    
+    private static void assertInvalid(String cursor) {
+        assertThatThrownBy(() -> DriverPaymentHistoryService.Cursor.decode(cursor))
+            .isInstanceOf(ValidationException.class)
+            .hasMessage("Invalid cursor");
+    }
+    
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
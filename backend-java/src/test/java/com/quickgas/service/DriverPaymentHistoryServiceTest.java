@@ -0,0 +1,147 @@
+package com.quickgas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quickgas.entity.DriverPayment;
+import com.quickgas.support.TestPostgres;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Keyset pages of a driver's history on Postgres, where the (created_at, id) row comparison runs
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class DriverPaymentHistoryServiceTest {
+    
+    private static final LocalDateTime BASE = LocalDateTime.of(2026, 3, 1, 10, 0, 0, 123_456_000);
+    
+    @Container
+    private static final PostgreSQLContainer<?> postgres = TestPostgres.container();
+    
+    private static DataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+    
+    private DriverPaymentHistoryService service;
+    
+    @BeforeAll
+    static void migrate() {
+        dataSource = TestPostgres.migrate(postgres, "latest");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+    
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.execute("TRUNCATE driver_payments, driver_earnings_daily");
+        service = new DriverPaymentHistoryService(dataSource, new DataSourceTransactionManager(dataSource),
+            new ObjectMapper().findAndRegisterModules(), 2);
+    }
+    
+    @Test
+    void pagesWalkTheWholeHistoryNewestFirst() {
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            expected.add(0, insert("driver-a", "pending", BASE.plusMinutes(i)));
+        }
+        insert("driver-b", "pending", BASE.plusMinutes(3));
+        
+        assertThat(walk("driver-a", null, 3)).containsExactlyElementsOf(expected);
+    }
+    
+    @Test
+    void rowsSharingATimestampAreSplitByIdAcrossPages() {
+        // Same created_at for all: only the id orders them
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            expected.add(0, insert("driver-a", "pending", BASE));
+        }
+        long older = insert("driver-a", "pending", BASE.minusNanos(1_000));
+        expected.add(older);
+        
+        assertThat(walk("driver-a", null, 2)).containsExactlyElementsOf(expected);
+    }
+    
+    @Test
+    void fullLastPageHasNoNextCursor() {
+        insert("driver-a", "pending", BASE);
+        insert("driver-a", "pending", BASE.plusMinutes(1));
+        
+        DriverPaymentHistoryService.Page page = service.getPage("driver-a", null, null, 2);
+        
+        assertThat(page.payments()).hasSize(2);
+        assertThat(page.nextCursor()).isNull();
+    }
+    
+    @Test
+    void statusFilterAppliesOnEveryPage() {
+        List<Long> paid = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            long id = insert("driver-a", i % 2 == 0 ? "paid" : "pending", BASE.plusMinutes(i));
+            if (i % 2 == 0) {
+                paid.add(0, id);
+            }
+        }
+        
+        assertThat(walk("driver-a", "paid", 1)).containsExactlyElementsOf(paid);
+    }
+    
+    @Test
+    void limitIsClampedToTheAllowedRange() {
+        for (int i = 0; i < DriverPaymentHistoryService.MAX_PAGE_SIZE + 1; i++) {
+            insert("driver-a", "pending", BASE.plusSeconds(i));
+        }
+        
+        assertThat(service.getPage("driver-a", null, null, 0).payments()).hasSize(1);
+        assertThat(service.getPage("driver-a", null, null, null).payments())
+            .hasSize(DriverPaymentHistoryService.DEFAULT_PAGE_SIZE);
+        DriverPaymentHistoryService.Page largest = service.getPage("driver-a", null, null, 10_000);
+        assertThat(largest.payments()).hasSize(DriverPaymentHistoryService.MAX_PAGE_SIZE);
+        assertThat(largest.nextCursor()).isNotNull();
+    }
+    
+    @Test
+    void streamWritesOneLinePerPaymentAcrossFetches() {
+        for (int i = 0; i < 5; i++) {
+            insert("driver-a", "pending", BASE.plusMinutes(i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        service.streamAll("driver-a", null, out);
+        
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(5);
+        assertThat(lines[0]).contains("\"driverId\":\"driver-a\"");
+    }
+    
+    private List<Long> walk(String driverId, String status, int limit) {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            DriverPaymentHistoryService.Page page = service.getPage(driverId, status, cursor, limit);
+            assertThat(page.payments()).hasSizeLessThanOrEqualTo(limit);
+            page.payments().stream().map(DriverPayment::getId).forEach(ids::add);
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        return ids;
+    }
+    
+    private static long insert(String driverId, String status, LocalDateTime createdAt) {
+        return jdbcTemplate.queryForObject("INSERT INTO driver_payments (driver_id, order_id, amount, currency, status, "
+                + "created_at, updated_at) VALUES (?, gen_random_uuid()::text, 10.00, 'usd', ?, ?, ?) RETURNING id",
+            Long.class, driverId, status, Timestamp.valueOf(createdAt), Timestamp.valueOf(createdAt));
+    }
+}
@@ -0,0 +1,153 @@
+package com.quickgas.service;
+
+import com.quickgas.config.ResilienceProperties;
+import com.quickgas.entity.DriverPayment;
+import com.quickgas.events.DomainEventBus;
+import com.quickgas.repository.DriverPaymentRepository;
+import com.quickgas.resilience.DependencyGuards;
+import com.stripe.Stripe;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Outcome handling of a single payout transfer against a stub Stripe server
+ */
+class DriverPaymentServiceTest {
+    
+    private static final Long PAYMENT_ID = 5L;
+    
+    private HttpServer stripe;
+    private final List<String> idempotencyKeys = new CopyOnWriteArrayList<>();
+    private int stripeStatus;
+    private String stripeResponse;
+    
+    private DriverPaymentRepository driverPaymentRepository;
+    private DriverPaymentService service;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        stripe = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stripe.createContext("/v1/transfers", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            idempotencyKeys.add(exchange.getRequestHeaders().getFirst("Idempotency-Key"));
+            byte[] response = stripeResponse.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(stripeStatus, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        stripe.start();
+        Stripe.overrideApiBase("http://127.0.0.1:" + stripe.getAddress().getPort());
+        Stripe.apiKey = "sk_test_stub";
+        stripeStatus = 200;
+        stripeResponse = "{\"id\": \"tr_1\", \"object\": \"transfer\", \"amount\": 1000, \"currency\": \"usd\"}";
+        
+        driverPaymentRepository = mock(DriverPaymentRepository.class);
+        when(driverPaymentRepository.findById(PAYMENT_ID)).thenReturn(Optional.of(DriverPayment.builder()
+            .id(PAYMENT_ID)
+            .driverId("driver-1")
+            .orderId("order-1")
+            .amount(new BigDecimal("10.00"))
+            .currency("usd")
+            .status("transfer_pending")
+            .payoutAttempts(2)
+            .build()));
+        service = new DriverPaymentService(driverPaymentRepository, null, null, null,
+            new DependencyGuards(new ResilienceProperties(), new SimpleMeterRegistry()), mock(DomainEventBus.class),
+            null);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        stripe.stop(0);
+        Stripe.overrideApiBase(Stripe.LIVE_API_BASE);
+    }
+    
+    @Test
+    void paysUnderTheAttemptsIdempotencyKey() throws StripeException {
+        service.payClaimedPayout(PAYMENT_ID, "acct_1");
+        
+        assertThat(idempotencyKeys).containsExactly("driver-payout-5-2");
+        verify(driverPaymentRepository).markPaid(eq(PAYMENT_ID), eq("tr_1"), any());
+    }
+    
+    @Test
+    void serverErrorLeavesThePayoutForRecovery() {
+        stripeStatus = 500;
+        stripeResponse = "{\"error\": {\"type\": \"api_error\", \"message\": \"Something went wrong\"}}";
+        
+        assertThatThrownBy(() -> service.payClaimedPayout(PAYMENT_ID, "acct_1")).isInstanceOf(ApiException.class);
+        
+        assertLeftTransferPending();
+    }
+    
+    @Test
+    void rateLimitLeavesThePayoutForRecovery() {
+        stripeStatus = 429;
+        stripeResponse = "{\"error\": {\"type\": \"invalid_request_error\", \"code\": \"rate_limit\", "
+            + "\"message\": \"Too many requests\"}}";
+        
+        assertThatThrownBy(() -> service.payClaimedPayout(PAYMENT_ID, "acct_1"))
+            .isInstanceOf(RateLimitException.class);
+        
+        assertLeftTransferPending();
+    }
+    
+    @Test
+    void lostConnectionLeavesThePayoutForRecovery() {
+        stripe.stop(0);
+        
+        assertThatThrownBy(() -> service.payClaimedPayout(PAYMENT_ID, "acct_1"))
+            .isInstanceOf(ApiConnectionException.class);
+        
+        assertLeftTransferPending();
+    }
+    
+    @Test
+    void definiteRejectionFailsThePayout() {
+        stripeStatus = 400;
+        stripeResponse = "{\"error\": {\"type\": \"invalid_request_error\", \"code\": \"account_invalid\", "
+            + "\"message\": \"No such destination\"}}";
+        
+        assertThatThrownBy(() -> service.payClaimedPayout(PAYMENT_ID, "acct_1"))
+            .isInstanceOf(InvalidRequestException.class);
+        
+        verify(driverPaymentRepository).markTransferFailed(PAYMENT_ID);
+    }
+    
+    private void assertLeftTransferPending() {
+        verify(driverPaymentRepository, never()).markTransferFailed(anyLong());
+        verify(driverPaymentRepository, never()).releaseTransferPending(anyLong());
+        verify(driverPaymentRepository, never()).markPaid(anyLong(), anyString(), any());
+        // Any client retries reuse the same key
+        assertThat(idempotencyKeys).allMatch("driver-payout-5-2"::equals);
+    }
+}
@@ -0,0 +1,277 @@
+package com.quickgas.service;
+
+import com.quickgas.config.ResilienceProperties;
+import com.quickgas.entity.DriverPayment;
+import com.quickgas.entity.DriverPayoutBatch;
+import com.quickgas.events.DomainEvent;
+import com.quickgas.events.DomainEventBus;
+import com.quickgas.repository.DriverPaymentRepository;
+import com.quickgas.repository.DriverPayoutBatchRepository;
+import com.quickgas.resilience.DependencyGuard;
+import com.quickgas.resilience.DependencyGuards;
+import com.quickgas.resilience.DependencyUnavailableException;
+import com.stripe.Stripe;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.RequestOptions;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Settlement paths of a payout batch against mocked repositories and a stub Stripe server
+ */
+class DriverPayoutBatchServiceTest {
+    
+    private static final Long BATCH_ID = 7L;
+    
+    private HttpServer stripe;
+    private final List<StripeRequest> stripeRequests = new CopyOnWriteArrayList<>();
+    private int stripeStatus;
+    private String stripeResponse;
+    
+    private DriverPaymentRepository driverPaymentRepository;
+    private DriverPayoutBatchRepository batchRepository;
+    private ConnectedAccountCache connectedAccountCache;
+    private DriverPaymentService driverPaymentService;
+    private DomainEventBus eventBus;
+    private final List<SimpleTransactionStatus> transactions = new ArrayList<>();
+    private DependencyGuards dependencyGuards;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        stripe = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stripe.createContext("/v1/transfers", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            stripeRequests.add(new StripeRequest(exchange.getRequestHeaders().getFirst("Idempotency-Key"), body));
+            byte[] response = stripeResponse.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(stripeStatus, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        stripe.start();
+        Stripe.overrideApiBase("http://127.0.0.1:" + stripe.getAddress().getPort());
+        Stripe.apiKey = "sk_test_stub";
+        stripeStatus = 200;
+        stripeResponse = "{\"id\": \"tr_1\", \"object\": \"transfer\", \"amount\": 2000, \"currency\": \"usd\"}";
+        
+        driverPaymentRepository = mock(DriverPaymentRepository.class);
+        batchRepository = mock(DriverPayoutBatchRepository.class);
+        connectedAccountCache = mock(ConnectedAccountCache.class);
+        driverPaymentService = mock(DriverPaymentService.class);
+        eventBus = mock(DomainEventBus.class);
+        dependencyGuards = new DependencyGuards(new ResilienceProperties(), new SimpleMeterRegistry());
+        
+        when(connectedAccountCache.getStripeAccountId("driver-1")).thenReturn("acct_1");
+        when(batchRepository.save(any())).thenAnswer(invocation -> {
+            DriverPayoutBatch batch = invocation.getArgument(0);
+            if (batch.getId() == null) {
+                batch.setId(BATCH_ID);
+            }
+            return batch;
+        });
+        when(batchRepository.findById(BATCH_ID)).thenReturn(Optional.empty());
+        when(batchRepository.markPaid(eq(BATCH_ID), anyString(), any())).thenReturn(1);
+        when(batchRepository.close(eq(BATCH_ID), anyString())).thenReturn(1);
+        when(driverPaymentRepository.claimForBatch(BATCH_ID, "driver-1", "usd")).thenReturn(2);
+        when(driverPaymentRepository.findByPayoutBatchId(BATCH_ID)).thenReturn(List.of(
+            payment(1L, "12.34"), payment(2L, "7.66")));
+    }
+    
+    @AfterEach
+    void tearDown() {
+        stripe.stop(0);
+        Stripe.overrideApiBase(Stripe.LIVE_API_BASE);
+    }
+    
+    @Test
+    void paysAllClaimedPaymentsWithOneTransfer() throws StripeException {
+        DriverPayoutBatch batch = newService().settle("driver-1", "usd");
+        
+        assertThat(batch.getAmount()).isEqualByComparingTo("20.00");
+        assertThat(batch.getPaymentCount()).isEqualTo(2);
+        assertThat(stripeRequests).hasSize(1);
+        StripeRequest request = stripeRequests.get(0);
+        assertThat(request.idempotencyKey()).isEqualTo("driver-payout-batch-7");
+        assertThat(request.body()).contains("amount=2000", "destination=acct_1", "transfer_group=driver_payout_batch_7",
+            "metadata[" + DriverPayoutBatchService.BATCH_METADATA_KEY + "]=7");
+        
+        verify(batchRepository).markPaid(eq(BATCH_ID), eq("tr_1"), any());
+        verify(driverPaymentRepository).markBatchPaid(eq(BATCH_ID), eq("tr_1"), any());
+        verify(eventBus, times(2)).publish(any(DomainEvent.PayoutPaid.class));
+        assertThat(transactions).noneMatch(SimpleTransactionStatus::isRollbackOnly);
+    }
+    
+    @Test
+    void nothingLeftToClaimRollsTheBatchBack() throws StripeException {
+        when(driverPaymentRepository.claimForBatch(BATCH_ID, "driver-1", "usd")).thenReturn(0);
+        
+        assertThat(newService().settle("driver-1", "usd")).isNull();
+        
+        assertThat(transactions).singleElement().matches(SimpleTransactionStatus::isRollbackOnly);
+        assertThat(stripeRequests).isEmpty();
+    }
+    
+    @Test
+    void driverWithoutConnectedAccountIsSkipped() throws StripeException {
+        assertThat(newService().settle("driver-2", "usd")).isNull();
+        
+        verify(batchRepository, never()).save(any());
+        assertThat(stripeRequests).isEmpty();
+    }
+    
+    @Test
+    void rejectedCallReleasesPaymentsToTheNextWindow() {
+        // A bulkhead without permits: the transfer is never attempted
+        DependencyGuard noPermits = new DependencyGuard("stripe", new DependencyGuard.Settings(0, Duration.ZERO,
+            Duration.ofSeconds(5), 50, 10, 10, Duration.ofSeconds(30)), e -> true, new SimpleMeterRegistry());
+        dependencyGuards = mock(DependencyGuards.class);
+        when(dependencyGuards.stripe()).thenReturn(noPermits);
+        when(dependencyGuards.stripeRequestOptions()).thenReturn(RequestOptions.builder());
+        
+        assertThatThrownBy(() -> newService().settle("driver-1", "usd"))
+            .isInstanceOf(DependencyUnavailableException.class);
+        
+        assertThat(stripeRequests).isEmpty();
+        verify(batchRepository).close(BATCH_ID, "released");
+        verify(driverPaymentRepository).detachBatch(BATCH_ID, "pending");
+    }
+    
+    @Test
+    void declinedTransferFailsTheBatch() {
+        stripeStatus = 400;
+        stripeResponse = "{\"error\": {\"type\": \"invalid_request_error\", \"code\": \"account_invalid\", "
+            + "\"message\": \"No such destination\"}}";
+        
+        assertThatThrownBy(() -> newService().settle("driver-1", "usd")).isInstanceOf(StripeException.class);
+        
+        verify(batchRepository).close(BATCH_ID, "failed");
+        verify(driverPaymentRepository).detachBatch(BATCH_ID, "failed");
+        verify(batchRepository, never()).markPaid(anyLong(), anyString(), any());
+    }
+    
+    @Test
+    void serverErrorLeavesTheBatchForRecovery() {
+        stripeStatus = 500;
+        stripeResponse = "{\"error\": {\"type\": \"api_error\", \"message\": \"Something went wrong\"}}";
+        
+        assertThatThrownBy(() -> newService().settle("driver-1", "usd")).isInstanceOf(ApiException.class);
+        
+        verify(batchRepository, never()).close(anyLong(), anyString());
+        verify(driverPaymentRepository, never()).detachBatch(anyLong(), anyString());
+    }
+    
+    @Test
+    void rateLimitLeavesTheBatchForRecovery() {
+        stripeStatus = 429;
+        stripeResponse = "{\"error\": {\"type\": \"invalid_request_error\", \"code\": \"rate_limit\", "
+            + "\"message\": \"Too many requests\"}}";
+        
+        assertThatThrownBy(() -> newService().settle("driver-1", "usd")).isInstanceOf(RateLimitException.class);
+        
+        verify(batchRepository, never()).close(anyLong(), anyString());
+        verify(driverPaymentRepository, never()).detachBatch(anyLong(), anyString());
+    }
+    
+    @Test
+    void testModeInsufficientFundsCompletesWithAPlaceholderTransfer() throws StripeException {
+        stripeStatus = 400;
+        stripeResponse = "{\"error\": {\"type\": \"invalid_request_error\", \"code\": \"balance_insufficient\", "
+            + "\"message\": \"You have insufficient available funds\"}}";
+        when(driverPaymentService.isTestModeInsufficientFunds(any())).thenReturn(true);
+        
+        newService().settle("driver-1", "usd");
+        
+        verify(batchRepository).markPaid(eq(BATCH_ID), eq("test_transfer_batch_7"), any());
+        verify(batchRepository, never()).close(anyLong(), anyString());
+    }
+    
+    @Test
+    void unknownOutcomeLeavesTheBatchForRecovery() {
+        // Nothing listening: the connection is refused
+        stripe.stop(0);
+        
+        assertThatThrownBy(() -> newService().settle("driver-1", "usd")).isInstanceOf(ApiConnectionException.class);
+        
+        verify(batchRepository, never()).close(anyLong(), anyString());
+        verify(driverPaymentRepository, never()).detachBatch(anyLong(), anyString());
+        verify(batchRepository, never()).markPaid(anyLong(), anyString(), any());
+    }
+    
+    @Test
+    void completeIsANoOpForABatchAlreadyClosed() {
+        when(batchRepository.markPaid(eq(BATCH_ID), anyString(), any())).thenReturn(0);
+        
+        newService().complete(BATCH_ID, "tr_1", LocalDateTime.now());
+        
+        verify(driverPaymentRepository, never()).markBatchPaid(anyLong(), anyString(), any());
+        verify(eventBus, never()).publish(any());
+    }
+    
+    @Test
+    void releaseOnlyDetachesPaymentsOfAPendingBatch() {
+        when(batchRepository.close(BATCH_ID, "released")).thenReturn(0);
+        
+        newService().release(BATCH_ID);
+        
+        verify(driverPaymentRepository, never()).detachBatch(anyLong(), anyString());
+    }
+    
+    private DriverPayoutBatchService newService() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            SimpleTransactionStatus status = new SimpleTransactionStatus();
+            transactions.add(status);
+            return status;
+        });
+        return new DriverPayoutBatchService(driverPaymentRepository, batchRepository, connectedAccountCache,
+            driverPaymentService, new TransactionTemplate(transactionManager), dependencyGuards, eventBus);
+    }
+    
+    private static DriverPayment payment(Long id, String amount) {
+        return DriverPayment.builder()
+            .id(id)
+            .driverId("driver-1")
+            .orderId("order-" + id)
+            .amount(new BigDecimal(amount))
+            .currency("usd")
+            .status("transfer_pending")
+            .payoutBatchId(BATCH_ID)
+            .build();
+    }
+    
+    private record StripeRequest(String idempotencyKey, String body) {
+    }
+}
@@ -0,0 +1,216 @@
+package com.quickgas.service;
+
+import com.quickgas.concurrent.StripedExecutor;
+import com.quickgas.entity.DriverPayment;
+import com.quickgas.repository.DriverPaymentRepository;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.RateLimitException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DriverPayoutWorkerTest {
+    
+    private DriverPaymentRepository driverPaymentRepository;
+    private ConnectedAccountCache connectedAccountCache;
+    private DriverPaymentService driverPaymentService;
+    private StripedExecutor payoutExecutor;
+    private SimpleMeterRegistry meterRegistry;
+    private DriverPayoutWorker worker;
+    
+    @BeforeEach
+    void setUp() {
+        driverPaymentRepository = mock(DriverPaymentRepository.class);
+        connectedAccountCache = mock(ConnectedAccountCache.class);
+        driverPaymentService = mock(DriverPaymentService.class);
+        payoutExecutor = mock(StripedExecutor.class);
+        meterRegistry = new SimpleMeterRegistry();
+        
+        // Payouts run on the calling thread
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(payoutExecutor).execute(anyString(), any());
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(connectedAccountCache.getStripeAccountId(anyString())).thenReturn("acct_1");
+        
+        worker = new DriverPayoutWorker(driverPaymentRepository, connectedAccountCache, driverPaymentService,
+            payoutExecutor, new TransactionTemplate(transactionManager), meterRegistry);
+        ReflectionTestUtils.setField(worker, "enabled", true);
+        ReflectionTestUtils.setField(worker, "batchSize", 50);
+        ReflectionTestUtils.setField(worker, "maxAttempts", 8);
+        ReflectionTestUtils.setField(worker, "initialBackoff", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(worker, "maxBackoff", Duration.ofHours(6));
+        ReflectionTestUtils.setField(worker, "idleBefore", Duration.ofMinutes(1));
+    }
+    
+    @Test
+    void claimsLockedRowsAndPaysThemInIdOrder() throws Exception {
+        claim(payment(3L, "driver-b", 1), payment(1L, "driver-a", 1), payment(2L, "driver-a", 1));
+        
+        worker.pollPayable();
+        
+        verify(driverPaymentRepository).claimAll(List.of(3L, 1L, 2L));
+        InOrder order = inOrder(driverPaymentService);
+        order.verify(driverPaymentService).payClaimedPayout(1L, "acct_1");
+        order.verify(driverPaymentService).payClaimedPayout(2L, "acct_1");
+        order.verify(driverPaymentService).payClaimedPayout(3L, "acct_1");
+        assertThat(outcomes("paid")).isEqualTo(3);
+    }
+    
+    @Test
+    void nothingDueClaimsNothing() {
+        when(driverPaymentRepository.lockPayable(anyInt(), any(), anyInt())).thenReturn(List.of());
+        
+        worker.pollPayable();
+        
+        verify(driverPaymentRepository, never()).claimAll(any());
+    }
+    
+    @Test
+    void batchedModeLeavesPendingPaymentsToTheBatchWindow() {
+        when(driverPaymentService.isBatchedPayouts()).thenReturn(true);
+        
+        worker.pollPayable();
+        
+        verify(driverPaymentRepository, never()).lockPayable(anyInt(), any(), anyInt());
+    }
+    
+    @Test
+    void fullDriverQueueHandsTheClaimBack() {
+        claim(payment(1L, "driver-a", 1));
+        doThrow(new RejectedExecutionException("full")).when(payoutExecutor).execute(eq("driver-a"), any());
+        
+        worker.pollPayable();
+        
+        verify(driverPaymentRepository).releaseClaim(1L);
+    }
+    
+    @Test
+    void driverWithoutConnectedAccountHandsTheClaimBack() throws Exception {
+        claim(payment(1L, "driver-a", 1));
+        when(connectedAccountCache.getStripeAccountId("driver-a")).thenReturn(null);
+        
+        worker.pollPayable();
+        
+        verify(driverPaymentRepository).releaseClaim(1L);
+        verify(driverPaymentService, never()).payClaimedPayout(anyLong(), anyString());
+    }
+    
+    @Test
+    void failedAttemptsBackOffExponentiallyWithJitter() throws Exception {
+        when(driverPaymentService.payClaimedPayout(anyLong(), anyString()))
+            .thenThrow(new InvalidRequestException("declined", null, "req_1", "account_invalid", 400, null));
+        
+        assertThat(retryDelay(1)).isBetween(Duration.ofSeconds(30), Duration.ofMinutes(1));
+        assertThat(retryDelay(3)).isBetween(Duration.ofMinutes(2), Duration.ofMinutes(4));
+        // 64 minutes, capped
+        ReflectionTestUtils.setField(worker, "maxBackoff", Duration.ofMinutes(30));
+        assertThat(retryDelay(7)).isBetween(Duration.ofMinutes(15), Duration.ofMinutes(30));
+        assertThat(outcomes("failed")).isEqualTo(3);
+    }
+    
+    @Test
+    void givesUpAfterMaxAttempts() throws Exception {
+        claim(payment(1L, "driver-a", 8));
+        when(driverPaymentService.payClaimedPayout(anyLong(), anyString()))
+            .thenThrow(new InvalidRequestException("declined", null, "req_1", "account_invalid", 400, null));
+        
+        worker.pollPayable();
+        
+        verify(driverPaymentRepository, never()).scheduleRetry(anyLong(), any());
+        assertThat(outcomes("failed")).isEqualTo(1);
+    }
+    
+    @Test
+    void unknownOutcomeIsNotRetried() throws Exception {
+        claim(payment(1L, "driver-a", 1));
+        when(driverPaymentService.payClaimedPayout(anyLong(), anyString()))
+            .thenThrow(new ApiConnectionException("connection reset"));
+        
+        worker.pollPayable();
+        
+        verify(driverPaymentRepository, never()).scheduleRetry(anyLong(), any());
+        assertThat(outcomes("unknown")).isEqualTo(1);
+    }
+    
+    @Test
+    void serverErrorAndRateLimitAreUnknownOutcomes() throws Exception {
+        claim(payment(1L, "driver-a", 1), payment(2L, "driver-b", 1));
+        when(driverPaymentService.payClaimedPayout(1L, "acct_1"))
+            .thenThrow(new ApiException("internal error", "req_1", null, 500, null));
+        when(driverPaymentService.payClaimedPayout(2L, "acct_1"))
+            .thenThrow(new RateLimitException("too many requests", null, "req_2", "rate_limit", 429, null));
+        
+        worker.pollPayable();
+        
+        verify(driverPaymentRepository, never()).scheduleRetry(anyLong(), any());
+        assertThat(outcomes("unknown")).isEqualTo(2);
+        assertThat(outcomes("failed")).isZero();
+    }
+    
+    private Duration retryDelay(int attempts) {
+        long id = attempts;
+        claim(payment(id, "driver-a", attempts));
+        LocalDateTime before = LocalDateTime.now();
+        
+        worker.pollPayable();
+        
+        ArgumentCaptor<LocalDateTime> nextAttemptAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(driverPaymentRepository).scheduleRetry(eq(id), nextAttemptAt.capture());
+        // Whole seconds, so the moment between "before" and the worker's own clock read does not matter
+        return Duration.ofSeconds(Duration.between(before, nextAttemptAt.getValue()).toSeconds());
+    }
+    
+    private void claim(DriverPayment... payments) {
+        List<Long> ids = Arrays.stream(payments).map(DriverPayment::getId).toList();
+        when(driverPaymentRepository.lockPayable(eq(8), any(), eq(50))).thenReturn(ids);
+        when(driverPaymentRepository.findAllById(ids)).thenReturn(List.of(payments));
+    }
+    
+    private double outcomes(String outcome) {
+        return meterRegistry.counter("payments.payouts.worker", "outcome", outcome).count();
+    }
+    
+    private static DriverPayment payment(Long id, String driverId, int attempts) {
+        return DriverPayment.builder()
+            .id(id)
+            .driverId(driverId)
+            .orderId("order-" + id)
+            .amount(new BigDecimal("10.00"))
+            .currency("usd")
+            .status("transfer_pending")
+            .payoutAttempts(attempts)
+            .build();
+    }
+}
@@ -0,0 +1,84 @@
+package com.quickgas.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageProcessingServiceTest {
+    
+    private ImageProcessingService service;
+    
+    @BeforeEach
+    void setUp() {
+        service = new ImageProcessingService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "maxDimension", 100);
+        ReflectionTestUtils.setField(service, "jpegQuality", 0.8f);
+    }
+    
+    @Test
+    void subsamplingRoundsUpSoTheDecodedRasterFits() {
+        assertThat(ImageProcessingService.subsampling(4000, 3000, 2048)).isEqualTo(2);
+        assertThat(ImageProcessingService.subsampling(4100, 3000, 2048)).isEqualTo(3);
+        assertThat(ImageProcessingService.subsampling(3000, 6145, 2048)).isEqualTo(4);
+        assertThat(ImageProcessingService.subsampling(2048, 1536, 2048)).isEqualTo(1);
+        assertThat(ImageProcessingService.subsampling(640, 480, 2048)).isEqualTo(1);
+    }
+    
+    @Test
+    void resizesToFitMaxDimension() throws IOException {
+        BufferedImage result = process(jpeg(250, 40));
+        
+        assertThat(Math.max(result.getWidth(), result.getHeight())).isLessThanOrEqualTo(100);
+    }
+    
+    @Test
+    void keepsImagesWithinBounds() throws IOException {
+        BufferedImage result = process(jpeg(80, 60));
+        
+        assertThat(result.getWidth()).isEqualTo(80);
+        assertThat(result.getHeight()).isEqualTo(60);
+    }
+    
+    @Test
+    void passesNonJpegContentThrough() throws IOException {
+        byte[] png = encode(new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB), "png");
+        
+        ImageProcessingService.ProcessedImage processed =
+            service.process(new ByteArrayResource(png), png.length, "image/png", "photo.png");
+        
+        assertThat(processed.isInMemory()).isFalse();
+        assertThat(processed.getSize()).isEqualTo(png.length);
+        try (InputStream in = processed.openStream()) {
+            assertThat(in.readAllBytes()).isEqualTo(png);
+        }
+        assertThat(processed.getContentType()).isEqualTo("image/png");
+    }
+    
+    private BufferedImage process(byte[] jpeg) throws IOException {
+        ImageProcessingService.ProcessedImage processed =
+            service.process(new ByteArrayResource(jpeg), jpeg.length, "image/jpeg", "photo.jpg");
+        return ImageIO.read(new ByteArrayInputStream(processed.getData()));
+    }
+    
+    private static byte[] jpeg(int width, int height) throws IOException {
+        return encode(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg");
+    }
+    
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,100 @@
+package com.quickgas.service;
+
+import com.quickgas.config.ImageRetentionProperties;
+import com.quickgas.entity.ImageEntity;
+import com.quickgas.repository.ImageBlobRepository;
+import com.quickgas.repository.ImageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageRetentionServiceTest {
+    
+    private ImageRepository imageRepository;
+    private ImageBlobRepository imageBlobRepository;
+    private ImageFileStore imageFileStore;
+    private ImageRetentionService service;
+    
+    @BeforeEach
+    void setUp() {
+        ImageRetentionProperties properties = new ImageRetentionProperties();
+        properties.setEnabled(true);
+        properties.setPauseBetweenBatches(Duration.ZERO);
+        ImageRetentionProperties.Policy policy = new ImageRetentionProperties.Policy();
+        policy.setMaxAge(Duration.ofDays(30));
+        properties.getPolicies().put("delivery_photo", policy);
+        
+        imageRepository = mock(ImageRepository.class);
+        imageBlobRepository = mock(ImageBlobRepository.class);
+        imageFileStore = mock(ImageFileStore.class);
+        service = new ImageRetentionService(properties, imageRepository, imageBlobRepository,
+            mock(ImageCache.class), imageFileStore,
+            new TransactionTemplate(mock(PlatformTransactionManager.class)), new SimpleMeterRegistry());
+    }
+    
+    @Test
+    void removesFilesOnlyForBlobsTheDeleteTriggerRemoved() {
+        when(imageFileStore.isEnabled()).thenReturn(true);
+        when(imageRepository.findExpiredAfter(eq("delivery_photo"), any(), any(), anyString(), anyInt()))
+            .thenReturn(List.of(image("img-1", "hash-a"), image("img-2", "hash-a"), image("img-3", "hash-b")));
+        // img-3 was already deleted by a concurrent request
+        when(imageRepository.deleteByIdsReturningHashes(List.of("img-1", "img-2", "img-3")))
+            .thenReturn(List.of("hash-a", "hash-a"));
+        // hash-a is still referenced by another order's image
+        when(imageBlobRepository.findExistingHashes(List.of("hash-a"))).thenReturn(List.of("hash-a"));
+        
+        service.applyRetention();
+        
+        verify(imageFileStore, never()).delete(anyString());
+    }
+    
+    @Test
+    void removesFilesOfBlobsNoLongerReferenced() {
+        when(imageFileStore.isEnabled()).thenReturn(true);
+        when(imageRepository.findExpiredAfter(eq("delivery_photo"), any(), any(), anyString(), anyInt()))
+            .thenReturn(List.of(image("img-1", "hash-a"), image("img-2", "hash-b")));
+        when(imageRepository.deleteByIdsReturningHashes(List.of("img-1", "img-2")))
+            .thenReturn(List.of("hash-a", "hash-b"));
+        when(imageBlobRepository.findExistingHashes(List.of("hash-a", "hash-b"))).thenReturn(List.of("hash-b"));
+        
+        service.applyRetention();
+        
+        verify(imageFileStore).delete("hash-a");
+        verify(imageFileStore, never()).delete("hash-b");
+    }
+    
+    @Test
+    void doesNothingWhenDisabledByDefault() {
+        service = new ImageRetentionService(new ImageRetentionProperties(), imageRepository, imageBlobRepository,
+            mock(ImageCache.class), mock(ImageFileStore.class),
+            new TransactionTemplate(mock(PlatformTransactionManager.class)), new SimpleMeterRegistry());
+        
+        service.applyRetention();
+        
+        verify(imageRepository, never()).findExpiredAfter(any(), any(), any(), any(), anyInt());
+    }
+    
+    private static ImageEntity image(String id, String contentHash) {
+        return ImageEntity.builder()
+            .id(id)
+            .imageType("delivery_photo")
+            .contentHash(contentHash)
+            .createdAt(LocalDateTime.now().minusDays(60))
+            .build();
+    }
+}
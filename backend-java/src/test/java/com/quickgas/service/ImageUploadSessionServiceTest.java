@@ -0,0 +1,97 @@
+package com.quickgas.service;
+
+import com.quickgas.entity.ImageUploadSession;
+import com.quickgas.repository.ImageUploadChunkRepository;
+import com.quickgas.repository.ImageUploadSessionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageUploadSessionServiceTest {
+    
+    private ImageUploadSessionRepository sessionRepository;
+    private ImageUploadChunkRepository chunkRepository;
+    private ImageService imageService;
+    private ImageUploadSessionService service;
+    
+    @BeforeEach
+    void setUp() {
+        sessionRepository = mock(ImageUploadSessionRepository.class);
+        chunkRepository = mock(ImageUploadChunkRepository.class);
+        imageService = mock(ImageService.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        service = new ImageUploadSessionService(sessionRepository, chunkRepository, imageService,
+            new TransactionTemplate(transactionManager));
+    }
+    
+    @Test
+    void rejectsChunksForExpiredSessions() {
+        when(sessionRepository.findById("up-1"))
+            .thenReturn(Optional.of(session("up-1", "uploading", LocalDateTime.now().minusMinutes(1))));
+        
+        assertThatThrownBy(() -> service.appendChunk("up-1", 0, new ByteArrayInputStream(new byte[]{1, 2})))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("expired");
+        
+        verify(sessionRepository, never()).advanceOffset(anyString(), anyLong(), anyLong());
+        verify(chunkRepository, never()).save(any());
+    }
+    
+    @Test
+    void rejectsCompletionOfExpiredSessions() {
+        ImageUploadSession session = session("up-1", "uploading", LocalDateTime.now().minusMinutes(1));
+        session.setReceivedBytes(session.getTotalSize());
+        when(sessionRepository.findById("up-1")).thenReturn(Optional.of(session));
+        
+        assertThatThrownBy(() -> service.complete("up-1"))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("expired");
+        
+        verify(chunkRepository, never()).findByUploadIdAndChunkOffset(anyString(), anyLong());
+    }
+    
+    @Test
+    void purgesExpiredSessionsWhateverTheirStatus() {
+        LocalDateTime expired = LocalDateTime.now().minusMinutes(1);
+        when(sessionRepository.findTop100ByExpiresAtBefore(any()))
+            .thenReturn(List.of(session("up-1", "uploading", expired), session("up-2", "completed", expired)))
+            .thenReturn(List.of());
+        
+        service.purgeExpiredSessions();
+        
+        verify(sessionRepository).deleteById("up-1");
+        verify(sessionRepository).deleteById("up-2");
+        verify(chunkRepository).deleteByUploadId("up-1");
+        verify(chunkRepository).deleteByUploadId("up-2");
+    }
+    
+    private static ImageUploadSession session(String id, String status, LocalDateTime expiresAt) {
+        return ImageUploadSession.builder()
+            .id(id)
+            .imageType("delivery_photo")
+            .fileName("photo.jpg")
+            .contentType("image/jpeg")
+            .totalSize(4L)
+            .receivedBytes(0L)
+            .status(status)
+            .expiresAt(expiresAt)
+            .build();
+    }
+}
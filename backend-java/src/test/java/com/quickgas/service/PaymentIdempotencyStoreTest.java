@@ -0,0 +1,95 @@
+package com.quickgas.service;
+
+import com.quickgas.dto.PaymentIntentRequest;
+import com.quickgas.dto.PaymentIntentResponse;
+import com.quickgas.exception.ValidationException;
+import com.quickgas.repository.PaymentIdempotencyKeyRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PaymentIdempotencyStoreTest {
+    
+    private PaymentIdempotencyStore store;
+    
+    @BeforeEach
+    void setUp() {
+        PaymentIdempotencyKeyRepository repository = mock(PaymentIdempotencyKeyRepository.class);
+        when(repository.findByUserIdAndIdempotencyKeyAndExpiresAtAfter(any(), any(), any()))
+            .thenReturn(Optional.empty());
+        store = new PaymentIdempotencyStore(repository, new SimpleMeterRegistry(), 100, Duration.ofHours(1));
+        ReflectionTestUtils.setField(store, "waitTimeout", Duration.ofSeconds(5));
+    }
+    
+    @Test
+    void fingerprintIgnoresMetadataOrderAndAmountScale() {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("userId", "user-1");
+        metadata.put("orderId", "order-1");
+        Map<String, String> reversed = new LinkedHashMap<>();
+        reversed.put("orderId", "order-1");
+        reversed.put("userId", "user-1");
+        
+        String first = PaymentIdempotencyStore.fingerprint(request("12.30", "USD", metadata));
+        String second = PaymentIdempotencyStore.fingerprint(request("12.3", "usd", reversed));
+        
+        assertThat(first).isEqualTo(second).hasSize(64);
+        assertThat(PaymentIdempotencyStore.fingerprint(request("12.31", "usd", metadata))).isNotEqualTo(first);
+    }
+    
+    @Test
+    void replaysTheStoredResponseWithoutRunningTheActionAgain() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        PaymentIdempotencyStore.Action action = () ->
+            new PaymentIntentResponse("secret_" + calls.incrementAndGet(), "pi_" + calls.get());
+        
+        PaymentIntentResponse first = store.execute("user-1", "key-1", "fp", action);
+        PaymentIntentResponse second = store.execute("user-1", "key-1", "fp", action);
+        
+        assertThat(second.getPaymentIntentId()).isEqualTo(first.getPaymentIntentId());
+        assertThat(calls).hasValue(1);
+    }
+    
+    @Test
+    void sameKeyForAnotherUserRunsSeparately() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        PaymentIdempotencyStore.Action action = () ->
+            new PaymentIntentResponse("secret", "pi_" + calls.incrementAndGet());
+        
+        store.execute("user-1", "key-1", "fp", action);
+        store.execute("user-2", "key-1", "fp", action);
+        
+        assertThat(calls).hasValue(2);
+    }
+    
+    @Test
+    void rejectsKeyReuseWithADifferentRequest() throws Exception {
+        store.execute("user-1", "key-1", "fp-1", () -> new PaymentIntentResponse("secret", "pi_1"));
+        
+        assertThatThrownBy(() -> store.execute("user-1", "key-1", "fp-2",
+            () -> new PaymentIntentResponse("secret", "pi_2")))
+            .isInstanceOf(ValidationException.class);
+    }
+    
+    private static PaymentIntentRequest request(String amount, String currency, Map<String, String> metadata) {
+        PaymentIntentRequest request = new PaymentIntentRequest();
+        request.setAmount(new BigDecimal(amount));
+        request.setCurrency(currency);
+        request.setMetadata(metadata);
+        return request;
+    }
+}
@@ -0,0 +1,234 @@
+package com.quickgas.service;
+
+import com.quickgas.config.ResilienceProperties;
+import com.quickgas.resilience.DependencyGuards;
+import com.stripe.Stripe;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the reconciliation job against a stub Stripe server, via the stripe.api-base override
+ */
+class PaymentReconciliationServiceTest {
+    
+    private static final long CREATED = 1_700_000_000L;
+    
+    private HttpServer stripe;
+    private final Map<String, String> stripeLists = new HashMap<>();
+    private final List<String> queries = new ArrayList<>();
+    
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    private PaymentService paymentService;
+    private DriverPayoutBatchService driverPayoutBatchService;
+    private SimpleMeterRegistry meterRegistry;
+    private PaymentReconciliationService service;
+    
+    // Local rows the mocked database answers with
+    private final Map<String, String> paymentStatuses = new HashMap<>();
+    private final Map<Long, String[]> driverPayments = new HashMap<>();
+    private final Map<Long, String> payoutBatches = new HashMap<>();
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        stripe = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stripe.createContext("/v1/payment_intents", exchange -> respond(exchange, "payment_intents"));
+        stripe.createContext("/v1/transfers", exchange -> respond(exchange, "transfers"));
+        stripe.start();
+        
+        // Same path as production: PaymentService applies stripe.api-base at startup
+        PaymentService stripeConfig = new PaymentService(null, null, null, null, null, null, null);
+        ReflectionTestUtils.setField(stripeConfig, "stripeSecretKey", "sk_test_stub");
+        ReflectionTestUtils.setField(stripeConfig, "stripeApiBase", "http://127.0.0.1:" + stripe.getAddress().getPort());
+        stripeConfig.init();
+        
+        jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+        doAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            queries.add(sql);
+            Collection<?> ids = (Collection<?>) invocation.<SqlParameterSource>getArgument(1).getValue("ids");
+            RowCallbackHandler handler = invocation.getArgument(2);
+            for (Object id : ids) {
+                Object[] row = localRow(sql, id);
+                if (row != null) {
+                    handler.processRow(resultSet(row));
+                }
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+        
+        paymentService = mock(PaymentService.class);
+        driverPayoutBatchService = mock(DriverPayoutBatchService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        service = new PaymentReconciliationService(jdbcTemplate, paymentService, driverPayoutBatchService,
+            new DependencyGuards(new ResilienceProperties(), meterRegistry), meterRegistry);
+        ReflectionTestUtils.setField(service, "batchSize", 500);
+        
+        stripeLists.put("payment_intents", "[]");
+        stripeLists.put("transfers", "[]");
+    }
+    
+    @AfterEach
+    void tearDown() {
+        stripe.stop(0);
+        Stripe.overrideApiBase(Stripe.LIVE_API_BASE);
+    }
+    
+    @Test
+    void fixesPaymentStatusDriftAndReportsMissingRows() {
+        stripeLists.put("payment_intents", "["
+            + paymentIntent("pi_in_sync", "succeeded", "order-1") + ","
+            + paymentIntent("pi_drifted", "succeeded", "order-2") + ","
+            + paymentIntent("pi_missing", "succeeded", "order-3") + ","
+            + paymentIntent("pi_no_order", "succeeded", null) + "]");
+        paymentStatuses.put("pi_in_sync", "succeeded");
+        paymentStatuses.put("pi_drifted", "processing");
+        
+        assertThat(reconcile()).isTrue();
+        
+        verify(paymentService).updateTransactionStatus("pi_drifted", "succeeded");
+        verify(paymentService, never()).updateTransactionStatus(eq("pi_in_sync"), anyString());
+        assertThat(mismatches("payment_status")).isEqualTo(1);
+        assertThat(mismatches("payment_missing_locally")).isEqualTo(1);
+        assertThat(meterRegistry.counter("payments.reconciliation.checked", "type", "payment_intent").count())
+            .isEqualTo(4);
+    }
+    
+    @Test
+    void marksUnpaidDriverPaymentsPaidFromTheirTransfer() {
+        stripeLists.put("transfers", "["
+            + transfer("tr_1", Map.of("driverPaymentId", "1"), null, false) + ","
+            + transfer("tr_2", Map.of(), "driver_payment_2", false) + ","
+            + transfer("tr_3", Map.of("driverPaymentId", "3"), null, true) + "]");
+        driverPayments.put(1L, new String[]{"transfer_pending", null});
+        driverPayments.put(2L, new String[]{"paid", "tr_2"});
+        driverPayments.put(3L, new String[]{"paid", "tr_3"});
+        
+        assertThat(reconcile()).isTrue();
+        
+        verify(jdbcTemplate).batchUpdate(anyString(), argThat((SqlParameterSource[] fixes) ->
+            fixes.length == 1 && Long.valueOf(1L).equals(fixes[0].getValue("id"))
+                && "tr_1".equals(fixes[0].getValue("transferId"))));
+        assertThat(mismatches("payout_unpaid")).isEqualTo(1);
+        assertThat(mismatches("payout_reversed")).isEqualTo(1);
+    }
+    
+    @Test
+    void comparesBatchedTransfersWithOneLookup() {
+        stripeLists.put("transfers", "["
+            + transfer("tr_b1", Map.of(DriverPayoutBatchService.BATCH_METADATA_KEY, "10"), "driver_payout_batch_10", false) + ","
+            + transfer("tr_b2", Map.of(DriverPayoutBatchService.BATCH_METADATA_KEY, "11"), "driver_payout_batch_11", false) + ","
+            + transfer("tr_b3", Map.of(DriverPayoutBatchService.BATCH_METADATA_KEY, "12"), "driver_payout_batch_12", false) + ","
+            + transfer("tr_b4", Map.of(DriverPayoutBatchService.BATCH_METADATA_KEY, "13"), "driver_payout_batch_13", false) + "]");
+        payoutBatches.put(10L, "paid");
+        payoutBatches.put(11L, "transfer_pending");
+        payoutBatches.put(12L, "released");
+        
+        assertThat(reconcile()).isTrue();
+        
+        assertThat(queries).filteredOn(sql -> sql.contains("driver_payout_batches")).hasSize(1);
+        assertThat(queries).noneMatch(sql -> sql.contains("driver_payments"));
+        verify(driverPayoutBatchService).complete(eq(11L), eq("tr_b2"), any(LocalDateTime.class));
+        verify(driverPayoutBatchService, never()).complete(eq(12L), anyString(), any());
+        assertThat(mismatches("payout_batch_unpaid")).isEqualTo(2);
+        assertThat(mismatches("payout_batch_missing_locally")).isEqualTo(1);
+        assertThat(meterRegistry.counter("payments.reconciliation.checked", "type", "transfer").count())
+            .isEqualTo(4);
+    }
+    
+    private boolean reconcile() {
+        Instant to = Instant.ofEpochSecond(CREATED).plus(Duration.ofHours(1));
+        return service.reconcile(to.minus(Duration.ofDays(1)), to);
+    }
+    
+    private double mismatches(String kind) {
+        return meterRegistry.counter("payments.reconciliation.mismatches", "kind", kind).count();
+    }
+    
+    private Object[] localRow(String sql, Object id) {
+        if (sql.contains("FROM payment_transactions")) {
+            String status = paymentStatuses.get(id);
+            return status != null ? new Object[]{id, status} : null;
+        }
+        if (sql.contains("FROM driver_payments")) {
+            String[] row = driverPayments.get(id);
+            return row != null ? new Object[]{id, row[0], row[1]} : null;
+        }
+        if (sql.contains("FROM driver_payout_batches")) {
+            String status = payoutBatches.get(id);
+            return status != null ? new Object[]{id, status} : null;
+        }
+        throw new IllegalStateException("Unexpected query: " + sql);
+    }
+    
+    private static ResultSet resultSet(Object[] row) throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        for (int i = 0; i < row.length; i++) {
+            Object value = row[i];
+            when(rs.getString(i + 1)).thenReturn(value != null ? value.toString() : null);
+            if (value instanceof Long number) {
+                when(rs.getLong(i + 1)).thenReturn(number);
+            }
+        }
+        return rs;
+    }
+    
+    private void respond(HttpExchange exchange, String resource) throws IOException {
+        byte[] body = ("{\"object\": \"list\", \"url\": \"/v1/" + resource + "\", \"has_more\": false, "
+            + "\"data\": " + stripeLists.get(resource) + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+    
+    private static String paymentIntent(String id, String status, String orderId) {
+        String metadata = orderId != null ? "{\"orderId\": \"" + orderId + "\"}" : "{}";
+        return "{\"id\": \"" + id + "\", \"object\": \"payment_intent\", \"status\": \"" + status + "\", "
+            + "\"created\": " + CREATED + ", \"metadata\": " + metadata + "}";
+    }
+    
+    private static String transfer(String id, Map<String, String> metadata, String transferGroup, boolean reversed) {
+        StringBuilder json = new StringBuilder("{");
+        metadata.forEach((name, value) -> json.append(json.length() > 1 ? ", " : "")
+            .append('"').append(name).append("\": \"").append(value).append('"'));
+        json.append('}');
+        return "{\"id\": \"" + id + "\", \"object\": \"transfer\", \"created\": " + CREATED + ", "
+            + "\"reversed\": " + reversed + ", "
+            + "\"transfer_group\": " + (transferGroup != null ? "\"" + transferGroup + "\"" : "null") + ", "
+            + "\"metadata\": " + json + "}";
+    }
+}
@@ -0,0 +1,142 @@
+package com.quickgas.service;
+
+import com.quickgas.config.ResilienceProperties;
+import com.quickgas.dto.PaymentIntentRequest;
+import com.quickgas.dto.PaymentIntentResponse;
+import com.quickgas.exception.ValidationException;
+import com.quickgas.repository.PaymentIdempotencyKeyRepository;
+import com.quickgas.repository.PaymentTransactionRepository;
+import com.quickgas.resilience.DependencyGuards;
+import com.stripe.Stripe;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PaymentServiceTest {
+    
+    private HttpServer stripe;
+    private final List<StripeRequest> stripeRequests = new CopyOnWriteArrayList<>();
+    private PaymentTransactionRepository transactions;
+    private DependencyGuards dependencyGuards;
+    
+    @BeforeEach
+    void startStripeStub() throws Exception {
+        stripe = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stripe.createContext("/v1/payment_intents", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            stripeRequests.add(new StripeRequest(exchange.getRequestHeaders().getFirst("Idempotency-Key"), body));
+            byte[] response = ("{\"id\": \"pi_1\", \"object\": \"payment_intent\", "
+                + "\"status\": \"requires_payment_method\", \"client_secret\": \"pi_1_secret\"}")
+                .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        stripe.start();
+        Stripe.overrideApiBase("http://127.0.0.1:" + stripe.getAddress().getPort());
+        
+        transactions = mock(PaymentTransactionRepository.class);
+        when(transactions.findByReference(any())).thenReturn(Optional.empty());
+        when(transactions.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        dependencyGuards = new DependencyGuards(new ResilienceProperties(), new SimpleMeterRegistry());
+    }
+    
+    @AfterEach
+    void stopStripeStub() {
+        stripe.stop(0);
+        Stripe.overrideApiBase(Stripe.LIVE_API_BASE);
+    }
+    
+    @Test
+    void replayedKeyThatMissesTheStoreSendsStripeTheSameRequest() throws Exception {
+        PaymentIntentRequest request = request("user-1", "client-key-1");
+        
+        // Each call goes through a fresh store, like retries landing on different instances
+        PaymentIntentResponse first = newService().createPaymentIntent(request);
+        PaymentIntentResponse second = newService().createPaymentIntent(request);
+        
+        assertThat(first.getPaymentIntentId()).isEqualTo(second.getPaymentIntentId());
+        assertThat(stripeRequests).hasSize(2);
+        assertThat(stripeRequests.get(0).idempotencyKey())
+            .isEqualTo(PaymentService.transactionReference("user-1", "client-key-1"));
+        assertThat(stripeRequests.get(1)).isEqualTo(stripeRequests.get(0));
+        assertThat(stripeRequests.get(0).body())
+            .contains("metadata[" + PaymentService.REFERENCE_METADATA_KEY + "]="
+                + PaymentService.transactionReference("user-1", "client-key-1"));
+    }
+    
+    @Test
+    void sameKeyFromDifferentUsersUsesDifferentStripeKeys() throws Exception {
+        newService().createPaymentIntent(request("user-1", "shared-key"));
+        newService().createPaymentIntent(request("user-2", "shared-key"));
+        
+        assertThat(stripeRequests).hasSize(2);
+        assertThat(stripeRequests.get(0).idempotencyKey()).isNotEqualTo(stripeRequests.get(1).idempotencyKey());
+    }
+    
+    @Test
+    void requestsWithoutKeyGetDistinctStripeKeys() throws Exception {
+        newService().createPaymentIntent(request("user-1", null));
+        newService().createPaymentIntent(request("user-1", null));
+        
+        assertThat(stripeRequests).hasSize(2);
+        assertThat(stripeRequests.get(0).idempotencyKey()).isNotEqualTo(stripeRequests.get(1).idempotencyKey());
+    }
+    
+    @Test
+    void idempotencyKeyWithoutUserIsRejected() {
+        PaymentIntentRequest request = request("user-1", "client-key-1");
+        request.setMetadata(Map.of("orderId", "order-1"));
+        
+        assertThatThrownBy(() -> newService().createPaymentIntent(request))
+            .isInstanceOf(ValidationException.class);
+        assertThat(stripeRequests).isEmpty();
+    }
+    
+    private PaymentService newService() {
+        PaymentIdempotencyKeyRepository keys = mock(PaymentIdempotencyKeyRepository.class);
+        when(keys.findByUserIdAndIdempotencyKeyAndExpiresAtAfter(any(), any(), any())).thenReturn(Optional.empty());
+        PaymentIdempotencyStore store = new PaymentIdempotencyStore(keys, new SimpleMeterRegistry(), 100, Duration.ofHours(1));
+        ReflectionTestUtils.setField(store, "waitTimeout", Duration.ofSeconds(5));
+        
+        PaymentService service = new PaymentService(transactions, mock(SecurityService.class),
+            mock(PaymentStatusWriter.class), store, dependencyGuards, mock(PaymentStatusCache.class),
+            mock(PaymentStatusService.class));
+        ReflectionTestUtils.setField(service, "stripeSecretKey", "sk_test_stub");
+        Stripe.apiKey = "sk_test_stub";
+        return service;
+    }
+    
+    private static PaymentIntentRequest request(String userId, String idempotencyKey) {
+        PaymentIntentRequest request = new PaymentIntentRequest();
+        request.setAmount(new BigDecimal("12.34"));
+        request.setCurrency("usd");
+        request.setMetadata(Map.of("userId", userId, "orderId", "order-1"));
+        request.setIdempotencyKey(idempotencyKey);
+        return request;
+    }
+    
+    private record StripeRequest(String idempotencyKey, String body) {
+    }
+}
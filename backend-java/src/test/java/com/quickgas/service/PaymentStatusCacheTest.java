@@ -0,0 +1,82 @@
+package com.quickgas.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PaymentStatusCacheTest {
+    
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PaymentStatusCache cache = new PaymentStatusCache(100, Duration.ofHours(1), meterRegistry);
+    
+    @Test
+    void olderEventDoesNotReplaceANewerOne() {
+        cache.record("pi_1", "order-1", "requires_action", 200L);
+        cache.record("pi_1", null, "processing", 100L);
+        
+        assertThat(cache.get("pi_1").status()).isEqualTo("requires_action");
+        assertThat(cache.get("pi_1").eventCreated()).isEqualTo(200L);
+        
+        cache.record("pi_1", null, "processing", 300L);
+        assertThat(cache.get("pi_1").status()).isEqualTo("processing");
+        assertThat(cache.get("pi_1").orderId()).isEqualTo("order-1");
+    }
+    
+    @Test
+    void apiReadKeepsTheNewestEventTime() {
+        cache.record("pi_1", null, "processing", 200L);
+        cache.record("pi_1", null, "requires_action", null);
+        
+        assertThat(cache.get("pi_1").status()).isEqualTo("requires_action");
+        assertThat(cache.get("pi_1").eventCreated()).isEqualTo(200L);
+        
+        // Still ordered against the last event, not the API read
+        cache.record("pi_1", null, "processing", 150L);
+        assertThat(cache.get("pi_1").status()).isEqualTo("requires_action");
+    }
+    
+    @Test
+    void terminalStatusesAreFinal() {
+        cache.record("pi_1", null, "succeeded", 100L);
+        cache.record("pi_1", null, "processing", 200L);
+        cache.record("pi_1", null, "canceled", null);
+        
+        assertThat(cache.get("pi_1").status()).isEqualTo("succeeded");
+        assertThat(PaymentStatusCache.isTerminal("canceled")).isTrue();
+        assertThat(PaymentStatusCache.isTerminal("requires_payment_method")).isFalse();
+    }
+    
+    @Test
+    void mapsOrdersToTheirIntent() {
+        cache.record("pi_1", "order-1", "processing", null);
+        
+        assertThat(cache.getIntentForOrder("order-1")).isEqualTo("pi_1");
+        assertThat(cache.getIntentForOrder("order-2")).isNull();
+    }
+    
+    @Test
+    void listenersHearStatusChangesOnly() {
+        cache.record("pi_1", null, "processing", 100L);
+        List<String> heard = new ArrayList<>();
+        Runnable remove = cache.addListener("pi_1", status -> heard.add(status.status()));
+        cache.addListener("pi_2", status -> heard.add("other intent"));
+        
+        cache.record("pi_1", null, "processing", 150L);
+        cache.record("pi_1", null, "requires_action", 50L);
+        cache.record("pi_1", null, "succeeded", 200L);
+        cache.record("pi_1", null, "canceled", 300L);
+        
+        assertThat(heard).containsExactly("succeeded");
+        assertThat(cache.getListenerCount()).isEqualTo(2);
+        assertThat(meterRegistry.get("payments.status.waiters").gauge().value()).isEqualTo(2);
+        
+        remove.run();
+        remove.run();
+        assertThat(cache.getListenerCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,99 @@
+package com.quickgas.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PaymentStatusWriterTest {
+    
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private PaymentStatusWriter writer;
+    
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        meterRegistry = new SimpleMeterRegistry();
+        writer = new PaymentStatusWriter(jdbcTemplate, meterRegistry);
+        ReflectionTestUtils.setField(writer, "maxPending", 5000);
+        ReflectionTestUtils.setField(writer, "batchSize", 500);
+        ReflectionTestUtils.setField(writer, "maxFlushAttempts", 3);
+    }
+    
+    @Test
+    void failingUpdateIsDroppedAfterMaxFlushAttempts() {
+        when(jdbcTemplate.update(anyString(), any(Object[].class)))
+            .thenThrow(new DataIntegrityViolationException("bad row"));
+        writer.submit("pi_1", "processing", null);
+        
+        for (int i = 0; i < 5; i++) {
+            writer.flush();
+        }
+        
+        verify(jdbcTemplate, times(3)).update(anyString(), any(Object[].class));
+        assertThat(pending()).isZero();
+        assertThat(meterRegistry.counter("payments.status.writes", "stage", "dropped").count()).isEqualTo(1);
+    }
+    
+    @Test
+    void failedChunkIsRetriedOnNextFlush() {
+        when(jdbcTemplate.update(anyString(), any(Object[].class)))
+            .thenThrow(new DataIntegrityViolationException("transient"))
+            .thenReturn(1);
+        writer.submit("pi_1", "processing", null);
+        
+        writer.flush();
+        assertThat(pending()).isEqualTo(1);
+        writer.flush();
+        
+        assertThat(pending()).isZero();
+        assertThat(meterRegistry.counter("payments.status.writes", "stage", "flushed").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("payments.status.writes", "stage", "dropped").count()).isZero();
+    }
+    
+    @Test
+    void synchronousWriteSupersedesQueuedStatus() {
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+        writer.submit("pi_1", "processing", null);
+        
+        assertThat(writer.write("pi_1", "succeeded", 100L)).isTrue();
+        verify(jdbcTemplate, times(1)).update(anyString(), any(Object[].class));
+        
+        writer.flush();
+        assertThat(pending()).isZero();
+        verify(jdbcTemplate, times(1)).update(anyString(), any(Object[].class));
+    }
+    
+    @Test
+    void newerQueuedEventSurvivesSynchronousWrite() {
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+        writer.submit("pi_1", "canceled", 200L);
+        
+        writer.write("pi_1", "processing", 100L);
+        
+        assertThat(pending()).isEqualTo(1);
+    }
+    
+    @Test
+    void emptyFlushDoesNotTouchTheDatabase() {
+        writer.flush();
+        
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+    
+    private double pending() {
+        return meterRegistry.get("payments.status.pending").gauge().value();
+    }
+}
@@ -0,0 +1,101 @@
+package com.quickgas.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WebhookEnvelopeTest {
+    
+    @Test
+    void readsRoutingFieldsWhateverTheFieldOrder() throws IOException {
+        String payload = """
+            {
+              "data": {"object": {"status": "succeeded", "object": "payment_intent", "id": "pi_1"}},
+              "created": 1700000000,
+              "type": "payment_intent.succeeded",
+              "object": "event",
+              "id": "evt_1"
+            }
+            """;
+        
+        WebhookEnvelope envelope = WebhookEnvelope.parse(payload);
+        
+        assertThat(envelope.getId()).isEqualTo("evt_1");
+        assertThat(envelope.getType()).isEqualTo("payment_intent.succeeded");
+        assertThat(envelope.getCreated()).isEqualTo(1700000000L);
+        assertThat(envelope.getObjectId()).isEqualTo("pi_1");
+        assertThat(envelope.getObjectStatus()).isEqualTo("succeeded");
+        assertThat(envelope.getPayload()).isSameAs(payload);
+    }
+    
+    @Test
+    void ignoresIdsAndStatusesNestedBelowTheDataObject() throws IOException {
+        WebhookEnvelope envelope = WebhookEnvelope.parse("""
+            {
+              "id": "evt_1",
+              "type": "payment_intent.payment_failed",
+              "data": {
+                "object": {
+                  "last_payment_error": {"charge": {"id": "ch_1", "status": "failed"}},
+                  "charges": {"data": [{"id": "ch_2", "status": "failed"}]},
+                  "id": "pi_1",
+                  "status": "requires_payment_method"
+                },
+                "previous_attributes": {"id": "pi_old", "status": "processing"}
+              },
+              "request": {"id": "req_1"}
+            }
+            """);
+        
+        assertThat(envelope.getId()).isEqualTo("evt_1");
+        assertThat(envelope.getObjectId()).isEqualTo("pi_1");
+        assertThat(envelope.getObjectStatus()).isEqualTo("requires_payment_method");
+    }
+    
+    @Test
+    void objectWithoutStatusOrNonStringFieldsLeavesThemNull() throws IOException {
+        WebhookEnvelope envelope = WebhookEnvelope.parse("""
+            {"id": "evt_1", "type": "account.updated",
+             "data": {"object": {"id": 42, "status": null, "details_submitted": true}}}
+            """);
+        
+        assertThat(envelope.getObjectId()).isNull();
+        assertThat(envelope.getObjectStatus()).isNull();
+        assertThat(envelope.getCreated()).isZero();
+    }
+    
+    @Test
+    void toleratesMissingOrNonObjectData() throws IOException {
+        assertThat(WebhookEnvelope.parse("{\"id\": \"evt_1\", \"type\": \"ping\"}").getObjectId()).isNull();
+        assertThat(WebhookEnvelope.parse("{\"id\": \"evt_1\", \"type\": \"ping\", \"data\": null}").getObjectId()).isNull();
+        assertThat(WebhookEnvelope.parse("{\"id\": \"evt_1\", \"type\": \"ping\", \"data\": [1, {\"object\": {}}]}")
+            .getObjectId()).isNull();
+        assertThat(WebhookEnvelope.parse("{\"id\": \"evt_1\", \"type\": \"ping\", \"data\": {\"object\": \"pi_1\"}}")
+            .getObjectId()).isNull();
+    }
+    
+    @Test
+    void rejectsPayloadsThatAreNotEvents() {
+        assertThatThrownBy(() -> WebhookEnvelope.parse("[]")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> WebhookEnvelope.parse("\"evt_1\"")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> WebhookEnvelope.parse("{\"type\": \"payment_intent.succeeded\"}"))
+            .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> WebhookEnvelope.parse("{\"id\": \"evt_1\"}")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> WebhookEnvelope.parse("{\"id\": \"evt_1\", \"type\": ")).isInstanceOf(IOException.class);
+    }
+    
+    @Test
+    void deserialisesTheFullEventOnlyOnDemand() throws IOException {
+        WebhookEnvelope envelope = WebhookEnvelope.parse("""
+            {"id": "evt_1", "object": "event", "type": "payment_intent.canceled", "created": 1700000000,
+             "data": {"object": {"id": "pi_1", "object": "payment_intent", "status": "canceled"}}}
+            """);
+        
+        assertThat(envelope.getEvent().getId()).isEqualTo("evt_1");
+        assertThat(envelope.getEvent()).isSameAs(envelope.getEvent());
+        assertThat(envelope.getEvent().getDataObjectDeserializer().getRawJson()).contains("pi_1");
+    }
+}
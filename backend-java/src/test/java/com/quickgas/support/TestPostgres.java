@@ -0,0 +1,35 @@
+package com.quickgas.support;
+
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import javax.sql.DataSource;
+
+/**
+ * Postgres for tests of SQL only Postgres runs (SKIP LOCKED, triggers, row-value comparisons).
+ * Test classes hold the container in a static @Container field under
+ * {@code @Testcontainers(disabledWithoutDocker = true)}, so they are skipped without Docker.
+ */
+public final class TestPostgres {
+    
+    private TestPostgres() {
+    }
+    
+    public static PostgreSQLContainer<?> container() {
+        return new PostgreSQLContainer<>("postgres:15");
+    }
+    
+    /**
+     * Apply the application's migrations up to and including {@code target} ("latest" for all)
+     */
+    public static DataSource migrate(PostgreSQLContainer<?> postgres, String target) {
+        Flyway.configure()
+            .dataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword())
+            .locations("classpath:db/migration")
+            .target(target)
+            .load()
+            .migrate();
+        return new DriverManagerDataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+    }
+}
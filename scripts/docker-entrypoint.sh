@@ -5,6 +5,21 @@
 echo "[ENTRYPOINT] Generating .env file from Railway environment variables..."
 /scripts/generate-config.sh || echo "[ENTRYPOINT] Warning: .env generation had issues"
 
+# Route image requests through nginx so the backend can offload bytes with X-Accel-Redirect
+mkdir -p /etc/nginx/quickgas
+if [ -n "$IMAGES_BACKEND_UPSTREAM" ]; then
+    echo "[ENTRYPOINT] Proxying /api/images/ to $IMAGES_BACKEND_UPSTREAM"
+    cat > /etc/nginx/quickgas/images-proxy.conf <<EOF
+location ^~ /api/images/ {
+    proxy_pass $IMAGES_BACKEND_UPSTREAM;
+    proxy_set_header Host \$host;
+    proxy_set_header X-Forwarded-For \$proxy_add_x_forwarded_for;
+    proxy_set_header X-Forwarded-Proto \$scheme;
+    client_max_body_size 50m;
+}
+EOF
+fi
+
 # Test nginx configuration
 echo "[ENTRYPOINT] Testing nginx configuration..."
 nginx -t || {